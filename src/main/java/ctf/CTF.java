@@ -3,6 +3,14 @@ package ctf;
 import ctf.blocks.Flag;
 import ctf.commands.CTFCommand;
 import ctf.events.FlagEvent;
+import ctf.events.PendingRemovals;
+import ctf.events.ProtectionZones;
+import ctf.events.ProximityCaptures;
+import ctf.events.TickHandler;
+import ctf.metrics.MetricsServer;
+import ctf.network.BeaconPacket;
+import ctf.network.InteractPacket;
+import ctf.network.InteractResultPacket;
 import ctf.proxy.CommonProxy;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.Mod;
@@ -11,7 +19,14 @@ import net.minecraftforge.fml.common.SidedProxy;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
+import net.minecraftforge.fml.common.event.FMLServerAboutToStartEvent;
 import net.minecraftforge.fml.common.event.FMLServerStartingEvent;
+import net.minecraftforge.fml.common.event.FMLServerStoppingEvent;
+import net.minecraftforge.fml.common.network.NetworkRegistry;
+import net.minecraftforge.fml.common.network.simpleimpl.SimpleNetworkWrapper;
+import net.minecraftforge.fml.relauncher.Side;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * Minecraft capture the flag implementation.
@@ -26,6 +41,13 @@ public class CTF {
 	/**  */
 	public static final String VERSION = "1.12.2-0.3.0";
 	
+	/**  */
+	public static final Logger LOGGER = LogManager.getLogger(MODID);
+	
+	/**  */
+	public static final SimpleNetworkWrapper NETWORK =
+			NetworkRegistry.INSTANCE.newSimpleChannel(MODID);
+	
 	/**  */
 	@SidedProxy(clientSide = "ctf.proxy.ClientProxy",
 			    serverSide = "ctf.proxy.CommonProxy")
@@ -39,6 +61,9 @@ public class CTF {
 	@EventHandler
 	public void preInit(FMLPreInitializationEvent event) {
 		Flag.init();
+		NETWORK.registerMessage(BeaconPacket.Handler.class, BeaconPacket.class, 0, Side.CLIENT);
+		NETWORK.registerMessage(InteractPacket.Handler.class, InteractPacket.class, 1, Side.SERVER);
+		NETWORK.registerMessage(InteractResultPacket.Handler.class, InteractResultPacket.class, 2, Side.CLIENT);
 		proxy.preInit(event);
 	}
 	
@@ -52,12 +77,29 @@ public class CTF {
 	@EventHandler
 	public void postInit(FMLPostInitializationEvent event) {
 		MinecraftForge.EVENT_BUS.register(new FlagEvent());
+		MinecraftForge.EVENT_BUS.register(new TickHandler());
+		MinecraftForge.EVENT_BUS.register(PendingRemovals.class);
+		MinecraftForge.EVENT_BUS.register(ProximityCaptures.class);
+		MinecraftForge.EVENT_BUS.register(ProtectionZones.class);
 		proxy.postInit(event);
 	}
 	
+	/**  */
+	@EventHandler
+	public void serverAboutToStart(FMLServerAboutToStartEvent event) {
+		ServerContext.start(event.getServer());
+	}
+	
 	/**  */
 	@EventHandler
 	public void serverStart(FMLServerStartingEvent event) {
 		event.registerServerCommand(new CTFCommand());
+		MetricsServer.start();
+	}
+	
+	/**  */
+	@EventHandler
+	public void serverStop(FMLServerStoppingEvent event) {
+		ServerContext.stop();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,233 @@
+package ctf;
+
+import net.minecraftforge.common.config.Config;
+import net.minecraftforge.common.config.ConfigManager;
+import net.minecraftforge.fml.client.event.ConfigChangedEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+
+/**
+ * Configurable settings for Capture the Flag.
+ * Saved to 'config/ctf.cfg'.
+ * @author Alec Dorrington
+ */
+@Config(modid = CTF.MODID)
+public class CTFConfig {
+	
+	@Config.Comment("Periodic backups of the match state, used by '/ctf rollback'.")
+	public static final Snapshots snapshots = new Snapshots();
+	
+	public static class Snapshots {
+		
+		@Config.Comment("The number of ticks between snapshots. Set to 0 to disable.")
+		@Config.RangeInt(min = 0)
+		public int interval = 1200;
+		
+		@Config.Comment("The number of snapshots to keep.")
+		@Config.RangeInt(min = 1)
+		public int kept = 10;
+	}
+	
+	@Config.Comment("Periodic samples of each team's score, shown by '/ctf timeline'.")
+	public static final History history = new History();
+	
+	public static class History {
+		
+		@Config.Comment("The number of ticks between samples. Set to 0 to disable.")
+		@Config.RangeInt(min = 0)
+		public int interval = 200;
+		
+		@Config.Comment("The number of recent samples kept at full resolution, and of older samples kept at reduced resolution.")
+		@Config.RangeInt(min = 16, max = 4096)
+		public int samples = 128;
+	}
+	
+	@Config.Comment("Timed events during a match. All times are in seconds.")
+	public static final Timers timers = new Timers();
+	
+	public static class Timers {
+		
+		@Config.Comment("The time after preparation before the event starts by itself. Set to 0 to disable.")
+		@Config.RangeInt(min = 0)
+		public int preparationTime = 0;
+		
+		@Config.Comment("The time after starting before the event ends by itself. Set to 0 to disable.")
+		@Config.RangeInt(min = 0)
+		public int eventDuration = 0;
+		
+		@Config.Comment("The time before a dropped flag returns home. Set to 0 to disable.")
+		@Config.RangeInt(min = 0)
+		public int flagReturnTime = 300;
+		
+		@Config.Comment("The time a team must wait between captures. Set to 0 to disable.")
+		@Config.RangeInt(min = 0)
+		public int captureCooldown = 0;
+	}
+	
+	@Config.Comment("Areas around flags in which players can't place or break blocks, so that flags can't be walled in or buried.")
+	public static final Protection protection = new Protection();
+	
+	public static class Protection {
+		
+		@Config.Comment("The distance in blocks from a flag or flag home within which blocks can't be placed. Set to 0 to disable.")
+		@Config.RangeInt(min = 0, max = 32)
+		public int buildRadius = 3;
+		
+		@Config.Comment("The distance in blocks from a flag or flag home within which blocks can't be broken or blown up. Set to 0 to disable.")
+		@Config.RangeInt(min = 0, max = 32)
+		public int breakRadius = 3;
+	}
+	
+	@Config.Comment("The bases built under home flags when they spawn.")
+	public static final Bases bases = new Bases();
+	
+	public static class Bases {
+		
+		@Config.Comment("Whether to build a base under each home flag, so that flags are equally easy to reach wherever they spawn.")
+		public boolean enabled = true;
+		
+		@Config.Comment("The number of blocks of the bases written per tick. Whole chunks are always written at once.")
+		@Config.RangeInt(min = 1, max = 65536)
+		public int blocksPerTick = 1024;
+	}
+	
+	@Config.Comment("Limits on how often players may interact with flags. All times are in ticks.")
+	public static final Interaction interaction = new Interaction();
+	
+	public static class Interaction {
+		
+		@Config.Comment("The minimum time between flag interactions by the same player.")
+		@Config.RangeInt(min = 0)
+		public int debounce = 10;
+		
+		@Config.Comment("The minimum time between messages telling a player why they can't interact with a flag.")
+		@Config.RangeInt(min = 0)
+		public int messageCooldown = 40;
+	}
+	
+	@Config.Comment("Capturing and returning flags by walking up to them, rather than clicking them.")
+	public static final Proximity proximity = new Proximity();
+	
+	public static class Proximity {
+		
+		@Config.Comment("Whether flags are captured and returned by walking up to them.")
+		public boolean enabled = false;
+		
+		@Config.Comment("The distance in blocks within which a player is near a flag.")
+		@Config.RangeDouble(min = 0.5, max = 16.0)
+		public double radius = 2.5;
+	}
+	
+	@Config.Comment("Background checks that the stored flag state matches the world, shown by '/ctf check'.")
+	public static final Consistency consistency = new Consistency();
+	
+	public static class Consistency {
+		
+		@Config.Comment("The most time in microseconds spent checking each tick. Set to 0 to disable.")
+		@Config.RangeInt(min = 0, max = 10000)
+		public int budget = 200;
+		
+		@Config.Comment("Whether to repair problems which are found, rather than only logging them.")
+		public boolean repair = true;
+	}
+	
+	@Config.Comment("Particles marking every flag and flag carrier, so that flags are easier to find.")
+	public static final Beacons beacons = new Beacons();
+	
+	public static class Beacons {
+		
+		@Config.Comment("The number of ticks between batches of particles sent to each player. Set to 0 to disable.")
+		@Config.RangeInt(min = 0)
+		public int interval = 10;
+		
+		@Config.Comment("The number of particles in the column above each flag, per batch.")
+		@Config.RangeInt(min = 0, max = 127)
+		public int beaconParticles = 12;
+		
+		@Config.Comment("The number of particles around each flag carrier, per batch.")
+		@Config.RangeInt(min = 0, max = 127)
+		public int trailParticles = 4;
+		
+		@Config.Comment("The most particles per tick sent to all players together. Particles are reduced evenly to stay within this.")
+		@Config.RangeInt(min = 1)
+		public int budget = 500;
+	}
+	
+	@Config.Comment("Recordings of the paths taken by flag carriers, saved to 'telemetry-<event>.bin.gz'.")
+	public static final Telemetry telemetry = new Telemetry();
+	
+	public static class Telemetry {
+		
+		@Config.Comment("The number of ticks between samples of each carrier's position. Set to 0 to disable.")
+		@Config.RangeInt(min = 0)
+		public int interval = 0;
+		
+		@Config.Comment("The most memory in kilobytes used to hold unfinished paths. Samples beyond this are skipped.")
+		@Config.RangeInt(min = 16)
+		public int memoryLimit = 4096;
+	}
+	
+	@Config.Comment("Scaling back optional work while the server is struggling to keep up, shown by '/ctf load'.")
+	public static final Load load = new Load();
+	
+	public static class Load {
+		
+		@Config.Comment("The average milliseconds per tick above which optional work is reduced. Set to 0 to disable.")
+		@Config.RangeDouble(min = 0.0, max = 1000.0)
+		public double reducedMspt = 40.0;
+		
+		@Config.Comment("The average milliseconds per tick above which optional work is kept to a minimum. Set to 0 to disable.")
+		@Config.RangeDouble(min = 0.0, max = 1000.0)
+		public double minimalMspt = 47.0;
+		
+		@Config.Comment("The fraction of a threshold below which the average must fall before optional work is restored.")
+		@Config.RangeDouble(min = 0.1, max = 1.0)
+		public double recovery = 0.8;
+	}
+	
+	@Config.Comment("Sharing one event between several servers, such as those behind a proxy.")
+	public static final Shared shared = new Shared();
+	
+	public static class Shared {
+		
+		@Config.Comment("The file through which the servers share the event, which each server must be able to reach. Leave empty for a single server.")
+		@Config.RequiresWorldRestart
+		public String file = "";
+		
+		@Config.Comment("A number identifying this server, which must be different for each server sharing the event.")
+		@Config.RangeInt(min = 0)
+		@Config.RequiresWorldRestart
+		public int serverId = 0;
+		
+		@Config.Comment("The number of ticks between exchanges of changes with the other servers.")
+		@Config.RangeInt(min = 1, max = 200)
+		public int interval = 5;
+	}
+	
+	@Config.Comment("An HTTP endpoint serving metrics in the Prometheus format, for monitoring.")
+	public static final Metrics metrics = new Metrics();
+	
+	public static class Metrics {
+		
+		@Config.Comment("Whether to serve metrics at 'http://localhost:<port>/metrics'. Only local connections are accepted.")
+		@Config.RequiresWorldRestart
+		public boolean enabled = false;
+		
+		@Config.Comment("The port on which to serve metrics.")
+		@Config.RangeInt(min = 1, max = 65535)
+		@Config.RequiresWorldRestart
+		public int port = 9464;
+	}
+	
+	/** Reloads the config when it is changed in-game. */
+	@Mod.EventBusSubscriber(modid = CTF.MODID)
+	private static class Handler {
+		
+		@SubscribeEvent
+		public static void onConfigChanged(ConfigChangedEvent.OnConfigChangedEvent event) {
+			if(event.getModID().equals(CTF.MODID)) {
+				ConfigManager.sync(CTF.MODID, Config.Type.INSTANCE);
+			}
+		}
+	}
+}
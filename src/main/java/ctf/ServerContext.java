@@ -0,0 +1,214 @@
+package ctf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import ctf.data.CarrierTelemetry;
+import ctf.data.MatchJournal;
+import ctf.data.MatchPublisher;
+import ctf.data.PlayerStats;
+import ctf.data.RegionScanner;
+import ctf.data.ScoreHistory;
+import ctf.data.Snapshots;
+import ctf.events.ConsistencyChecker;
+import ctf.events.FlagEvent;
+import ctf.events.InteractionLimiter;
+import ctf.events.JoinDigest;
+import ctf.events.LoadShedder;
+import ctf.events.ProtectionZones;
+import ctf.events.ProximityCaptures;
+import ctf.events.RemoteInteractions;
+import ctf.metrics.MetricsServer;
+import ctf.shared.FileBackend;
+import ctf.shared.LocalBackend;
+import ctf.shared.StateBackend;
+import ctf.util.Messenger;
+import ctf.util.StructureWriter;
+import ctf.util.Teams;
+import net.minecraft.scoreboard.IScoreCriteria;
+import net.minecraft.scoreboard.ScoreObjective;
+import net.minecraft.scoreboard.Scoreboard;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.storage.MapStorage;
+import net.minecraft.world.storage.WorldSavedData;
+
+/**
+ * Everything belonging to the currently running server.
+ * Created when the server starts and released when it stops, such that nothing from one world
+ * is held on to or written to after another world is loaded, as happens in single player.
+ * Objectives and saved data are looked up the first time they're needed, rather than on class loading.
+ * @author Alec Dorrington
+ */
+public class ServerContext {
+	
+	/** The context of the running server, or null if no server is running. */
+	private static ServerContext current;
+	
+	/** The running server. */
+	private final MinecraftServer server;
+	
+	/** The scoreboard of the overworld, or null if it hasn't been needed yet. */
+	private Scoreboard scoreboard;
+	
+	/** Scoreboard objectives which have been looked up, by name. */
+	private final Map<String, ScoreObjective> objectives = new HashMap<>();
+	
+	/** Saved data which has been loaded, by name. */
+	private final Map<String, WorldSavedData> data = new HashMap<>();
+	
+	/** The backend holding the values of the event, or null if it hasn't been needed yet. */
+	private StateBackend backend;
+	
+	/**
+	 * @param server the running server.
+	 */
+	private ServerContext(MinecraftServer server) {
+		this.server = server;
+	}
+	
+	/**
+	 * Create the context for a server which is about to start.
+	 * This happens before any worlds are loaded, since chunks may be loaded before the server has finished starting.
+	 * @param server the starting server.
+	 */
+	public static void start(MinecraftServer server) {
+		current = new ServerContext(server);
+	}
+	
+	/**
+	 * Release everything belonging to the server which is stopping.
+	 */
+	public static void stop() {
+		
+		//Whatever fails to close, the context is always forgotten, so that the next server starts afresh.
+		try {
+			MatchJournal.close();
+			FlagEvent.clear();
+			ProximityCaptures.clear();
+			ProtectionZones.clear();
+			InteractionLimiter.clear();
+			RemoteInteractions.clear();
+			ConsistencyChecker.clear();
+			RegionScanner.stop();
+			JoinDigest.clear();
+			LoadShedder.clear();
+			Messenger.clear();
+			Teams.clear();
+			StructureWriter.clear();
+			PlayerStats.close();
+			ScoreHistory.reset();
+			Snapshots.clear();
+			CarrierTelemetry.clear();
+			MatchPublisher.clear();
+			MetricsServer.stop();
+		} finally {
+			try {
+				//Send the last changes to any other servers.
+				if(current != null && current.backend != null) {
+					current.backend.close();
+				}
+			} finally {
+				current = null;
+			}
+		}
+	}
+	
+	/**
+	 * @return the context of the running server.
+	 * @throws IllegalStateException if no server is running.
+	 */
+	public static ServerContext get() {
+		
+		ServerContext context = current;
+		if(context == null) {
+			throw new IllegalStateException("No CTF server is running.");
+		}
+		return context;
+	}
+	
+	/** @return the running server. */
+	public MinecraftServer getServer() { return server; }
+	
+	/** @return the overworld of the running server. */
+	public WorldServer getOverworld() { return server.getWorld(0); }
+	
+	/** @return the scoreboard of the overworld. */
+	public Scoreboard getScoreboard() {
+		if(scoreboard == null) {
+			scoreboard = getOverworld().getScoreboard();
+		}
+		return scoreboard;
+	}
+	
+	/**
+	 * Get the backend holding the values of the event, which shares them with other servers if configured to.
+	 * Created the first time it's needed, since the values are kept in the scoreboard.
+	 * @return the backend.
+	 */
+	public StateBackend getBackend() {
+		
+		if(backend == null) {
+			backend = createBackend();
+			backend.subscribe(Messenger.CHANNEL, Messenger::receive);
+			FlagEvent.subscribe(backend);
+		}
+		return backend;
+	}
+	
+	/**
+	 * Get the scoreboard objective of the given name.
+	 * Will create a new objective if it doesn't yet exist.
+	 * @param name the name of the objective to find/create.
+	 * @return the objective instance.
+	 */
+	public ScoreObjective getObjective(String name) {
+		
+		return objectives.computeIfAbsent(name, n -> {
+			ScoreObjective objective = getScoreboard().getObjective(n);
+			return objective != null ? objective :
+					getScoreboard().addScoreObjective(n, IScoreCriteria.DUMMY);
+		});
+	}
+	
+	/**
+	 * @return a backend sharing the values through the configured file,
+	 * or keeping them to this server if there is no file or it can't be opened.
+	 */
+	private static StateBackend createBackend() {
+		
+		String file = CTFConfig.shared.file;
+		if(!file.isEmpty()) {
+			try {
+				return new FileBackend(new File(file), CTFConfig.shared.serverId, new LocalBackend());
+			} catch(IOException e) {
+				CTF.LOGGER.error("Unable to open the shared CTF state " + file
+						+ ". The event won't be shared with other servers.", e);
+			}
+		}
+		return new LocalBackend();
+	}
+	
+	/**
+	 * Get some saved data of the overworld, loading or creating it if necessary.
+	 * @param name the name under which the data is saved.
+	 * @param type the class of the data.
+	 * @param constructor creates empty data with the given name.
+	 * @return the saved data.
+	 */
+	public <T extends WorldSavedData> T getData(String name, Class<T> type, Function<String, T> constructor) {
+		
+		return type.cast(data.computeIfAbsent(name, n -> {
+			MapStorage storage = getOverworld().getMapStorage();
+			WorldSavedData loaded = storage.getOrLoadData(type, n);
+			if(loaded == null) {
+				loaded = constructor.apply(n);
+				storage.setData(n, loaded);
+			}
+			return loaded;
+		}));
+	}
+}
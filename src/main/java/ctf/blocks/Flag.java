@@ -5,6 +5,7 @@ import java.util.Map;
 
 import ctf.CTF;
 import ctf.events.FlagEvent;
+import ctf.util.BulkBlockWriter;
 import ctf.util.Colour;
 import ctf.util.WorldUtils;
 import net.minecraft.block.Block;
@@ -14,6 +15,7 @@ import net.minecraft.block.material.Material;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.init.Blocks;
+import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.EnumHand;
 import net.minecraft.util.ResourceLocation;
@@ -21,7 +23,10 @@ import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.IBlockAccess;
 import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.common.util.FakePlayer;
 import net.minecraftforge.fml.common.registry.ForgeRegistries;
+import net.minecraftforge.fml.common.registry.GameRegistry;
 
 /**
  * Flags are used to score points during a flag event.
@@ -69,11 +74,7 @@ public class Flag extends Block {
 	//Trigger flag interaction when a flag is left-clicked.
 	@Override
 	public void onBlockClicked(World world, BlockPos pos, EntityPlayer player) {
-		
-		//Only trigger interaction on the server side.
-		if(!world.isRemote) {
-			FlagEvent.interact(COLOUR, player, world, pos);
-		}
+		interact(world, pos, player);
 	}
 	
 	//Trigger flag interaction when a flag is right-clicked.
@@ -82,13 +83,31 @@ public class Flag extends Block {
 			IBlockState state, EntityPlayer player, EnumHand hand,
 			EnumFacing facing, float hitX, float hitY, float hitZ) {
 		
-		//Only trigger interaction on the server side.
-		if(!world.isRemote) {
+		interact(world, pos, player);
+		return true;
+	}
+	
+	/**
+	 * Trigger flag interaction when a flag is clicked.
+	 * Players predict the outcome on their client, which sends the click to the server itself,
+	 * so only fake players such as those of machines interact through the server side click.
+	 * @param world the world containing the flag.
+	 * @param pos the position of the flag.
+	 * @param player the player who clicked the flag.
+	 */
+	private void interact(World world, BlockPos pos, EntityPlayer player) {
+		
+		if(world.isRemote) {
+			CTF.proxy.predictInteraction(COLOUR, player, world, pos);
+		} else if(player instanceof FakePlayer) {
 			FlagEvent.interact(COLOUR, player, world, pos);
 		}
-		return true;
 	}
 	
+	//Flags have a tile entity, such that clients draw their waving cloth.
+	@Override public boolean hasTileEntity(IBlockState state) { return true; }
+	@Override public TileEntity createTileEntity(World world, IBlockState state) { return new FlagTile(); }
+	
 	//Flags aren't full blocks.
 	@Override public boolean isFullCube(IBlockState state) { return false; }
 	@Override public boolean isOpaqueCube(IBlockState state) { return false; }
@@ -127,6 +146,7 @@ public class Flag extends Block {
 		for(Colour colour : Colour.values()) {
 			flags.put(colour, new Flag(colour));
 		}
+		GameRegistry.registerTileEntity(FlagTile.class, new ResourceLocation(CTF.MODID, "flag"));
 	}
 	
 	/**
@@ -138,15 +158,42 @@ public class Flag extends Block {
 	 */
 	public static BlockPos add(World world, BlockPos position, Colour colour) {
 		
-		BlockPos pos = WorldUtils.placeBlock(world, position, get(colour).getDefaultState());
+		BulkBlockWriter writer = new BulkBlockWriter();
+		BlockPos pos = add(writer, world, position, colour);
+		writer.flush();
+		return pos;
+	}
+	
+	/**
+	 * Add a flag as close to the given position as possible, as part of a bulk change.
+	 * @param writer the writer with which to add the flag.
+	 * @param world the world in which to add the flag.
+	 * @param position the desired flag position.
+	 * @param colour the colour of flag to add.
+	 * @return the actual position of the flag.
+	 */
+	public static BlockPos add(BulkBlockWriter writer, World world, BlockPos position, Colour colour) {
+		
+		BlockPos pos = WorldUtils.placeBlock(writer, world, position, get(colour).getDefaultState());
 		
 		//If the flag is on water/lava, place a dirt block below it.
 		if(world.getBlockState(pos.down()).getBlock() instanceof BlockLiquid) {
-			world.setBlockState(pos.down(), Blocks.DIRT.getDefaultState());
+			writer.set(world, pos.down(), Blocks.DIRT.getDefaultState());
 		}
 		return pos;
 	}
 	
+	/**
+	 * Place a flag at exactly the given position in a chunk which is being loaded.
+	 * Changes the chunk directly, so that neighbouring chunks aren't loaded by block updates.
+	 * @param chunk the chunk in which to place the flag.
+	 * @param position the position of the flag.
+	 * @param colour the colour of flag to place.
+	 */
+	public static void add(Chunk chunk, BlockPos position, Colour colour) {
+		chunk.setBlockState(position, get(colour).getDefaultState());
+	}
+	
 	/**
 	 * Remove the flag at the given position.
 	 * @param world the world from which to remove a flag.
@@ -154,22 +201,55 @@ public class Flag extends Block {
 	 */
 	public static void remove(World world, BlockPos position) {
 		
+		BulkBlockWriter writer = new BulkBlockWriter();
+		remove(writer, world, position);
+		writer.flush();
+	}
+	
+	/**
+	 * Remove the flag at the given position, as part of a bulk change.
+	 * @param writer the writer with which to remove the flag.
+	 * @param world the world from which to remove a flag.
+	 * @param position the position of the flag.
+	 */
+	public static void remove(BulkBlockWriter writer, World world, BlockPos position) {
+		
 		//Get the block at the specified position.
 		Block block = world.getBlockState(position).getBlock();
 		
 		if(block instanceof Flag) {
 			
-			Flag flag = (Flag) block;
+			//Find the bottom of the flag, then remove every flag block of the same colour above it.
+			BlockPos pos = position;
+			while(world.getBlockState(pos.down()).getBlock() == block) {
+				pos = pos.down();
+			}
+			for(; world.getBlockState(pos).getBlock() == block; pos = pos.up()) {
+				writer.set(world, pos, Blocks.AIR.getDefaultState());
+			}
+		}
+	}
+	
+	/**
+	 * Remove the flag at the given position from a chunk which is being loaded.
+	 * Changes the chunk directly, so that neighbouring chunks aren't loaded by block updates.
+	 * @param chunk the chunk containing the flag.
+	 * @param position the position of the flag.
+	 */
+	public static void remove(Chunk chunk, BlockPos position) {
+		
+		//Get the block at the specified position.
+		Block block = chunk.getBlockState(position).getBlock();
+		
+		if(block instanceof Flag) {
 			
 			//Remove the block if it is a flag.
-			world.setBlockState(position, Blocks.AIR.getDefaultState());
+			chunk.setBlockState(position, Blocks.AIR.getDefaultState());
 			
-			//Remove other parts of the flag also.
+			//Remove adjacent flag blocks of the same colour.
 			for(BlockPos pos : new BlockPos[] {position.up(), position.down()}) {
-				
-				//Remove adjacent flag blocks of the same colour.
-				if(world.getBlockState(pos).getBlock() == flag) {
-					remove(world, pos);
+				if(chunk.getBlockState(pos).getBlock() == block) {
+					remove(chunk, pos);
 				}
 			}
 		}
@@ -0,0 +1,83 @@
+package ctf.blocks;
+
+import ctf.util.Colour;
+import ctf.util.StructureWriter;
+import net.minecraft.block.BlockColored;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+/**
+ * The base on which each home flag stands: a round platform edged in the colour of its team,
+ * with a pillar at each corner, raised on a foundation down to the ground and cleared of blocks above,
+ * such that every flag is as easy to reach and to defend as any other, wherever it spawns.
+ * Whatever the base replaces is put back when the event stops.
+ * @author Alec Dorrington
+ */
+public class FlagBase {
+	
+	/** The radius of the platform. */
+	private static final int RADIUS = 4;
+	
+	/** The distance of each pillar from the flag along both axes. */
+	private static final int PILLAR_OFFSET = 3;
+	
+	/** The height of each pillar above the platform. */
+	private static final int PILLAR_HEIGHT = 3;
+	
+	/** The number of blocks above the platform which are cleared. */
+	private static final int CLEARANCE = 4;
+	
+	/** The greatest depth of the foundation below the platform. */
+	private static final int FOUNDATION_DEPTH = 16;
+	
+	/**
+	 * Queue the base under a flag to be built over the next few ticks.
+	 * @param world the world containing the flag.
+	 * @param flag the position of the flag.
+	 * @param colour the colour of the flag.
+	 */
+	public static void build(World world, BlockPos flag, Colour colour) {
+		
+		IBlockState stone = Blocks.STONEBRICK.getDefaultState();
+		IBlockState wool = Blocks.WOOL.getDefaultState().withProperty(BlockColored.COLOR, colour.DYE_COLOUR);
+		IBlockState air = Blocks.AIR.getDefaultState();
+		
+		for(int x = -RADIUS; x <= RADIUS; x++) {
+			for(int z = -RADIUS; z <= RADIUS; z++) {
+				
+				//Adding the radius rounds off the points which would otherwise stick out of the circle.
+				int distanceSq = x * x + z * z;
+				if(distanceSq > RADIUS * RADIUS + RADIUS) {
+					continue;
+				}
+				boolean edge = distanceSq > (RADIUS - 1) * (RADIUS - 1) + (RADIUS - 1);
+				boolean pillar = Math.abs(x) == PILLAR_OFFSET && Math.abs(z) == PILLAR_OFFSET;
+				
+				//The platform, edged with the team colour.
+				BlockPos floor = flag.add(x, -1, z);
+				StructureWriter.set(world, floor, edge ? wool : stone);
+				
+				//Fill any gap below the platform, so that it doesn't float.
+				for(int y = 1; y <= FOUNDATION_DEPTH && floor.getY() - y >= 0; y++) {
+					BlockPos below = floor.down(y);
+					if(!world.getBlockState(below).getBlock().isReplaceable(world, below)) {
+						break;
+					}
+					StructureWriter.set(world, below, stone);
+				}
+				
+				//Pillars topped with the team colour, and nothing else above the platform but the flag.
+				for(int y = 1; y <= CLEARANCE; y++) {
+					BlockPos above = floor.up(y);
+					if(above.equals(flag)) {
+						continue;
+					}
+					StructureWriter.set(world, above, !pillar || y > PILLAR_HEIGHT ? air
+							: y == PILLAR_HEIGHT ? wool : stone);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package ctf.blocks;
+
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraftforge.fml.relauncher.Side;
+import net.minecraftforge.fml.relauncher.SideOnly;
+
+/**
+ * Marks a flag such that the client draws its cloth, which waves and so can't be part of the block model.
+ * Holds no data and never ticks, so it costs nothing on the server beyond being saved with the chunk.
+ * @author Alec Dorrington
+ */
+public class FlagTile extends TileEntity {
+	
+	/** The squared distance beyond which the cloth isn't drawn. */
+	private static final double MAX_RENDER_DISTANCE_SQ = 128.0 * 128.0;
+	
+	/** The space the cloth may wave through, so that flags out of view are skipped. Found when first drawn. */
+	private AxisAlignedBB renderBounds = null;
+	
+	@Override
+	@SideOnly(Side.CLIENT)
+	public AxisAlignedBB getRenderBoundingBox() {
+		
+		//The cloth reaches a block and a half from the pole, and may swing to either side.
+		if(renderBounds == null) {
+			renderBounds = new AxisAlignedBB(pos.add(-1, 0, 0), pos.add(2, 2, 2));
+		}
+		return renderBounds;
+	}
+	
+	@Override
+	@SideOnly(Side.CLIENT)
+	public double getMaxRenderDistanceSquared() {
+		return MAX_RENDER_DISTANCE_SQ;
+	}
+}
@@ -1,18 +1,54 @@
 package ctf.commands;
 
+import static ctf.util.Colour.*;
+import static ctf.util.Messenger.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import ctf.data.JournalReader;
+import ctf.data.MatchJournal;
+import ctf.data.MatchState;
+import ctf.data.PlayerStats;
+import ctf.data.PlayerStats.Stat;
+import ctf.data.RegionScanner;
+import ctf.data.RegionScanner.Orphan;
+import ctf.data.ScoreHistory;
+import ctf.data.Snapshots;
+import ctf.events.ConsistencyChecker;
+import ctf.events.ConsistencyChecker.Problem;
 import ctf.events.FlagEvent;
+import ctf.events.LoadShedder;
+import ctf.events.LoadShedder.Level;
+import ctf.util.CaptureMatrix;
+import ctf.util.Colour;
+import ctf.util.Teams;
 import ctf.util.Values;
 import net.minecraft.command.CommandBase;
 import net.minecraft.command.CommandException;
 import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
 
 /**
  * Command for cycling the state of Capture the Flag.
  * Inactive -> Preparation -> Active
+ * Also provides subcommands for administering the event.
  * @author Alec Dorrington
  */
 public class CTFCommand extends CommandBase {
+	
+	/** The maximum number of samples shown in each line of '/ctf timeline'. */
+	private static final int TIMELINE_LENGTH = 40;
+	
+	/** The maximum number of orphaned flags listed by '/ctf orphans'. */
+	private static final int ORPHANS_SHOWN = 10;
+	
+	/** The block characters used to draw sparklines, from lowest to highest. */
+	private static final String SPARKS = "\u2581\u2582\u2583\u2584\u2585\u2586\u2587\u2588";
 
 	@Override
 	public String getName() { return "ctf"; }
@@ -26,6 +62,81 @@ public class CTFCommand extends CommandBase {
 	public void execute(MinecraftServer server, ICommandSender sender,
 			String[] args) throws CommandException {
 		
+		//Without a subcommand, advance the event to the next state.
+		if(args.length == 0) {
+			cycle();
+			return;
+		}
+		
+		switch(args[0]) {
+			
+			case "journal":
+				journal(sender, args);
+				break;
+				
+			case "snapshot":
+				Snapshots.save();
+				tell(sender, "A snapshot of the match state is being saved.");
+				break;
+				
+			case "rollback":
+				rollback(sender, args);
+				break;
+				
+			case "captures":
+				captures(sender);
+				break;
+				
+			case "timeline":
+				timeline(sender);
+				break;
+				
+			case "top":
+				top(sender, args);
+				break;
+				
+			case "check":
+				check(sender);
+				break;
+				
+			case "orphans":
+				orphans(sender, args);
+				break;
+				
+			case "load":
+				load(sender);
+				break;
+				
+			default:
+				throw new WrongUsageException(getUsage(sender));
+		}
+	}
+	
+	@Override
+	public List<String> getTabCompletions(MinecraftServer server,
+			ICommandSender sender, String[] args, BlockPos position) {
+		
+		if(args.length == 1) {
+			return getListOfStringsMatchingLastWord(args, "journal", "snapshot", "rollback", "captures", "timeline", "top", "check", "orphans", "load");
+		} else if(args.length == 2 && args[0].equals("journal")) {
+			return getListOfStringsMatchingLastWord(args, "verify");
+		} else if(args.length == 2 && args[0].equals("orphans")) {
+			return getListOfStringsMatchingLastWord(args, "scan", "clean");
+		} else if(args.length == 2 && args[0].equals("top")) {
+			return getListOfStringsMatchingLastWord(args, Arrays.stream(Stat.values())
+					.map(stat -> stat.NAME).toArray(String[]::new));
+		}
+		return Collections.emptyList();
+	}
+	
+	@Override
+	public int getRequiredPermissionLevel() { return 2; }
+	
+	/**
+	 * Cycle the state of the event.
+	 */
+	private void cycle() {
+		
 	    //Inactive -> Preparation
 	    if(!Values.getBoolean("ctf:flags_prepared")) {
             FlagEvent.prepare();
@@ -40,6 +151,227 @@ public class CTFCommand extends CommandBase {
         }
 	}
 	
-	@Override
-	public int getRequiredPermissionLevel() { return 2; }
-}
\ No newline at end of file
+	/**
+	 * Show the number of captures made by each team, and how many flags each can still capture.
+	 * @param sender the sender of the command.
+	 */
+	private void captures(ICommandSender sender) {
+		
+		for(Colour colour : Teams.getColours()) {
+			tell(sender, "&" + colour.DISPLAY_NAME + "&: &" + CaptureMatrix.getTotal(colour)
+					+ "& captures, &" + FlagEvent.getCapturableFlags(colour) + "& flags remaining.",
+					colour, WHITE, WHITE);
+		}
+	}
+	
+	/**
+	 * Show the leading players of a statistic, across all events.
+	 * @param sender the sender of the command.
+	 * @param args the command arguments, where the second is the name of the statistic.
+	 */
+	private void top(ICommandSender sender, String[] args) throws CommandException {
+		
+		Stat stat = args.length < 2 ? null : Stat.fromName(args[1]);
+		if(stat == null) {
+			throw new WrongUsageException("commands.ctf.top.usage");
+		}
+		
+		String[] names = PlayerStats.getTopNames(stat);
+		long[] values = PlayerStats.getTopValues(stat);
+		if(names.length == 0) {
+			tell(sender, "No players have any " + stat.NAME.replace('_', ' ') + " yet.");
+		}
+		
+		for(int i = 0; i < names.length; i++) {
+			
+			//Carry time is recorded in ticks, but shown in seconds.
+			String value = stat == Stat.CARRY_TIME ? values[i] / 20 + "s" : String.valueOf(values[i]);
+			tell(sender, (i + 1) + ". &" + names[i] + "&: &" + value + "&", WHITE, WHITE);
+		}
+	}
+	
+	/**
+	 * Show the number of problems found and repaired by the consistency checker.
+	 * @param sender the sender of the command.
+	 */
+	private void check(ICommandSender sender) {
+		
+		tell(sender, "The loaded chunks have been searched &" + ConsistencyChecker.getSweeps() + "& times.", WHITE);
+		for(Problem problem : Problem.values()) {
+			tell(sender, "&" + problem.DESCRIPTION + "&: &" + ConsistencyChecker.getFound(problem)
+					+ "& found, &" + ConsistencyChecker.getRepaired(problem) + "& repaired.",
+					WHITE, WHITE, WHITE);
+		}
+	}
+	
+	/**
+	 * Scan the region files for orphaned flags, remove those found, or show the progress of either.
+	 * @param sender the sender of the command.
+	 * @param args the command arguments, where the second is 'scan' or 'clean', if present.
+	 */
+	private void orphans(ICommandSender sender, String[] args) throws CommandException {
+		
+		String action = args.length < 2 ? "" : args[1];
+		switch(action) {
+			
+			case "scan":
+				if(!RegionScanner.scan()) {
+					throw new CommandException("commands.ctf.orphans.scanning");
+				}
+				tell(sender, "The region files are being scanned for orphaned flags.");
+				break;
+				
+			case "clean":
+				if(RegionScanner.isScanning()) {
+					throw new CommandException("commands.ctf.orphans.scanning");
+				}
+				tell(sender, "Removing &" + RegionScanner.clean() + "& orphaned flags.", WHITE);
+				break;
+				
+			case "":
+				if(RegionScanner.isScanning()) {
+					tell(sender, "Scanning: &" + RegionScanner.getRemainingFiles() + "& region files remaining.", WHITE);
+				}
+				tell(sender, "Read &" + RegionScanner.getChunks() + "& chunks, skipped &"
+						+ RegionScanner.getSkippedSections() + "& sections, &"
+						+ RegionScanner.getUnreadableChunks() + "& chunks were unreadable.", WHITE, WHITE, WHITE);
+				
+				List<Orphan> orphans = RegionScanner.getOrphans();
+				tell(sender, "Found &" + orphans.size() + "& orphaned flags, &" + RegionScanner.getPendingRemovals()
+						+ "& waiting to be removed, &" + RegionScanner.getRemoved() + "& removed.", WHITE, WHITE, WHITE);
+				for(int i = 0; i < Math.min(orphans.size(), ORPHANS_SHOWN); i++) {
+					Orphan orphan = orphans.get(i);
+					tell(sender, " - &" + orphan.colour.DISPLAY_NAME + "& at "
+							+ posStr(orphan.position, orphan.dimension), orphan.colour);
+				}
+				break;
+				
+			default:
+				throw new WrongUsageException("commands.ctf.orphans.usage");
+		}
+	}
+	
+	/**
+	 * Show how much optional work is being done, given the recent tick times.
+	 * @param sender the sender of the command.
+	 */
+	private void load(ICommandSender sender) {
+		
+		Level level = LoadShedder.getLevel();
+		tell(sender, "Optional work is at the &" + level.NAME + "& level, averaging &"
+				+ String.format("%.1f", LoadShedder.getMspt()) + "& ms per tick over the last &"
+				+ LoadShedder.WINDOW + "& ticks.", level == Level.NORMAL ? GREEN : RED, WHITE, WHITE);
+		
+		if(level != Level.NORMAL) {
+			tell(sender, "Optional work runs &" + level.STRIDE + "& times less often with &"
+					+ (int) (level.BUDGET * 100) + "%& of its time budget, and announcements are combined every &"
+					+ level.COALESCE + "& ticks.", WHITE, WHITE, WHITE);
+		}
+		tell(sender, "The level has risen &" + LoadShedder.getRaised() + "& times since the server started.", WHITE);
+	}
+	
+	/**
+	 * Show a sparkline of the recent scores of each team.
+	 * @param sender the sender of the command.
+	 */
+	private void timeline(ICommandSender sender) {
+		
+		boolean empty = true;
+		for(Colour colour : Teams.getColours()) {
+			
+			int[] scores = ScoreHistory.getScores(colour, TIMELINE_LENGTH);
+			int[] captures = ScoreHistory.getCaptures(colour, 1);
+			if(scores.length == 0) {
+				continue;
+			}
+			
+			tell(sender, "&" + colour.DISPLAY_NAME + " " + sparkline(scores) + "& &"
+					+ scores[scores.length - 1] + "& points, &" + captures[0] + "& captures.",
+					colour, WHITE, WHITE);
+			empty = false;
+		}
+		
+		if(empty) {
+			tell(sender, "No scores have been recorded for this event yet.");
+		}
+	}
+	
+	/**
+	 * Draw a series of values as a line of block characters of varying height.
+	 * @param values the values to draw.
+	 * @return the sparkline.
+	 */
+	private static String sparkline(int[] values) {
+		
+		int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+		for(int value : values) {
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+		
+		//Scale each value to the height of a block character.
+		StringBuilder line = new StringBuilder(values.length);
+		for(int value : values) {
+			int level = max == min ? 0 : (int) ((long) (value - min) * (SPARKS.length() - 1) / (max - min));
+			line.append(SPARKS.charAt(level));
+		}
+		return line.toString();
+	}
+	
+	/**
+	 * Restore the event to the state saved in a previous snapshot.
+	 * @param sender the sender of the command.
+	 * @param args the command arguments, where the second is which snapshot to restore.
+	 */
+	private void rollback(ICommandSender sender, String[] args) throws CommandException {
+		
+		if(args.length < 2) {
+			throw new WrongUsageException("commands.ctf.rollback.usage");
+		}
+		int n = parseInt(args[1], 1);
+		
+		MatchState state;
+		try {
+			state = Snapshots.load(n);
+		} catch(IOException e) {
+			throw new CommandException("commands.ctf.rollback.unavailable", n, Snapshots.count());
+		}
+		
+		FlagEvent.restore(state);
+		tell(sender, "Restored the snapshot of event &" + state.getEventId() + "& from tick &"
+				+ state.getTick() + "&.", WHITE, WHITE);
+	}
+	
+	/**
+	 * Summarise the journal of the current event.
+	 * With 'verify', also replay the journal and compare it against the live state.
+	 * @param sender the sender of the command.
+	 * @param args the command arguments.
+	 */
+	private void journal(ICommandSender sender, String[] args) throws CommandException {
+		
+		int eventId = FlagEvent.getEventId();
+		try(JournalReader reader = new JournalReader(MatchJournal.getFile(eventId))) {
+			
+			tell(sender, "The journal of event &" + eventId + "& contains &"
+					+ reader.size() + "& records.", WHITE, WHITE);
+			
+			if(args.length > 1 && args[1].equals("verify")) {
+				
+				//Rebuild the final state from the journal and cross-check it.
+				List<String> mismatches = reader.replay().compare();
+				
+				if(mismatches.isEmpty()) {
+					tell(sender, "The journal is consistent with the live state.");
+				} else {
+					tell(sender, "Found &" + mismatches.size() + "& inconsistencies:", RED);
+					for(String mismatch : mismatches) {
+						tell(sender, " - " + mismatch);
+					}
+				}
+			}
+		} catch(IOException e) {
+			throw new CommandException("commands.ctf.journal.unavailable", eventId);
+		}
+	}
+}
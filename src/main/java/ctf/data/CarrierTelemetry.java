@@ -0,0 +1,310 @@
+package ctf.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import ctf.CTF;
+import ctf.CTFConfig;
+import ctf.events.FlagEvent;
+import ctf.util.Colour;
+import net.minecraft.entity.player.EntityPlayer;
+
+/**
+ * Records the path of each player while they carry a flag, for analysing how flags are carried.
+ * Positions are sampled periodically and stored as variable-length deltas from the previous sample,
+ * in fixed-size buffers which are pooled and limited in number. Each completed track is compressed
+ * and appended to 'telemetry-<event>.bin.gz' in the background.
+ * @author Alec Dorrington
+ */
+public class CarrierTelemetry {
+	
+	/** The ways in which a track can end. */
+	public enum Outcome { CAPTURE, DROP, END }
+	
+	/** The size of each pooled buffer, in bytes. */
+	private static final int BUFFER_SIZE = 4096;
+	
+	/** The most bytes a single sample can take up: three 5 byte varints. */
+	private static final int MAX_SAMPLE_SIZE = 15;
+	
+	/** The path of a single player while carrying a flag. */
+	private static class Track {
+		
+		/** The player carrying the flag. */
+		final EntityPlayer player;
+		
+		/** The colours of the carried flag and of the carrier's team. */
+		final Colour flag, team;
+		
+		/** The dimension in which the track started. Samples from other dimensions are skipped. */
+		final int dimension;
+		
+		/** The world tick at which the track started. */
+		final long startTick;
+		
+		/** The buffers containing the samples, of which all but the last are as full as they can be. */
+		final List<byte[]> buffers = new ArrayList<>();
+		
+		/** The number of bytes used in each buffer but the last, which may be a few short of the buffer size. */
+		int[] lengths = new int[4];
+		
+		/** The number of bytes used in the last buffer. */
+		int used = BUFFER_SIZE;
+		
+		/** The number of samples recorded. */
+		int samples = 0;
+		
+		/** Whether any samples were skipped because the memory limit was reached. */
+		boolean truncated = false;
+		
+		/** The position of the previous sample. */
+		int lastX, lastY, lastZ;
+		
+		Track(EntityPlayer player, Colour flag, Colour team) {
+			this.player = player;
+			this.flag = flag;
+			this.team = team;
+			dimension = player.dimension;
+			startTick = player.world.getTotalWorldTime();
+		}
+	}
+	
+	/** The tracks of all current flag carriers. */
+	private static final List<Track> TRACKS = new ArrayList<>();
+	
+	/** Buffers which are free to be reused. */
+	private static final ArrayDeque<byte[]> POOL = new ArrayDeque<>();
+	
+	/** The number of buffers in existence, whether in use or pooled. */
+	private static int allocated = 0;
+	
+	/** The number of ticks since the last sample. */
+	private static int ticks = 0;
+	
+	/**
+	 * Start recording the path of a player who has picked up a flag.
+	 * @param player the player.
+	 * @param flag the colour of the flag.
+	 * @param team the colour of the player's team.
+	 */
+	public static void start(EntityPlayer player, Colour flag, Colour team) {
+		
+		if(CTFConfig.telemetry.interval > 0) {
+			end(player, Outcome.END);
+			Track track = new Track(player, flag, team);
+			TRACKS.add(track);
+			sample(track);
+		}
+	}
+	
+	/**
+	 * Stop recording the path of a player who no longer has a flag, and save it.
+	 * @param player the player.
+	 * @param outcome the reason the player no longer has the flag.
+	 */
+	public static void end(EntityPlayer player, Outcome outcome) {
+		
+		for(int i = 0; i < TRACKS.size(); i++) {
+			if(TRACKS.get(i).player == player) {
+				Track track = TRACKS.remove(i);
+				sample(track);
+				save(track, outcome);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Stop recording all paths and save them. Called when the event ends.
+	 */
+	public static void endAll() {
+		
+		for(Track track : TRACKS) {
+			save(track, Outcome.END);
+		}
+		TRACKS.clear();
+	}
+	
+	/**
+	 * Discard all unfinished paths. Called when the server stops.
+	 */
+	public static void clear() {
+		
+		for(Track track : TRACKS) {
+			for(byte[] buffer : track.buffers) {
+				POOL.push(buffer);
+			}
+		}
+		TRACKS.clear();
+		ticks = 0;
+	}
+	
+	/**
+	 * Sample the position of every flag carrier whenever the configured interval elapses.
+	 * To be called once per server tick.
+	 */
+	public static void tick() {
+		
+		if(!TRACKS.isEmpty() && ++ticks >= CTFConfig.telemetry.interval) {
+			ticks = 0;
+			for(int i = 0; i < TRACKS.size(); i++) {
+				sample(TRACKS.get(i));
+			}
+		}
+	}
+	
+	/**
+	 * Record the current position of a flag carrier.
+	 * @param track the track of the carrier.
+	 */
+	private static void sample(Track track) {
+		
+		EntityPlayer player = track.player;
+		if(player.dimension != track.dimension) {
+			return;
+		}
+		
+		//Move on to a new buffer if the current one may not fit another sample.
+		if(track.used > BUFFER_SIZE - MAX_SAMPLE_SIZE) {
+			
+			byte[] buffer = acquire();
+			if(buffer == null) {
+				track.truncated = true;
+				return;
+			}
+			
+			//Samples vary in size, so remember how much of the buffer being left was used.
+			int last = track.buffers.size() - 1;
+			if(last >= 0) {
+				if(last == track.lengths.length) {
+					track.lengths = Arrays.copyOf(track.lengths, last * 2);
+				}
+				track.lengths[last] = track.used;
+			}
+			track.buffers.add(buffer);
+			track.used = 0;
+		}
+		
+		int x = (int) Math.floor(player.posX), y = (int) Math.floor(player.posY), z = (int) Math.floor(player.posZ);
+		byte[] buffer = track.buffers.get(track.buffers.size() - 1);
+		track.used = writeVarInt(buffer, track.used, zigzag(x - track.lastX));
+		track.used = writeVarInt(buffer, track.used, zigzag(y - track.lastY));
+		track.used = writeVarInt(buffer, track.used, zigzag(z - track.lastZ));
+		track.lastX = x;
+		track.lastY = y;
+		track.lastZ = z;
+		track.samples++;
+	}
+	
+	/**
+	 * Compress a completed track and append it to the telemetry file in the background.
+	 * The buffers of the track are returned to the pool.
+	 * @param track the completed track.
+	 * @param outcome the reason the track ended.
+	 */
+	private static void save(Track track, Outcome outcome) {
+		
+		//Header: flag, team, outcome, flags, dimension, start tick, interval, samples, length.
+		int length = track.buffers.isEmpty() ? 0 : track.used;
+		for(int i = 0; i < track.buffers.size() - 1; i++) {
+			length += track.lengths[i];
+		}
+		byte[] header = new byte[64];
+		int h = 0;
+		header[h++] = (byte) track.flag.ordinal();
+		header[h++] = (byte) track.team.ordinal();
+		header[h++] = (byte) outcome.ordinal();
+		header[h++] = (byte) (track.truncated ? 1 : 0);
+		h = writeVarInt(header, h, zigzag(track.dimension));
+		h = writeVarLong(header, h, track.startTick);
+		h = writeVarInt(header, h, CTFConfig.telemetry.interval);
+		h = writeVarInt(header, h, track.samples);
+		h = writeVarInt(header, h, length);
+		
+		//Copy the samples out, so that the buffers can be reused straight away.
+		byte[] record = Arrays.copyOf(header, h + length);
+		for(int i = 0, offset = h; i < track.buffers.size(); i++) {
+			byte[] buffer = track.buffers.get(i);
+			int size = i == track.buffers.size() - 1 ? track.used : track.lengths[i];
+			System.arraycopy(buffer, 0, record, offset, size);
+			offset += size;
+			POOL.push(buffer);
+		}
+		track.buffers.clear();
+		
+		//Each record is written as its own gzip member, which together form a valid gzip file.
+		File file = DataFiles.getFile("telemetry-" + FlagEvent.getEventId() + ".bin.gz");
+		DataFiles.write(() -> {
+			file.getParentFile().mkdirs();
+			try(GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(file, true))) {
+				out.write(record);
+			} catch(IOException e) {
+				CTF.LOGGER.error("Unable to write CTF carrier telemetry.", e);
+			}
+		});
+	}
+	
+	/**
+	 * Take a buffer from the pool, or allocate a new one if the memory limit allows.
+	 * @return the buffer, or null if the memory limit has been reached.
+	 */
+	private static byte[] acquire() {
+		
+		if(!POOL.isEmpty()) {
+			return POOL.pop();
+		}
+		if((long) (allocated + 1) * BUFFER_SIZE > CTFConfig.telemetry.memoryLimit * 1024L) {
+			return null;
+		}
+		allocated++;
+		return new byte[BUFFER_SIZE];
+	}
+	
+	/**
+	 * @param value a signed integer.
+	 * @return the integer mapped to an unsigned integer, such that small magnitudes map to small values.
+	 */
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+	
+	/**
+	 * Write an unsigned integer using 7 bits per byte, with the high bit set on all but the last byte.
+	 * @param buffer the buffer to write to.
+	 * @param offset the position at which to write.
+	 * @param value the value to write.
+	 * @return the position after the written bytes.
+	 */
+	private static int writeVarInt(byte[] buffer, int offset, int value) {
+		
+		while((value & ~0x7F) != 0) {
+			buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[offset++] = (byte) value;
+		return offset;
+	}
+	
+	/**
+	 * Write an unsigned long using 7 bits per byte, with the high bit set on all but the last byte.
+	 * @param buffer the buffer to write to.
+	 * @param offset the position at which to write.
+	 * @param value the value to write.
+	 * @return the position after the written bytes.
+	 */
+	private static int writeVarLong(byte[] buffer, int offset, long value) {
+		
+		while((value & ~0x7FL) != 0) {
+			buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[offset++] = (byte) value;
+		return offset;
+	}
+}
@@ -0,0 +1,48 @@
+package ctf.data;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ctf.CTF;
+import net.minecraftforge.common.DimensionManager;
+
+/**
+ * Locates the files in which CTF data is stored.
+ * Everything is kept in the 'ctf' folder of the current world save.
+ * @author Alec Dorrington
+ */
+public class DataFiles {
+	
+	/** The thread on which data files are written, so that the server thread isn't held up by disk access. */
+	private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "CTF Data Writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/**
+	 * @return the folder containing all CTF data for the current world.
+	 */
+	public static File getDirectory() {
+		return new File(DimensionManager.getCurrentSaveRootDirectory(), CTF.MODID);
+	}
+	
+	/**
+	 * @param name the name of a file or folder.
+	 * @return the file of the given name inside the CTF data folder.
+	 */
+	public static File getFile(String name) {
+		return new File(getDirectory(), name);
+	}
+	
+	/**
+	 * Write data in the background. Tasks are run one at a time, in the order submitted.
+	 * @param task the task which writes the data.
+	 * @return a future which completes once the data is written.
+	 */
+	public static Future<?> write(Runnable task) {
+		return WRITER.submit(task);
+	}
+}
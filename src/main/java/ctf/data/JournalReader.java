@@ -0,0 +1,153 @@
+package ctf.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.UUID;
+
+import ctf.data.MatchJournal.Type;
+import ctf.util.Colour;
+
+/**
+ * Streams the records of a match journal, for post-match analysis.
+ * The reader acts as a cursor, such that the fields of the current record
+ * are read directly from the file without allocating an object per record.
+ * @author Alec Dorrington
+ */
+public class JournalReader implements Closeable {
+	
+	/** All record types, indexed by ordinal. */
+	private static final Type[] TYPES = Type.values();
+	
+	/** All colours, indexed by ordinal. */
+	private static final Colour[] COLOURS = Colour.values();
+	
+	/** The channel through which the journal is mapped. */
+	private final FileChannel channel;
+	
+	/** The mapped journal file. */
+	private final MappedByteBuffer buffer;
+	
+	/** The number of records in the journal. */
+	private final int count;
+	
+	/** The index of the current record, or -1 before the first call to next(). */
+	private int index = -1;
+	
+	/** The byte offset of the current record. */
+	private int offset;
+	
+	/**
+	 * Open a journal for reading.
+	 * @param file the journal file.
+	 * @throws IOException if the file is missing or isn't a journal.
+	 */
+	public JournalReader(File file) throws IOException {
+		
+		channel = new RandomAccessFile(file, "r").getChannel();
+		buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		
+		if(channel.size() < MatchJournal.HEADER_SIZE || buffer.getInt(0) != MatchJournal.MAGIC
+				|| buffer.getInt(8) != MatchJournal.RECORD_SIZE) {
+			channel.close();
+			throw new IOException("Not a CTF journal: " + file);
+		}
+		//Only trust as many records as actually fit in the file.
+		long available = (channel.size() - MatchJournal.HEADER_SIZE) / MatchJournal.RECORD_SIZE;
+		count = (int) Math.min(buffer.getLong(MatchJournal.COUNT_OFFSET), available);
+	}
+	
+	/**
+	 * Advance to the next record.
+	 * @return whether there was another record.
+	 */
+	public boolean next() {
+		
+		if(index + 1 >= count) {
+			return false;
+		}
+		index++;
+		offset = MatchJournal.HEADER_SIZE + index * MatchJournal.RECORD_SIZE;
+		return true;
+	}
+	
+	/** Move back to before the first record. */
+	public void rewind() { index = -1; }
+	
+	/** @return the number of records in the journal. */
+	public int size() { return count; }
+	
+	/** @return the number of the event which was journaled. */
+	public int getEventId() { return buffer.getInt(12); }
+	
+	/** @return the time at which the journal was created, in milliseconds. */
+	public long getCreationTime() { return buffer.getLong(24); }
+	
+	/** @return the world tick on which the current record took place. */
+	public long getTick() { return buffer.getLong(offset); }
+	
+	/** @return the type of the current record. */
+	public Type getType() { return TYPES[buffer.get(offset + 8)]; }
+	
+	/** @return the colour of the flag involved, or null. */
+	public Colour getFlag() { return colour(buffer.get(offset + 9)); }
+	
+	/** @return the team colour of the player involved, or null. */
+	public Colour getTeam() { return colour(buffer.get(offset + 10)); }
+	
+	/** @return the dimension in which the current record took place. */
+	public int getDimension() { return buffer.getInt(offset + 12); }
+	
+	/** @return the x coordinate of the current record. */
+	public int getX() { return buffer.getInt(offset + 16); }
+	
+	/** @return the y coordinate of the current record. */
+	public int getY() { return buffer.getInt(offset + 20); }
+	
+	/** @return the z coordinate of the current record. */
+	public int getZ() { return buffer.getInt(offset + 24); }
+	
+	/** @return the additional value of the current record. */
+	public int getValue() { return buffer.getInt(offset + 28); }
+	
+	/** @return whether a player was involved in the current record. */
+	public boolean hasPlayer() {
+		return buffer.getLong(offset + 32) != 0 || buffer.getLong(offset + 40) != 0;
+	}
+	
+	/** @return the UUID of the player involved in the current record. */
+	public UUID getPlayer() {
+		return new UUID(buffer.getLong(offset + 32), buffer.getLong(offset + 40));
+	}
+	
+	/**
+	 * Replay the entire journal from the start, rebuilding the final match state.
+	 * @return the rebuilt state.
+	 */
+	public MatchReplay replay() {
+		
+		MatchReplay replay = new MatchReplay();
+		rewind();
+		while(next()) {
+			replay.apply(this);
+		}
+		return replay;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	/**
+	 * @param ordinal a stored colour ordinal.
+	 * @return the matching colour, or null.
+	 */
+	private static Colour colour(byte ordinal) {
+		return ordinal >= 0 && ordinal < COLOURS.length ? COLOURS[ordinal] : null;
+	}
+}
@@ -0,0 +1,255 @@
+package ctf.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import ctf.CTF;
+import ctf.events.FlagEvent;
+import ctf.util.Colour;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraftforge.common.DimensionManager;
+
+/**
+ * Append-only record of everything that happens during a flag event.
+ * Each event is journaled to its own file of fixed-width binary records.
+ * The file is memory-mapped, so an append is only a few writes to memory,
+ * leaving the operating system to flush the pages to disk in the background.
+ * @author Alec Dorrington
+ */
+public class MatchJournal {
+	
+	/*
+	 * FILE LAYOUT:
+	 *
+	 * Header (32 bytes):
+	 *   int magic, int version, int record size, int event id,
+	 *   long record count, long creation time (ms).
+	 *
+	 * Record (48 bytes):
+	 *   long tick, byte type, byte flag colour, byte team colour, byte unused,
+	 *   int dimension, int x, int y, int z, int value,
+	 *   long player UUID (most significant), long player UUID (least significant).
+	 *
+	 * Colours are stored by ordinal, or -1 where not applicable.
+	 */
+	
+	/** Identifies a file as a CTF journal. */
+	static final int MAGIC = 0x43544A4C;
+	
+	/** The current version of the file layout. */
+	static final int VERSION = 1;
+	
+	/** The size of the file header in bytes. */
+	static final int HEADER_SIZE = 32;
+	
+	/** The size of each record in bytes. */
+	static final int RECORD_SIZE = 48;
+	
+	/** The offset of the record count within the header. */
+	static final int COUNT_OFFSET = 16;
+	
+	/** The number of records for which space is initially reserved. */
+	private static final int INITIAL_CAPACITY = 4096;
+	
+	/** The types of event which are recorded. */
+	public enum Type { PREPARE, START, STOP, SPAWN, PICKUP, DROP, CAPTURE, RETURN, RESTORE }
+	
+	/** The journal of the current event, or null if none is open. */
+	private static MatchJournal current;
+	
+	/** The event whose journal couldn't be opened, or -1 if none, such that it isn't tried again for every record. */
+	private static int failedEventId = -1;
+	
+	/** The file backing this journal. */
+	private final File file;
+	
+	/** The channel through which the file is mapped. */
+	private final FileChannel channel;
+	
+	/** The mapped region of the file. */
+	private MappedByteBuffer buffer;
+	
+	/** The number of records written so far. */
+	private int count;
+	
+	/** The number of records which fit in the mapped region. */
+	private int capacity;
+	
+	/**
+	 * Open the journal file, creating it if necessary.
+	 * @param file the file backing the journal.
+	 * @param eventId the event being journaled.
+	 * @throws IOException if the file can't be mapped.
+	 */
+	private MatchJournal(File file, int eventId) throws IOException {
+		
+		this.file = file;
+		file.getParentFile().mkdirs();
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		
+		//Continue an existing journal if one was left by a previous run.
+		if(channel.size() >= HEADER_SIZE) {
+			
+			capacity = (int) ((channel.size() - HEADER_SIZE) / RECORD_SIZE);
+			buffer = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+			
+			if(buffer.getInt(0) != MAGIC || buffer.getInt(8) != RECORD_SIZE) {
+				channel.close();
+				throw new IOException("Not a CTF journal: " + file);
+			}
+			count = (int) Math.min(buffer.getLong(COUNT_OFFSET), capacity);
+		
+		//Otherwise start a new journal.
+		} else {
+			
+			capacity = INITIAL_CAPACITY;
+			buffer = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putInt(8, RECORD_SIZE);
+			buffer.putInt(12, eventId);
+			buffer.putLong(COUNT_OFFSET, 0);
+			buffer.putLong(24, System.currentTimeMillis());
+		}
+	}
+	
+	/**
+	 * Record a change in the phase of the event.
+	 * @param type the type of the record.
+	 */
+	public static void record(Type type) {
+		record(type, null, null, null, 0, null, 0);
+	}
+	
+	/**
+	 * Record a flag being placed without the involvement of a player.
+	 * @param type the type of the record.
+	 * @param flag the colour of the flag.
+	 * @param dimension the dimension of the flag.
+	 * @param position the position of the flag.
+	 */
+	public static void record(Type type, Colour flag, int dimension, BlockPos position) {
+		record(type, flag, null, null, dimension, position, 0);
+	}
+	
+	/**
+	 * Append a record to the journal of the current event.
+	 * Doesn't allocate, so is safe to call as often as required.
+	 * @param type the type of the record.
+	 * @param flag the colour of the flag involved, if any.
+	 * @param team the team colour of the player involved, if any.
+	 * @param player the player involved, if any.
+	 * @param dimension the dimension in which the event took place.
+	 * @param position the position at which the event took place, if any.
+	 * @param value an additional value, dependent on the type of record.
+	 */
+	public static void record(Type type, Colour flag, Colour team, EntityPlayer player,
+			int dimension, BlockPos position, int value) {
+		
+		MatchJournal journal = get();
+		if(journal != null) {
+			journal.append(type, flag, team, player, dimension, position, value);
+		}
+	}
+	
+	/**
+	 * Flush and close the journal of the current event.
+	 * To be called when the event ends or the server stops.
+	 */
+	public static void close() {
+		
+		if(current != null) {
+			try {
+				current.buffer.force();
+				current.channel.close();
+			} catch(IOException e) {
+				CTF.LOGGER.error("Unable to close CTF journal " + current.file, e);
+			}
+			current = null;
+		}
+		failedEventId = -1;
+	}
+	
+	/**
+	 * @param eventId the event number.
+	 * @return the file in which the journal of the given event is stored.
+	 */
+	public static File getFile(int eventId) {
+		return DataFiles.getFile("journal-" + eventId + ".bin");
+	}
+	
+	/**
+	 * Get the journal of the current event, opening it if necessary.
+	 * If the journal can't be opened, it isn't tried again until the journal is closed or the event changes.
+	 * @return the journal, or null if it can't be opened.
+	 */
+	private static MatchJournal get() {
+		
+		if(current == null) {
+			int eventId = FlagEvent.getEventId();
+			if(eventId == failedEventId) {
+				return null;
+			}
+			try {
+				current = new MatchJournal(getFile(eventId), eventId);
+			} catch(IOException e) {
+				CTF.LOGGER.error("Unable to open CTF journal for event " + eventId
+						+ ". Nothing will be journaled for this event.", e);
+				failedEventId = eventId;
+			}
+		}
+		return current;
+	}
+	
+	/**
+	 * Write a single record to the end of the journal.
+	 * See {@link #record(Type, Colour, Colour, EntityPlayer, int, BlockPos, int)}.
+	 */
+	private void append(Type type, Colour flag, Colour team, EntityPlayer player,
+			int dimension, BlockPos position, int value) {
+		
+		//Extend the mapping when it fills up. This happens very rarely.
+		if(count == capacity && !grow()) {
+			return;
+		}
+		int offset = HEADER_SIZE + count * RECORD_SIZE;
+		
+		buffer.putLong(offset, DimensionManager.getWorld(0).getTotalWorldTime());
+		buffer.put(offset + 8, (byte) type.ordinal());
+		buffer.put(offset + 9, (byte) (flag != null ? flag.ordinal() : -1));
+		buffer.put(offset + 10, (byte) (team != null ? team.ordinal() : -1));
+		buffer.put(offset + 11, (byte) 0);
+		buffer.putInt(offset + 12, dimension);
+		buffer.putInt(offset + 16, position != null ? position.getX() : 0);
+		buffer.putInt(offset + 20, position != null ? position.getY() : 0);
+		buffer.putInt(offset + 24, position != null ? position.getZ() : 0);
+		buffer.putInt(offset + 28, value);
+		buffer.putLong(offset + 32, player != null ? player.getUniqueID().getMostSignificantBits() : 0);
+		buffer.putLong(offset + 40, player != null ? player.getUniqueID().getLeastSignificantBits() : 0);
+		
+		//Only publish the record once it has been completely written.
+		buffer.putLong(COUNT_OFFSET, ++count);
+	}
+	
+	/**
+	 * Double the size of the mapped region of the journal.
+	 * @return whether the journal was successfully extended.
+	 */
+	private boolean grow() {
+		
+		try {
+			int extended = Math.max(capacity * 2, INITIAL_CAPACITY);
+			buffer = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) extended * RECORD_SIZE);
+			capacity = extended;
+			return true;
+		} catch(IOException e) {
+			CTF.LOGGER.error("Unable to extend CTF journal " + file, e);
+			return false;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package ctf.data;
+
+import ctf.util.Values;
+
+/**
+ * Publishes an immutable copy of the match state once per tick, whenever it has changed,
+ * such that other threads may read the state without touching the scoreboard.
+ * The latest state is held in a volatile field, so readers never need to lock.
+ * @author Alec Dorrington
+ */
+public class MatchPublisher {
+	
+	/** The most recently published state, or null if none has been published yet. */
+	private static volatile MatchState current;
+	
+	/** The modification count of the values at the time of the last publication. */
+	private static int publishedModCount;
+	
+	/** The version of the most recently published state. */
+	private static long version = 0;
+	
+	/**
+	 * Publish a new copy of the match state if anything has changed since the last one.
+	 * To be called once per server tick, after all other changes for the tick have been made.
+	 */
+	public static void tick() {
+		
+		int modCount = Values.getModCount();
+		if(current == null || modCount != publishedModCount) {
+			publishedModCount = modCount;
+			current = MatchState.capture(++version);
+		}
+	}
+	
+	/**
+	 * Get the latest match state. May be called from any thread.
+	 * The state is at most one tick old, and its version increases each time it changes.
+	 * @return the latest state, or null if no state has been published since the server started.
+	 */
+	public static MatchState get() {
+		return current;
+	}
+	
+	/**
+	 * Stop publishing. Called when the server stops.
+	 */
+	public static void clear() {
+		current = null;
+	}
+}
@@ -0,0 +1,183 @@
+package ctf.data;
+
+import static ctf.util.Teams.*;
+import static ctf.util.Values.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import ctf.util.CaptureMatrix;
+import ctf.util.Colour;
+
+/**
+ * The match state rebuilt by replaying a journal.
+ * Used to cross-check the live state stored in {@link ctf.util.Values}.
+ * @author Alec Dorrington
+ */
+public class MatchReplay {
+	
+	/** Whether the flags have been prepared. */
+	private boolean prepared;
+	
+	/** Whether the event is active. */
+	private boolean active;
+	
+	/** Whether each colour of flag is placed in the world. */
+	private final boolean[] inWorld = new boolean[Colour.values().length];
+	
+	/** The dimension of each colour of flag. */
+	private final int[] dimension = new int[Colour.values().length];
+	
+	/** The x, y and z coordinates of each colour of flag. */
+	private final int[][] position = new int[Colour.values().length][3];
+	
+	/** The number of times each team (row) has captured each flag (column). */
+	private final int[][] captures = new int[Colour.values().length][Colour.values().length];
+	
+	/** The flag held by each player. */
+	private final Map<UUID, Colour> carriers = new HashMap<>();
+	
+	/**
+	 * Apply the current record of a journal to the state.
+	 * @param reader the reader positioned at the record to apply.
+	 */
+	void apply(JournalReader reader) {
+		
+		Colour flag = reader.getFlag();
+		
+		switch(reader.getType()) {
+			
+			case PREPARE:
+				prepared = true;
+				break;
+			
+			case START:
+				active = true;
+				break;
+			
+			//A rollback is followed by records describing the restored state.
+			case STOP:
+			case RESTORE:
+				prepared = false;
+				active = false;
+				carriers.clear();
+				for(int i = 0; i < inWorld.length; i++) {
+					inWorld[i] = false;
+					Arrays.fill(captures[i], 0);
+				}
+				break;
+			
+			//The flag is now in the world at the recorded position.
+			case SPAWN:
+			case DROP:
+			case RETURN:
+				if(reader.hasPlayer()) {
+					carriers.remove(reader.getPlayer());
+				}
+				place(flag, reader);
+				break;
+			
+			case PICKUP:
+				inWorld[flag.ordinal()] = false;
+				carriers.put(reader.getPlayer(), flag);
+				break;
+			
+			case CAPTURE:
+				carriers.remove(reader.getPlayer());
+				captures[reader.getTeam().ordinal()][flag.ordinal()] = reader.getValue();
+				break;
+		}
+	}
+	
+	/**
+	 * Compare the replayed state against the live state.
+	 * @return a description of each mismatch found.
+	 */
+	public List<String> compare() {
+		
+		List<String> mismatches = new ArrayList<>();
+		
+		if(prepared != getBoolean("ctf:flags_prepared")) {
+			mismatches.add("prepared: journal=" + prepared + ", live=" + !prepared);
+		}
+		if(active != getBoolean("ctf:flags_active")) {
+			mismatches.add("active: journal=" + active + ", live=" + !active);
+		}
+		
+		//Only teams which currently exist are compared.
+		List<Colour> teams = getColours();
+		
+		for(Colour colour : teams) {
+			
+			int i = colour.ordinal();
+			String name = colour.UNLOCALISED_NAME;
+			
+			boolean liveInWorld = getBoolean("ctf:flag_in_world(" + name + ")");
+			if(inWorld[i] != liveInWorld) {
+				mismatches.add(colour + " in world: journal=" + inWorld[i] + ", live=" + liveInWorld);
+			
+			} else if(inWorld[i]) {
+				
+				int liveDimension = getInteger("ctf:flag_dimension(" + name + ")");
+				if(dimension[i] != liveDimension
+						|| position[i][0] != getInteger("ctf:flag_position(" + name + ")[x]")
+						|| position[i][1] != getInteger("ctf:flag_position(" + name + ")[y]")
+						|| position[i][2] != getInteger("ctf:flag_position(" + name + ")[z]")) {
+					mismatches.add(colour + " position differs (journal dimension "
+							+ dimension[i] + ", live dimension " + liveDimension + ")");
+				}
+			}
+			
+			for(Colour other : teams) {
+				
+				//Teams can't capture their own flag.
+				if(other == colour) {
+					continue;
+				}
+				int live = CaptureMatrix.get(colour, other);
+				if(captures[i][other.ordinal()] != live) {
+					mismatches.add(colour + " captures of " + other + ": journal="
+							+ captures[i][other.ordinal()] + ", live=" + live);
+				}
+			}
+		}
+		return mismatches;
+	}
+	
+	/** @return whether the flags had been prepared. */
+	public boolean isPrepared() { return prepared; }
+	
+	/** @return whether the event was active. */
+	public boolean isActive() { return active; }
+	
+	/** @return the number of players left holding a flag. */
+	public int getCarrierCount() { return carriers.size(); }
+	
+	/**
+	 * @param team the capturing team.
+	 * @param flag the captured flag.
+	 * @return the number of times the team captured the flag.
+	 */
+	public int getCaptures(Colour team, Colour flag) {
+		return captures[team.ordinal()][flag.ordinal()];
+	}
+	
+	/**
+	 * Register a flag as being placed at the position of the current record.
+	 * @param flag the colour of the flag.
+	 * @param reader the reader positioned at the record.
+	 */
+	private void place(Colour flag, JournalReader reader) {
+		
+		int i = flag.ordinal();
+		inWorld[i] = true;
+		dimension[i] = reader.getDimension();
+		position[i][0] = reader.getX();
+		position[i][1] = reader.getY();
+		position[i][2] = reader.getZ();
+	}
+}
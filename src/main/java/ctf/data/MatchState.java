@@ -0,0 +1,284 @@
+package ctf.data;
+
+import static ctf.util.Colour.*;
+import static ctf.util.Teams.*;
+import static ctf.util.Values.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import ctf.events.FlagEvent;
+import ctf.util.CaptureMatrix;
+import ctf.util.Colour;
+import ctf.util.Values;
+import net.minecraft.scoreboard.Team;
+import net.minecraft.util.math.BlockPos;
+import net.minecraftforge.common.DimensionManager;
+
+/**
+ * An immutable copy of the complete state of a flag event.
+ * Taken on the server thread, after which it may be freely shared with other threads.
+ * @author Alec Dorrington
+ */
+public final class MatchState {
+	
+	/** Identifies a serialised match state. */
+	private static final int MAGIC = 0x43544653;
+	
+	/** The current version of the serialised format. */
+	private static final int VERSION = 1;
+	
+	/** All colours, indexed by ordinal. */
+	private static final Colour[] COLOURS = Colour.values();
+	
+	/** The version of a published state, or 0 for states which weren't published. */
+	private final long version;
+	
+	/** The number of the event. */
+	private final int eventId;
+	
+	/** The world tick at which the state was taken. */
+	private final long tick;
+	
+	/** Whether the flags had been prepared. */
+	private final boolean prepared;
+	
+	/** Whether the event was active. */
+	private final boolean active;
+	
+	/** Whether a team of each colour existed. */
+	private final boolean[] teams = new boolean[COLOURS.length];
+	
+	/** Whether each flag was placed in the world. */
+	private final boolean[] inWorld = new boolean[COLOURS.length];
+	
+	/** The dimension of each flag. */
+	private final int[] dimension = new int[COLOURS.length];
+	
+	/** The home position of each flag. */
+	private final BlockPos[] home = new BlockPos[COLOURS.length];
+	
+	/** The current position of each flag. */
+	private final BlockPos[] position = new BlockPos[COLOURS.length];
+	
+	/** The score of each team. */
+	private final int[] score = new int[COLOURS.length];
+	
+	/** The number of times each team (row) had captured each flag (column). */
+	private final int[][] captures = new int[COLOURS.length][COLOURS.length];
+	
+	/** The names of the players carrying flags. */
+	private final List<String> carriers = new ArrayList<>();
+	
+	/** The flag carried by each player, matching the order of carriers. */
+	private final List<Colour> carried = new ArrayList<>();
+	
+	/**
+	 * @param version the version of the state.
+	 * @param eventId the number of the event.
+	 * @param tick the world tick at which the state was taken.
+	 * @param prepared whether the flags had been prepared.
+	 * @param active whether the event was active.
+	 */
+	private MatchState(long version, int eventId, long tick, boolean prepared, boolean active) {
+		this.version = version;
+		this.eventId = eventId;
+		this.tick = tick;
+		this.prepared = prepared;
+		this.active = active;
+	}
+	
+	/**
+	 * Take a copy of the current match state. Must be called on the server thread.
+	 * @return the current state.
+	 */
+	public static MatchState capture() {
+		return capture(0);
+	}
+	
+	/**
+	 * Take a copy of the current match state. Must be called on the server thread.
+	 * @param version the version of the state.
+	 * @return the current state.
+	 */
+	public static MatchState capture(long version) {
+		
+		MatchState state = new MatchState(version, FlagEvent.getEventId(),
+				DimensionManager.getWorld(0).getTotalWorldTime(),
+				getBoolean("ctf:flags_prepared"), getBoolean("ctf:flags_active"));
+		
+		List<Colour> colours = new ArrayList<>();
+		for(Team team : getTeams()) {
+			
+			Colour colour = fromFormatter(team.getColor());
+			String name = colour.UNLOCALISED_NAME;
+			int i = colour.ordinal();
+			colours.add(colour);
+			
+			state.teams[i] = true;
+			state.inWorld[i] = getBoolean("ctf:flag_in_world(" + name + ")");
+			state.dimension[i] = getInteger("ctf:flag_dimension(" + name + ")");
+			state.home[i] = Values.getPosition("ctf:flag_home(" + name + ")");
+			state.position[i] = Values.getPosition("ctf:flag_position(" + name + ")");
+			state.score[i] = getPoints(team);
+		}
+		
+		for(Colour colour : colours) {
+			for(Colour other : colours) {
+				if(colour != other) {
+					state.captures[colour.ordinal()][other.ordinal()] = CaptureMatrix.get(colour, other);
+				}
+			}
+		}
+		
+		//Find every player who is carrying a flag.
+		for(Map.Entry<String, Colour> carrier : FlagEvent.getCarriedFlags().entrySet()) {
+			state.carriers.add(carrier.getKey());
+			state.carried.add(carrier.getValue());
+		}
+		return state;
+	}
+	
+	/**
+	 * Serialise this state in a compact binary form.
+	 * @param out the output to write to.
+	 * @throws IOException if the output can't be written to.
+	 */
+	public void write(DataOutput out) throws IOException {
+		
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(eventId);
+		out.writeLong(tick);
+		out.writeBoolean(prepared);
+		out.writeBoolean(active);
+		
+		//Only the teams which exist are written.
+		int mask = 0;
+		for(int i = 0; i < COLOURS.length; i++) {
+			mask |= teams[i] ? 1 << i : 0;
+		}
+		out.writeShort(mask);
+		
+		for(int i = 0; i < COLOURS.length; i++) {
+			if(teams[i]) {
+				out.writeBoolean(inWorld[i]);
+				out.writeInt(dimension[i]);
+				out.writeLong(home[i].toLong());
+				out.writeLong(position[i].toLong());
+				out.writeInt(score[i]);
+			}
+		}
+		
+		for(int i = 0; i < COLOURS.length; i++) {
+			for(int j = 0; j < COLOURS.length; j++) {
+				if(teams[i] && teams[j] && i != j) {
+					out.writeShort(captures[i][j]);
+				}
+			}
+		}
+		
+		out.writeShort(carriers.size());
+		for(int i = 0; i < carriers.size(); i++) {
+			out.writeUTF(carriers.get(i));
+			out.writeByte(carried.get(i).ordinal());
+		}
+	}
+	
+	/**
+	 * Deserialise a state written by {@link #write(DataOutput)}.
+	 * @param in the input to read from.
+	 * @return the state which was read.
+	 * @throws IOException if the input isn't a valid match state.
+	 */
+	public static MatchState read(DataInput in) throws IOException {
+		
+		if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+			throw new IOException("Not a CTF match state.");
+		}
+		MatchState state = new MatchState(0, in.readInt(), in.readLong(),
+				in.readBoolean(), in.readBoolean());
+		
+		int mask = in.readUnsignedShort();
+		for(int i = 0; i < COLOURS.length; i++) {
+			if((mask & 1 << i) != 0) {
+				state.teams[i] = true;
+				state.inWorld[i] = in.readBoolean();
+				state.dimension[i] = in.readInt();
+				state.home[i] = BlockPos.fromLong(in.readLong());
+				state.position[i] = BlockPos.fromLong(in.readLong());
+				state.score[i] = in.readInt();
+			}
+		}
+		
+		for(int i = 0; i < COLOURS.length; i++) {
+			for(int j = 0; j < COLOURS.length; j++) {
+				if(state.teams[i] && state.teams[j] && i != j) {
+					state.captures[i][j] = in.readShort();
+				}
+			}
+		}
+		
+		int carriers = in.readUnsignedShort();
+		for(int i = 0; i < carriers; i++) {
+			state.carriers.add(in.readUTF());
+			state.carried.add(COLOURS[in.readByte()]);
+		}
+		return state;
+	}
+	
+	/** @return the version of the state, or 0 if it wasn't published. */
+	public long getVersion() { return version; }
+	
+	/** @return the number of the event. */
+	public int getEventId() { return eventId; }
+	
+	/** @return the world tick at which the state was taken. */
+	public long getTick() { return tick; }
+	
+	/** @return whether the flags had been prepared. */
+	public boolean isPrepared() { return prepared; }
+	
+	/** @return whether the event was active. */
+	public boolean isActive() { return active; }
+	
+	/** @return whether a team of the given colour existed. */
+	public boolean hasTeam(Colour colour) { return teams[colour.ordinal()]; }
+	
+	/** @return whether the given flag was placed in the world. */
+	public boolean isInWorld(Colour colour) { return inWorld[colour.ordinal()]; }
+	
+	/** @return the dimension of the given flag. */
+	public int getDimension(Colour colour) { return dimension[colour.ordinal()]; }
+	
+	/** @return the home position of the given flag. */
+	public BlockPos getHome(Colour colour) { return home[colour.ordinal()]; }
+	
+	/** @return the position of the given flag. */
+	public BlockPos getPosition(Colour colour) { return position[colour.ordinal()]; }
+	
+	/** @return the score of the team of the given colour. */
+	public int getScore(Colour colour) { return score[colour.ordinal()]; }
+	
+	/**
+	 * @param team the capturing team.
+	 * @param flag the captured flag.
+	 * @return the number of times the team had captured the flag.
+	 */
+	public int getCaptures(Colour team, Colour flag) {
+		return captures[team.ordinal()][flag.ordinal()];
+	}
+	
+	/** @return the number of players carrying a flag. */
+	public int getCarrierCount() { return carriers.size(); }
+	
+	/** @return the name of the i'th player carrying a flag. */
+	public String getCarrier(int i) { return carriers.get(i); }
+	
+	/** @return the flag carried by the i'th carrier. */
+	public Colour getCarried(int i) { return carried.get(i); }
+}
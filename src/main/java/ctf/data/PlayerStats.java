@@ -0,0 +1,486 @@
+package ctf.data;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import ctf.CTF;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.world.World;
+import net.minecraftforge.common.DimensionManager;
+
+/**
+ * The all-time statistics of each player, across every event.
+ * Held in memory as one primitive array per statistic, indexed by player,
+ * and saved as a log of changes which is only ever appended to.
+ * The leading players in each statistic are kept up to date as the statistics change.
+ * @author Alec Dorrington
+ */
+public class PlayerStats {
+	
+	/** The statistics recorded for each player. */
+	public enum Stat {
+		
+		PICKUPS("pickups"), CAPTURES("captures"), DROPS("drops"), CARRY_TIME("carry_time");
+		
+		/** The name of the statistic, as used in commands. */
+		public final String NAME;
+		
+		private Stat(String name) {
+			NAME = name;
+		}
+		
+		/**
+		 * @param name the name of a statistic.
+		 * @return the statistic of the given name, or null if there is none.
+		 */
+		public static Stat fromName(String name) {
+			for(Stat stat : values()) {
+				if(stat.NAME.equals(name)) {
+					return stat;
+				}
+			}
+			return null;
+		}
+	}
+	
+	/** All statistics, indexed by ordinal. */
+	private static final Stat[] STATS = Stat.values();
+	
+	/** The number of leading players kept for each statistic. */
+	public static final int TOP_SIZE = 10;
+	
+	/** The number of ticks between writes of the change log. */
+	private static final int FLUSH_INTERVAL = 200;
+	
+	/** Log record containing the latest name of a player. */
+	private static final byte NAME_RECORD = 0;
+	
+	/** Log record containing a change in one statistic of a player. */
+	private static final byte STAT_RECORD = 1;
+	
+	/** The folder from which the statistics were loaded, or null if they haven't been. */
+	private static File directory;
+	
+	/** The row of each player in the columns. */
+	private static final Map<UUID, Integer> rows = new HashMap<>();
+	
+	/** The UUID and name of the player in each row. */
+	private static UUID[] players = new UUID[64];
+	private static String[] names = new String[64];
+	
+	/** The value of each statistic (outer index) for each player (inner index). */
+	private static long[][] columns = new long[STATS.length][64];
+	
+	/** The number of players. */
+	private static int size = 0;
+	
+	/** The rows of the leading players for each statistic, from highest to lowest. */
+	private static final int[][] top = new int[STATS.length][TOP_SIZE];
+	
+	/** The number of leading players for each statistic. */
+	private static final int[] topSize = new int[STATS.length];
+	
+	/** Changes which haven't been written to the log yet. */
+	private static final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+	private static final DataOutputStream pending = new DataOutputStream(pendingBytes);
+	
+	/** The tick on which each player currently carrying a flag picked it up. */
+	private static final Map<UUID, Long> carrying = new HashMap<>();
+	
+	/** The number of ticks since the change log was last written. */
+	private static int ticks = 0;
+	
+	/**
+	 * Increase a statistic of a player.
+	 * @param player the player.
+	 * @param stat the statistic.
+	 * @param amount the amount to add, which must not be negative.
+	 */
+	public static void add(EntityPlayer player, Stat stat, long amount) {
+		add(getRow(player), stat, amount);
+	}
+	
+	/**
+	 * Increase a statistic of the player in a row.
+	 * @param row the row of the player.
+	 * @param stat the statistic.
+	 * @param amount the amount to add, which must not be negative.
+	 */
+	private static void add(int row, Stat stat, long amount) {
+		
+		columns[stat.ordinal()][row] += amount;
+		updateTop(stat.ordinal(), row);
+		log(STAT_RECORD, players[row], stat, amount, null);
+	}
+	
+	/**
+	 * Record a player as having picked up a flag.
+	 * @param player the player.
+	 */
+	public static void pickUp(EntityPlayer player) {
+		add(player, Stat.PICKUPS, 1);
+		carrying.put(player.getUniqueID(), player.world.getTotalWorldTime());
+	}
+	
+	/**
+	 * Record a player as no longer carrying a flag, either by capturing or dropping it.
+	 * @param player the player.
+	 * @param stat the way in which the flag was let go.
+	 */
+	public static void letGo(EntityPlayer player, Stat stat) {
+		
+		add(player, stat, 1);
+		Long since = carrying.remove(player.getUniqueID());
+		if(since != null) {
+			add(player, Stat.CARRY_TIME, Math.max(player.world.getTotalWorldTime() - since, 0));
+		}
+	}
+	
+	/**
+	 * Stop timing all flag carriers, crediting each with the time they have carried their flag so far.
+	 * Called when the event ends.
+	 */
+	public static void endCarries() {
+		
+		//Carriers may be offline, so their time is taken from the overworld, which all dimensions share.
+		World world = DimensionManager.getWorld(0);
+		if(world != null && !carrying.isEmpty()) {
+			load();
+			long now = world.getTotalWorldTime();
+			for(Map.Entry<UUID, Long> carrier : carrying.entrySet()) {
+				add(getRow(carrier.getKey()), Stat.CARRY_TIME, Math.max(now - carrier.getValue(), 0));
+			}
+		}
+		carrying.clear();
+	}
+	
+	/**
+	 * Get the leading players for a statistic.
+	 * @param stat the statistic.
+	 * @return the names of the leading players, from highest to lowest.
+	 */
+	public static String[] getTopNames(Stat stat) {
+		
+		load();
+		String[] result = new String[topSize[stat.ordinal()]];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = names[top[stat.ordinal()][i]];
+		}
+		return result;
+	}
+	
+	/**
+	 * Get the values of the leading players for a statistic.
+	 * @param stat the statistic.
+	 * @return the values of the leading players, from highest to lowest.
+	 */
+	public static long[] getTopValues(Stat stat) {
+		
+		load();
+		long[] result = new long[topSize[stat.ordinal()]];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = columns[stat.ordinal()][top[stat.ordinal()][i]];
+		}
+		return result;
+	}
+	
+	/**
+	 * Write any new changes to the log whenever the interval elapses.
+	 * To be called once per server tick.
+	 */
+	public static void tick() {
+		
+		if(++ticks >= FLUSH_INTERVAL) {
+			ticks = 0;
+			flush();
+		}
+	}
+	
+	/**
+	 * Write any new changes to the log, in the background.
+	 * @return a future which completes once the changes are written.
+	 */
+	public static Future<?> flush() {
+		
+		if(directory == null || pendingBytes.size() == 0) {
+			return CompletableFuture.completedFuture(null);
+		}
+		byte[] bytes = pendingBytes.toByteArray();
+		pendingBytes.reset();
+		File file = new File(directory, "stats.log");
+		
+		return DataFiles.write(() -> {
+			file.getParentFile().mkdirs();
+			try(FileOutputStream out = new FileOutputStream(file, true)) {
+				out.write(bytes);
+			} catch(IOException e) {
+				CTF.LOGGER.error("Unable to write CTF player statistics.", e);
+			}
+		});
+	}
+	
+	/**
+	 * Write any remaining changes and forget all statistics. Called when the server stops.
+	 * Waits for the changes to be written, since the writer thread won't outlive the server.
+	 */
+	public static void close() {
+		
+		try {
+			flush().get();
+		} catch(InterruptedException | ExecutionException e) {
+			CTF.LOGGER.error("Unable to write CTF player statistics.", e);
+		}
+		directory = null;
+		rows.clear();
+		size = 0;
+		Arrays.fill(topSize, 0);
+		carrying.clear();
+	}
+	
+	/**
+	 * Load the statistics of the current world, if they aren't already loaded.
+	 * Reads the change log, then rewrites it compactly if it contains many redundant records.
+	 */
+	private static void load() {
+		
+		File current = DataFiles.getDirectory();
+		if(current.equals(directory)) {
+			return;
+		}
+		close();
+		directory = current;
+		
+		File file = new File(directory, "stats.log");
+		int records = 0;
+		
+		if(file.exists()) {
+			
+			byte[] bytes;
+			try {
+				bytes = Files.readAllBytes(file.toPath());
+			} catch(IOException e) {
+				CTF.LOGGER.error("Unable to read CTF player statistics, some may be lost.", e);
+				bytes = new byte[0];
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			
+			//The length of the log up to the end of the last complete record.
+			int good = 0;
+			
+			try {
+				while(in.available() > 0) {
+					
+					//Read the whole record before applying it, in case it was cut off.
+					byte kind = in.readByte();
+					UUID uuid = new UUID(in.readLong(), in.readLong());
+					
+					if(kind == NAME_RECORD) {
+						String name = in.readUTF();
+						names[getRow(uuid)] = name;
+					
+					} else if(kind == STAT_RECORD) {
+						int stat = in.readByte();
+						long amount = in.readLong();
+						if(stat < 0 || stat >= STATS.length) {
+							throw new IOException("Unknown statistic " + stat + ".");
+						}
+						columns[stat][getRow(uuid)] += amount;
+					
+					} else {
+						throw new IOException("Unknown record type " + kind + ".");
+					}
+					good = bytes.length - in.available();
+					records++;
+				}
+			} catch(IOException e) {
+				
+				//A crash while appending leaves part of a record at the end of the log. Cut it off,
+				//so that records appended from now on aren't read as part of it.
+				CTF.LOGGER.warn("CTF player statistics are damaged after " + records
+						+ " records, the rest will be discarded.", e);
+				try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+					channel.truncate(good);
+				} catch(IOException f) {
+					CTF.LOGGER.error("Unable to repair CTF player statistics.", f);
+				}
+			}
+		}
+		
+		//Rank every player in each statistic.
+		for(int stat = 0; stat < STATS.length; stat++) {
+			for(int row = 0; row < size; row++) {
+				updateTop(stat, row);
+			}
+		}
+		
+		//Each player needs at most one record per statistic, plus their name.
+		if(records > 2 * size * (STATS.length + 1)) {
+			compact(file);
+		}
+	}
+	
+	/**
+	 * Rewrite the log with a single record for each statistic of each player.
+	 * @param file the log file.
+	 */
+	private static void compact(File file) {
+		
+		pendingBytes.reset();
+		for(int row = 0; row < size; row++) {
+			
+			log(NAME_RECORD, players[row], null, 0, names[row]);
+			for(Stat stat : STATS) {
+				if(columns[stat.ordinal()][row] != 0) {
+					log(STAT_RECORD, players[row], stat, columns[stat.ordinal()][row], null);
+				}
+			}
+		}
+		byte[] bytes = pendingBytes.toByteArray();
+		pendingBytes.reset();
+		
+		//Write to a temporary file first, so that a crash can't lose the log.
+		DataFiles.write(() -> {
+			
+			File temp = new File(file.getParentFile(), "stats.tmp");
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				out.write(bytes);
+			} catch(IOException e) {
+				CTF.LOGGER.error("Unable to compact CTF player statistics.", e);
+				return;
+			}
+			try {
+				Files.move(temp.toPath(), file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch(IOException e) {
+				CTF.LOGGER.error("Unable to compact CTF player statistics.", e);
+			}
+		});
+	}
+	
+	/**
+	 * Get the row of a player, adding them if necessary and recording any change to their name.
+	 * @param player the player.
+	 * @return the row of the player.
+	 */
+	private static int getRow(EntityPlayer player) {
+		
+		load();
+		int row = getRow(player.getUniqueID());
+		if(!player.getName().equals(names[row])) {
+			names[row] = player.getName();
+			log(NAME_RECORD, players[row], null, 0, names[row]);
+		}
+		return row;
+	}
+	
+	/**
+	 * Get the row of a player, adding them if necessary.
+	 * @param uuid the UUID of the player.
+	 * @return the row of the player.
+	 */
+	private static int getRow(UUID uuid) {
+		
+		Integer row = rows.get(uuid);
+		if(row != null) {
+			return row;
+		}
+		
+		//Grow the columns when they are full.
+		if(size == players.length) {
+			players = Arrays.copyOf(players, size * 2);
+			names = Arrays.copyOf(names, size * 2);
+			for(int stat = 0; stat < STATS.length; stat++) {
+				columns[stat] = Arrays.copyOf(columns[stat], size * 2);
+			}
+		}
+		
+		players[size] = uuid;
+		names[size] = null;
+		for(long[] column : columns) {
+			column[size] = 0;
+		}
+		rows.put(uuid, size);
+		return size++;
+	}
+	
+	/**
+	 * Move a player into or within the leading players of a statistic after it has increased.
+	 * Since statistics only ever increase, a player outside the leaders can only join them
+	 * by passing the lowest leader.
+	 * @param stat the ordinal of the statistic.
+	 * @param row the row of the player.
+	 */
+	private static void updateTop(int stat, int row) {
+		
+		int[] leaders = top[stat];
+		long[] column = columns[stat];
+		if(column[row] == 0) {
+			return;
+		}
+		
+		//Find the player among the leaders, or add them in place of the lowest.
+		int i = 0;
+		while(i < topSize[stat] && leaders[i] != row) {
+			i++;
+		}
+		if(i == topSize[stat]) {
+			if(topSize[stat] < TOP_SIZE) {
+				topSize[stat]++;
+			} else if(column[row] <= column[leaders[i - 1]]) {
+				return;
+			} else {
+				i--;
+			}
+			leaders[i] = row;
+		}
+		
+		//Move the player up past any leaders with a lower value.
+		while(i > 0 && column[leaders[i - 1]] < column[row]) {
+			leaders[i] = leaders[i - 1];
+			leaders[--i] = row;
+		}
+	}
+	
+	/**
+	 * Add a record to the changes waiting to be written.
+	 * @param kind the kind of record.
+	 * @param uuid the UUID of the player.
+	 * @param stat the statistic which changed, for stat records.
+	 * @param amount the change in the statistic, for stat records.
+	 * @param name the name of the player, for name records.
+	 */
+	private static void log(byte kind, UUID uuid, Stat stat, long amount, String name) {
+		
+		try {
+			pending.writeByte(kind);
+			pending.writeLong(uuid.getMostSignificantBits());
+			pending.writeLong(uuid.getLeastSignificantBits());
+			if(kind == NAME_RECORD) {
+				pending.writeUTF(name);
+			} else {
+				pending.writeByte(stat.ordinal());
+				pending.writeLong(amount);
+			}
+		} catch(IOException e) {
+			//Writing to memory can't fail.
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,415 @@
+package ctf.data;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import ctf.CTF;
+import ctf.blocks.Flag;
+import ctf.events.LoadShedder;
+import ctf.events.PendingRemovals;
+import ctf.util.BulkBlockWriter;
+import ctf.util.Colour;
+import net.minecraft.block.Block;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.util.math.BlockPos;
+import net.minecraftforge.common.DimensionManager;
+import net.minecraftforge.common.util.Constants.NBT;
+
+/**
+ * Searches the saved region files of every dimension for flag blocks which shouldn't be there,
+ * such as those left behind by a crash or rollback in chunks which nobody has loaded since.
+ * The region files are memory mapped and read on a pool of background threads,
+ * and only sections containing the low byte of a flag block ID are examined block by block.
+ * The orphaned flags which are found can then be removed on the server thread, a few per tick.
+ * Flags are only orphaned while an event is prepared, so that flags placed as decoration are left alone.
+ * @author Alec Dorrington
+ */
+public class RegionScanner {
+	
+	/** A flag block found where no flag should be. */
+	public static class Orphan {
+		
+		public final int dimension;
+		public final BlockPos position;
+		public final Colour colour;
+		
+		Orphan(int dimension, BlockPos position, Colour colour) {
+			this.dimension = dimension;
+			this.position = position;
+			this.colour = colour;
+		}
+	}
+	
+	/** The size of a sector in a region file, in bytes. */
+	private static final int SECTOR = 4096;
+	
+	/** The number of chunks in a region file. */
+	private static final int CHUNKS = 1024;
+	
+	/** The number of orphans removed per tick while cleaning. */
+	private static final int REMOVALS_PER_TICK = 16;
+	
+	/** All colours, indexed by ordinal. */
+	private static final Colour[] COLOURS = Colour.values();
+	
+	/** The pool scanning the region files, or null if no scan is running. */
+	private static ExecutorService pool;
+	
+	/** The number of region files still to be scanned. */
+	private static final AtomicInteger remaining = new AtomicInteger();
+	
+	/** The number of chunks read, and the number which couldn't be read, during the last scan. */
+	private static final AtomicInteger chunks = new AtomicInteger(), unreadable = new AtomicInteger();
+	
+	/** The number of sections which were skipped without examining each block, during the last scan. */
+	private static final AtomicInteger skipped = new AtomicInteger();
+	
+	/** The orphans found by the last scan. Added to by the scanning threads. */
+	private static final Queue<Orphan> orphans = new ConcurrentLinkedQueue<>();
+	
+	/** The orphans waiting to be removed on the server thread. */
+	private static final ArrayDeque<Orphan> removals = new ArrayDeque<>();
+	
+	/** The number of orphans removed since the server started. */
+	private static int removed = 0;
+	
+	/**
+	 * Begin scanning every region file in the background. Must be called on the server thread.
+	 * Chunks which haven't been saved since they last changed won't be up to date, so the world should be saved first.
+	 * @return whether the scan began, which it won't if a scan is already running.
+	 */
+	public static boolean scan() {
+		
+		if(isScanning()) {
+			return false;
+		}
+		
+		//Find which block IDs belong to which colour of flag.
+		int[] colours = new int[4096];
+		Arrays.fill(colours, -1);
+		boolean[] lowBytes = new boolean[256];
+		for(Colour colour : COLOURS) {
+			int id = Block.getIdFromBlock(Flag.get(colour));
+			colours[id] = colour.ordinal();
+			lowBytes[id & 0xFF] = true;
+		}
+		
+		//Take the flag positions now, since the values can't be read from other threads.
+		MatchState state = MatchState.capture();
+		
+		List<File> files = new ArrayList<>();
+		List<Integer> dimensions = new ArrayList<>();
+		File root = DimensionManager.getCurrentSaveRootDirectory();
+		findRegionFiles(new File(root, "region"), 0, files, dimensions);
+		
+		File[] folders = root.listFiles();
+		for(File folder : folders == null ? new File[0] : folders) {
+			if(folder.isDirectory() && folder.getName().matches("DIM-?\\d+")) {
+				findRegionFiles(new File(folder, "region"),
+						Integer.parseInt(folder.getName().substring(3)), files, dimensions);
+			}
+		}
+		
+		orphans.clear();
+		chunks.set(0);
+		unreadable.set(0);
+		skipped.set(0);
+		remaining.set(files.size());
+		if(files.isEmpty()) {
+			return true;
+		}
+		
+		pool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), r -> {
+			Thread thread = new Thread(r, "CTF Region Scanner");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		//The pool is forgotten when the server stops, so each task keeps its own reference to shut it down.
+		ExecutorService executor = pool;
+		for(int i = 0; i < files.size(); i++) {
+			
+			File file = files.get(i);
+			int dimension = dimensions.get(i);
+			executor.execute(() -> {
+				
+				try {
+					scanFile(file, dimension, colours, lowBytes, state);
+				} catch(IOException e) {
+					CTF.LOGGER.warn("Unable to scan CTF region file " + file + ".", e);
+				}
+				
+				//The last file to finish shuts down the pool.
+				if(remaining.decrementAndGet() == 0) {
+					executor.shutdown();
+				}
+			});
+		}
+		return true;
+	}
+	
+	/**
+	 * Begin removing the orphans found by the last scan, a few each tick.
+	 * @return the number of orphans to be removed.
+	 */
+	public static int clean() {
+		
+		if(isScanning()) {
+			return 0;
+		}
+		removals.clear();
+		removals.addAll(orphans);
+		orphans.clear();
+		return removals.size();
+	}
+	
+	/**
+	 * Remove a few orphans, if any are waiting to be removed.
+	 * Flags in unloaded chunks are removed the next time the chunk is loaded.
+	 * To be called once per server tick.
+	 */
+	public static void tick() {
+		
+		if(removals.isEmpty()) {
+			return;
+		}
+		
+		//Check again before removing anything, in case a flag has since been placed there.
+		MatchState state = MatchPublisher.get();
+		if(state == null) {
+			state = MatchState.capture();
+		}
+		
+		BulkBlockWriter writer = new BulkBlockWriter();
+		int count = REMOVALS_PER_TICK / LoadShedder.getLevel().STRIDE;
+		for(int i = 0; i < count && !removals.isEmpty(); i++) {
+			
+			Orphan orphan = removals.poll();
+			if(isOrphan(state, orphan.dimension, orphan.position, orphan.colour)) {
+				PendingRemovals.remove(writer, orphan.dimension, orphan.position);
+				removed++;
+			}
+		}
+		writer.flush();
+	}
+	
+	/**
+	 * Stop any scan or removals in progress. Called when the server stops.
+	 */
+	public static void stop() {
+		
+		if(pool != null) {
+			pool.shutdownNow();
+			pool = null;
+		}
+		orphans.clear();
+		removals.clear();
+		removed = 0;
+	}
+	
+	/** @return whether a scan is running. */
+	public static boolean isScanning() { return pool != null && !pool.isTerminated(); }
+	
+	/** @return the number of region files still to be scanned. */
+	public static int getRemainingFiles() { return remaining.get(); }
+	
+	/** @return the number of chunks read by the last scan. */
+	public static int getChunks() { return chunks.get(); }
+	
+	/** @return the number of chunks which couldn't be read by the last scan. */
+	public static int getUnreadableChunks() { return unreadable.get(); }
+	
+	/** @return the number of sections skipped by the last scan without examining each block. */
+	public static int getSkippedSections() { return skipped.get(); }
+	
+	/** @return the orphans found by the last scan which haven't been cleaned up. */
+	public static List<Orphan> getOrphans() { return new ArrayList<>(orphans); }
+	
+	/** @return the number of orphans waiting to be removed. */
+	public static int getPendingRemovals() { return removals.size(); }
+	
+	/** @return the number of orphans removed since the server started. */
+	public static int getRemoved() { return removed; }
+	
+	/**
+	 * Add every region file in a folder to the list of files to scan.
+	 * @param folder the region folder of a dimension.
+	 * @param dimension the dimension.
+	 * @param files the files to scan.
+	 * @param dimensions the dimension of each file to scan.
+	 */
+	private static void findRegionFiles(File folder, int dimension, List<File> files, List<Integer> dimensions) {
+		
+		File[] regions = folder.listFiles((dir, name) -> name.endsWith(".mca"));
+		for(File region : regions == null ? new File[0] : regions) {
+			files.add(region);
+			dimensions.add(dimension);
+		}
+	}
+	
+	/**
+	 * Scan every chunk in a region file for orphaned flags. Called on a scanning thread.
+	 * @param file the region file.
+	 * @param dimension the dimension of the region.
+	 * @param colours the colour ordinal of each block ID, or -1 for blocks which aren't flags.
+	 * @param lowBytes whether each byte is the low byte of a flag block ID.
+	 * @param state the match state at the start of the scan.
+	 * @throws IOException if the file can't be read.
+	 */
+	private static void scanFile(File file, int dimension, int[] colours,
+			boolean[] lowBytes, MatchState state) throws IOException {
+		
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			
+			long size = channel.size();
+			if(size < 2 * SECTOR) {
+				return;
+			}
+			MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			
+			for(int i = 0; i < CHUNKS && !Thread.currentThread().isInterrupted(); i++) {
+				
+				//Each chunk's location is given by its first sector (3 bytes) and number of sectors (1 byte).
+				int location = region.getInt(i * 4);
+				long offset = (long) (location >>> 8) * SECTOR;
+				if(location == 0 || offset + 5 > size) {
+					continue;
+				}
+				int length = region.getInt((int) offset);
+				if(length <= 1 || offset + 4 + length > size) {
+					unreadable.incrementAndGet();
+					continue;
+				}
+				
+				ByteBuffer data = region.duplicate();
+				data.limit((int) offset + 4 + length);
+				data.position((int) offset + 5);
+				
+				try {
+					InputStream in = new ByteBufferInputStream(data);
+					in = region.get((int) offset + 4) == 1 ? new GZIPInputStream(in) : new InflaterInputStream(in);
+					NBTTagCompound chunk = CompressedStreamTools.read(new DataInputStream(new BufferedInputStream(in)));
+					scanChunk(chunk.getCompoundTag("Level"), dimension, colours, lowBytes, state);
+					chunks.incrementAndGet();
+				
+				} catch(IOException | RuntimeException e) {
+					//The chunk may have been written to while being read.
+					unreadable.incrementAndGet();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Scan the sections of a chunk for orphaned flags.
+	 * @param level the chunk data.
+	 * @param dimension the dimension of the chunk.
+	 * @param colours the colour ordinal of each block ID, or -1 for blocks which aren't flags.
+	 * @param lowBytes whether each byte is the low byte of a flag block ID.
+	 * @param state the match state at the start of the scan.
+	 */
+	private static void scanChunk(NBTTagCompound level, int dimension, int[] colours,
+			boolean[] lowBytes, MatchState state) {
+		
+		int chunkX = level.getInteger("xPos"), chunkZ = level.getInteger("zPos");
+		NBTTagList sections = level.getTagList("Sections", NBT.TAG_COMPOUND);
+		
+		for(int s = 0; s < sections.tagCount(); s++) {
+			
+			NBTTagCompound section = sections.getCompoundTagAt(s);
+			byte[] blocks = section.getByteArray("Blocks");
+			byte[] add = section.hasKey("Add") ? section.getByteArray("Add") : null;
+			int y = section.getByte("Y");
+			boolean candidate = false;
+			
+			//Block IDs are split into a low byte and an optional high nibble, indexed by (y, z, x).
+			for(int i = 0; i < blocks.length; i++) {
+				
+				if(!lowBytes[blocks[i] & 0xFF]) {
+					continue;
+				}
+				candidate = true;
+				int high = add == null ? 0 : (add[i >> 1] >> ((i & 1) << 2)) & 0xF;
+				int colour = colours[high << 8 | blocks[i] & 0xFF];
+				
+				if(colour >= 0) {
+					BlockPos position = new BlockPos(chunkX << 4 | i & 15, y << 4 | i >> 8, chunkZ << 4 | i >> 4 & 15);
+					if(isOrphan(state, dimension, position, COLOURS[colour])) {
+						orphans.add(new Orphan(dimension, position, COLOURS[colour]));
+					}
+				}
+			}
+			if(!candidate) {
+				skipped.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * Outside of an event, flag blocks can only have been placed as decoration, so none are orphaned.
+	 * @param state the match state.
+	 * @param dimension the dimension of a flag block.
+	 * @param position the position of the flag block.
+	 * @param colour the colour of the flag.
+	 * @return whether an event is prepared, and the flag isn't stored as being at the position,
+	 * or directly above or below it.
+	 */
+	private static boolean isOrphan(MatchState state, int dimension, BlockPos position, Colour colour) {
+		
+		if(!state.isPrepared()) {
+			return false;
+		}
+		if(!state.hasTeam(colour) || !state.isInWorld(colour) || state.getDimension(colour) != dimension) {
+			return true;
+		}
+		BlockPos stored = state.getPosition(colour);
+		return stored.getX() != position.getX() || stored.getZ() != position.getZ()
+				|| Math.abs(stored.getY() - position.getY()) > 1;
+	}
+	
+	/** Reads the remaining bytes of a buffer, without copying them. */
+	private static class ByteBufferInputStream extends InputStream {
+		
+		private final ByteBuffer buffer;
+		
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+		
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+		
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			
+			if(!buffer.hasRemaining()) {
+				return -1;
+			}
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+	}
+}
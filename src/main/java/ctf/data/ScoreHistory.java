@@ -0,0 +1,211 @@
+package ctf.data;
+
+import static ctf.util.Values.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import ctf.CTF;
+import ctf.CTFConfig;
+import ctf.events.FlagEvent;
+import ctf.util.CaptureMatrix;
+import ctf.util.Colour;
+import ctf.util.SampleRing;
+import ctf.util.Teams;
+import net.minecraft.scoreboard.Team;
+
+/**
+ * The score and number of captures of each team over the course of an event, sampled periodically.
+ * Recent samples are kept at full resolution, while older samples are thinned out,
+ * so that the memory used is fixed no matter how long the event lasts.
+ * The history is written to disk when the event ends.
+ * @author Alec Dorrington
+ */
+public class ScoreHistory {
+	
+	/** The history of a single team. */
+	private static class TeamHistory {
+		
+		/** Full resolution samples. */
+		final SampleRing recentScores, recentCaptures;
+		
+		/** Samples which have fallen out of the recent history, of which only every DOWNSAMPLING'th is kept. */
+		final SampleRing olderScores, olderCaptures;
+		
+		/** The number of samples which have fallen out of the recent history. */
+		int evicted = 0;
+		
+		TeamHistory(int capacity) {
+			recentScores = new SampleRing(capacity);
+			recentCaptures = new SampleRing(capacity);
+			olderScores = new SampleRing(capacity);
+			olderCaptures = new SampleRing(capacity);
+		}
+		
+		/**
+		 * Record a new sample, moving the oldest recent sample into the older history if necessary.
+		 * @param score the score of the team.
+		 * @param captures the number of captures made by the team.
+		 */
+		void add(int score, int captures) {
+			
+			if(recentScores.isFull() && evicted++ % DOWNSAMPLING == 0) {
+				olderScores.add(recentScores.getOldest());
+				olderCaptures.add(recentCaptures.getOldest());
+			}
+			recentScores.add(score);
+			recentCaptures.add(captures);
+		}
+		
+		/** @return the total number of samples held. */
+		int size() {
+			return olderScores.size() + recentScores.size();
+		}
+		
+		/**
+		 * @param i the index of a sample, where 0 is the oldest.
+		 * @param captures whether to get the number of captures rather than the score.
+		 * @return the sample.
+		 */
+		int get(int i, boolean captures) {
+			
+			int older = olderScores.size();
+			if(i < older) {
+				return (captures ? olderCaptures : olderScores).get(i);
+			}
+			return (captures ? recentCaptures : recentScores).get(i - older);
+		}
+	}
+	
+	/** The number of samples which fall out of the recent history for each one kept in the older history. */
+	private static final int DOWNSAMPLING = 8;
+	
+	/** All colours, indexed by ordinal. */
+	private static final Colour[] COLOURS = Colour.values();
+	
+	/** The history of each team (by colour ordinal), or null for teams without samples. */
+	private static final TeamHistory[] HISTORIES = new TeamHistory[COLOURS.length];
+	
+	/** The number of ticks since the last sample. */
+	private static int ticks = 0;
+	
+	/**
+	 * Take a sample whenever the configured interval elapses during an event.
+	 * To be called once per server tick.
+	 */
+	public static void tick() {
+		
+		int interval = CTFConfig.history.interval;
+		if(interval > 0 && ++ticks >= interval) {
+			ticks = 0;
+			if(getBoolean("ctf:flags_prepared")) {
+				sample();
+			}
+		}
+	}
+	
+	/**
+	 * Record the current score and number of captures of every team.
+	 */
+	public static void sample() {
+		
+		for(Colour colour : Teams.getColours()) {
+			
+			Team team = Teams.getTeam(colour);
+			TeamHistory history = HISTORIES[colour.ordinal()];
+			if(history == null) {
+				history = HISTORIES[colour.ordinal()] = new TeamHistory(CTFConfig.history.samples);
+			}
+			history.add(Teams.getPoints(team), CaptureMatrix.getTotal(colour));
+		}
+	}
+	
+	/**
+	 * Forget the history of the previous event. Called when a new event is prepared, and when the server stops.
+	 */
+	public static void reset() {
+		
+		for(int i = 0; i < HISTORIES.length; i++) {
+			HISTORIES[i] = null;
+		}
+		ticks = 0;
+	}
+	
+	/**
+	 * Get the most recent scores of a team.
+	 * @param colour the colour of the team.
+	 * @param count the maximum number of samples to get.
+	 * @return the scores, from oldest to newest.
+	 */
+	public static int[] getScores(Colour colour, int count) {
+		return getSamples(colour, count, false);
+	}
+	
+	/**
+	 * Get the most recent capture counts of a team.
+	 * @param colour the colour of the team.
+	 * @param count the maximum number of samples to get.
+	 * @return the numbers of captures, from oldest to newest.
+	 */
+	public static int[] getCaptures(Colour colour, int count) {
+		return getSamples(colour, count, true);
+	}
+	
+	/**
+	 * Write the history of the current event to disk, in the background.
+	 * Saved as 'history-<event>.csv' in the CTF data folder.
+	 */
+	public static void dump() {
+		
+		//Copy the history on the server thread, so that sampling may continue while it's written.
+		int[][] scores = new int[COLOURS.length][], captures = new int[COLOURS.length][];
+		for(Colour colour : COLOURS) {
+			scores[colour.ordinal()] = getScores(colour, Integer.MAX_VALUE);
+			captures[colour.ordinal()] = getCaptures(colour, Integer.MAX_VALUE);
+		}
+		File file = DataFiles.getFile("history-" + FlagEvent.getEventId() + ".csv");
+		int interval = CTFConfig.history.interval;
+		
+		DataFiles.write(() -> {
+			
+			try {
+				file.getParentFile().mkdirs();
+				try(PrintWriter out = new PrintWriter(file, "UTF-8")) {
+					
+					out.println("# interval=" + interval + " downsampling=" + DOWNSAMPLING);
+					out.println("team,sample,score,captures");
+					for(Colour colour : COLOURS) {
+						for(int i = 0; i < scores[colour.ordinal()].length; i++) {
+							out.println(colour.UNLOCALISED_NAME + "," + i + ","
+									+ scores[colour.ordinal()][i] + "," + captures[colour.ordinal()][i]);
+						}
+					}
+				}
+			} catch(IOException e) {
+				CTF.LOGGER.error("Unable to write CTF score history.", e);
+			}
+		});
+	}
+	
+	/**
+	 * @param colour the colour of the team.
+	 * @param count the maximum number of samples to get.
+	 * @param captures whether to get the number of captures rather than the score.
+	 * @return the most recent samples, from oldest to newest.
+	 */
+	private static int[] getSamples(Colour colour, int count, boolean captures) {
+		
+		TeamHistory history = HISTORIES[colour.ordinal()];
+		if(history == null) {
+			return new int[0];
+		}
+		
+		int size = history.size();
+		int[] samples = new int[Math.min(count, size)];
+		for(int i = 0; i < samples.length; i++) {
+			samples[i] = history.get(size - samples.length + i, captures);
+		}
+		return samples;
+	}
+}
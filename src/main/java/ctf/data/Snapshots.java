@@ -0,0 +1,161 @@
+package ctf.data;
+
+import static ctf.util.Values.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import ctf.CTF;
+import ctf.CTFConfig;
+
+/**
+ * Periodic backups of the match state, from which an event can be rolled back.
+ * A snapshot is copied on the server thread, then written to disk on a background thread.
+ * Only the most recent snapshots are kept.
+ * @author Alec Dorrington
+ */
+public class Snapshots {
+	
+	/** The number of ticks since the last snapshot. */
+	private static int ticks = 0;
+	
+	/**
+	 * Take a snapshot whenever the configured interval elapses during an event.
+	 * To be called once per server tick.
+	 */
+	public static void tick() {
+		
+		int interval = CTFConfig.snapshots.interval;
+		if(interval > 0 && ++ticks >= interval) {
+			ticks = 0;
+			if(getBoolean("ctf:flags_prepared")) {
+				save();
+			}
+		}
+	}
+	
+	/**
+	 * Restart the interval between snapshots. Called when the server stops.
+	 */
+	public static void clear() {
+		ticks = 0;
+	}
+	
+	/**
+	 * Take a snapshot of the current match state and write it in the background.
+	 * Must be called on the server thread.
+	 */
+	public static void save() {
+		
+		MatchState state = MatchState.capture();
+		File directory = getDirectory();
+		int kept = CTFConfig.snapshots.kept;
+		
+		DataFiles.write(() -> write(directory, state, kept));
+	}
+	
+	/**
+	 * Load a previously saved snapshot.
+	 * @param n which snapshot to load, where 1 is the most recent.
+	 * @return the saved state.
+	 * @throws IOException if there is no such snapshot, or it can't be read.
+	 */
+	public static MatchState load(int n) throws IOException {
+		
+		File[] snapshots = list(getDirectory());
+		if(n < 1 || n > snapshots.length) {
+			throw new IOException("No snapshot " + n + " exists.");
+		}
+		
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(snapshots[n - 1])))) {
+			return MatchState.read(in);
+		}
+	}
+	
+	/**
+	 * @return the number of snapshots available.
+	 */
+	public static int count() {
+		return list(getDirectory()).length;
+	}
+	
+	/**
+	 * Write a snapshot, then delete any which are too old to be kept.
+	 * Called on the writer thread.
+	 * @param directory the folder containing the snapshots.
+	 * @param state the state to write.
+	 * @param kept the number of snapshots to keep.
+	 */
+	private static void write(File directory, MatchState state, int kept) {
+		
+		try {
+			directory.mkdirs();
+			File[] snapshots = list(directory);
+			long next = snapshots.length == 0 ? 1 : getSequence(snapshots[0]) + 1;
+			
+			//Write to a temporary file first, so that a crash can't leave a partial snapshot.
+			File temp = new File(directory, "snapshot.tmp");
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temp)))) {
+				state.write(out);
+			}
+			Files.move(temp.toPath(), new File(directory, "snapshot-" + next + ".bin").toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			
+			//Delete the oldest snapshots.
+			snapshots = list(directory);
+			for(int i = kept; i < snapshots.length; i++) {
+				snapshots[i].delete();
+			}
+		} catch(IOException e) {
+			CTF.LOGGER.error("Unable to write CTF snapshot.", e);
+		}
+	}
+	
+	/**
+	 * @param directory the folder containing the snapshots.
+	 * @return all snapshot files, ordered from newest to oldest.
+	 */
+	private static File[] list(File directory) {
+		
+		File[] snapshots = directory.listFiles((dir, name) ->
+				name.startsWith("snapshot-") && name.endsWith(".bin"));
+		if(snapshots == null) {
+			return new File[0];
+		}
+		Arrays.sort(snapshots, Comparator.comparingLong(Snapshots::getSequence).reversed());
+		return snapshots;
+	}
+	
+	/**
+	 * @param snapshot a snapshot file.
+	 * @return the sequence number of the snapshot.
+	 */
+	private static long getSequence(File snapshot) {
+		
+		String name = snapshot.getName();
+		try {
+			return Long.parseLong(name.substring("snapshot-".length(), name.length() - ".bin".length()));
+		} catch(NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * @return the folder containing the snapshots.
+	 */
+	private static File getDirectory() {
+		return DataFiles.getFile("snapshots");
+	}
+}
@@ -0,0 +1,200 @@
+package ctf.events;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ctf.CTF;
+import ctf.CTFConfig;
+import ctf.ServerContext;
+import ctf.data.MatchPublisher;
+import ctf.data.MatchState;
+import ctf.network.BeaconPacket;
+import ctf.util.Colour;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.server.management.PlayerList;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * Shows a column of particles above every flag, and a trail of particles behind every flag carrier,
+ * so that flags are easier to find. Rather than spawning particles on the server every tick,
+ * each player is periodically sent a single packet listing the emitters within their view distance,
+ * and the number of particles is scaled down to fit within a budget shared by all players.
+ * @author Alec Dorrington
+ */
+public class Beacons {
+	
+	/** All colours, indexed by ordinal. */
+	private static final Colour[] COLOURS = Colour.values();
+	
+	/** There is at most one beacon per flag and one trail per carrier. */
+	private static final int MAX_EMITTERS = COLOURS.length * 2;
+	
+	/** The kind of each emitter, either BEACON or TRAIL. */
+	private static final int[] kinds = new int[MAX_EMITTERS];
+	
+	/** The colour of each emitter. */
+	private static final Colour[] colours = new Colour[MAX_EMITTERS];
+	
+	/** The dimension of each emitter. */
+	private static final int[] dimensions = new int[MAX_EMITTERS];
+	
+	/** The position of each emitter. */
+	private static final double[] x = new double[MAX_EMITTERS], y = new double[MAX_EMITTERS], z = new double[MAX_EMITTERS];
+	
+	/** The player carrying the flag of each trail, who doesn't see their own trail. Null for beacons. */
+	private static final EntityPlayerMP[] carriers = new EntityPlayerMP[MAX_EMITTERS];
+	
+	/** The number of emitters found this period. */
+	private static int emitters = 0;
+	
+	/** The number of ticks since particles were last sent. */
+	private static int ticks = 0;
+	
+	/**
+	 * Send particles to every player whenever the configured interval elapses during an event.
+	 * To be called once per server tick.
+	 */
+	public static void tick() {
+		
+		int interval = LoadShedder.scaleInterval(CTFConfig.beacons.interval);
+		int budget = LoadShedder.scaleBudget(CTFConfig.beacons.budget);
+		if(interval <= 0 || budget <= 0 || ++ticks < interval) {
+			return;
+		}
+		ticks = 0;
+		
+		MatchState state = MatchPublisher.get();
+		if(state == null || !state.isPrepared()) {
+			return;
+		}
+		PlayerList playerList = ServerContext.get().getServer().getPlayerList();
+		findEmitters(state, playerList);
+		send(playerList, interval, budget);
+		
+		//Don't hold on to players who may log out.
+		Arrays.fill(carriers, 0, emitters, null);
+	}
+	
+	/**
+	 * Send the particles of the emitters found this period to every player who can see them.
+	 * @param playerList the players on the server.
+	 * @param interval the number of ticks between periods.
+	 * @param budget the number of particles which may be sent per tick, across all players.
+	 */
+	private static void send(PlayerList playerList, int interval, int budget) {
+		
+		if(emitters == 0) {
+			return;
+		}
+		List<EntityPlayerMP> players = playerList.getPlayers();
+		double range = playerList.getViewDistance() * 16;
+		
+		//Count the particles every player would see, so that they can be scaled down to fit the budget.
+		long wanted = 0;
+		for(EntityPlayerMP player : players) {
+			for(int i = 0; i < emitters; i++) {
+				if(isVisible(player, i, range)) {
+					wanted += getRate(kinds[i]);
+				}
+			}
+		}
+		if(wanted == 0) {
+			return;
+		}
+		double scale = Math.min(1.0, (double) budget * interval / wanted);
+		
+		for(EntityPlayerMP player : players) {
+			
+			BeaconPacket packet = null;
+			for(int i = 0; i < emitters; i++) {
+				
+				if(!isVisible(player, i, range)) {
+					continue;
+				}
+				
+				//Round randomly, so that small scaled rates still show some particles on average.
+				int particles = (int) (getRate(kinds[i]) * scale + player.world.rand.nextDouble());
+				if(particles > 0) {
+					if(packet == null) {
+						packet = new BeaconPacket(emitters);
+					}
+					packet.add(kinds[i], colours[i], x[i], y[i], z[i], particles);
+				}
+			}
+			if(packet != null) {
+				CTF.NETWORK.sendTo(packet, player);
+			}
+		}
+	}
+	
+	/**
+	 * Find every flag in the world and every player carrying a flag.
+	 * @param state the current match state.
+	 * @param playerList the players on the server.
+	 */
+	private static void findEmitters(MatchState state, PlayerList playerList) {
+		
+		emitters = 0;
+		for(Colour colour : COLOURS) {
+			
+			if(state.hasTeam(colour) && state.isInWorld(colour) && FlagEvent.isLocal(colour)) {
+				BlockPos position = state.getPosition(colour);
+				addEmitter(BeaconPacket.BEACON, colour, state.getDimension(colour),
+						position.getX() + 0.5, position.getY(), position.getZ() + 0.5, null);
+			}
+		}
+		
+		for(int i = 0; i < state.getCarrierCount() && emitters < MAX_EMITTERS; i++) {
+			
+			EntityPlayerMP carrier = playerList.getPlayerByUsername(state.getCarrier(i));
+			if(carrier != null) {
+				addEmitter(BeaconPacket.TRAIL, state.getCarried(i), carrier.dimension,
+						carrier.posX, carrier.posY, carrier.posZ, carrier);
+			}
+		}
+	}
+	
+	/**
+	 * Add an emitter to be sent this period.
+	 * @param kind the kind of emitter, either BEACON or TRAIL.
+	 * @param colour the colour of the particles.
+	 * @param dimension the dimension of the emitter.
+	 * @param x the x coordinate of the emitter.
+	 * @param y the y coordinate of the emitter.
+	 * @param z the z coordinate of the emitter.
+	 * @param carrier the player carrying the flag, for trails.
+	 */
+	private static void addEmitter(int kind, Colour colour, int dimension,
+			double x, double y, double z, EntityPlayerMP carrier) {
+		
+		kinds[emitters] = kind;
+		colours[emitters] = colour;
+		dimensions[emitters] = dimension;
+		Beacons.x[emitters] = x;
+		Beacons.y[emitters] = y;
+		Beacons.z[emitters] = z;
+		carriers[emitters] = carrier;
+		emitters++;
+	}
+	
+	/**
+	 * @param player a player.
+	 * @param i the index of an emitter.
+	 * @param range the view distance in blocks.
+	 * @return whether the emitter is in the same dimension as the player and within their view distance.
+	 */
+	private static boolean isVisible(EntityPlayerMP player, int i, double range) {
+		
+		double dx = player.posX - x[i], dz = player.posZ - z[i];
+		return player.dimension == dimensions[i] && player != carriers[i]
+				&& dx * dx + dz * dz <= range * range;
+	}
+	
+	/**
+	 * @param kind the kind of emitter, either BEACON or TRAIL.
+	 * @return the configured number of particles per period for emitters of this kind.
+	 */
+	private static int getRate(int kind) {
+		return kind == BeaconPacket.BEACON ? CTFConfig.beacons.beaconParticles : CTFConfig.beacons.trailParticles;
+	}
+}
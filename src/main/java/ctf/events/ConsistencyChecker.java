@@ -0,0 +1,421 @@
+package ctf.events;
+
+import static ctf.util.Values.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ctf.CTF;
+import ctf.CTFConfig;
+import ctf.ServerContext;
+import ctf.blocks.Flag;
+import ctf.data.MatchPublisher;
+import ctf.data.MatchState;
+import ctf.util.ChunkKeys;
+import ctf.util.Colour;
+import ctf.util.Teams;
+import net.minecraft.block.Block;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.common.DimensionManager;
+
+/**
+ * Checks in the background that the stored flag state matches the world, and repairs any differences.
+ * Flags may be destroyed by other mods, and carriers may be lost in a crash, neither of which would otherwise
+ * be noticed. Each tick a few flags and carriers are checked, and the loaded chunks are searched for flags
+ * which shouldn't be there, a section at a time, until the configured time budget is used up.
+ * Flag blocks are only searched for while an event is prepared, so that flags placed as decoration are left alone.
+ * Unloaded chunks are never loaded by the checker. When repairs are turned off, each problem is only logged once,
+ * until it changes or goes away.
+ * @author Alec Dorrington
+ */
+public class ConsistencyChecker {
+	
+	/** The kinds of inconsistency which can be found. */
+	public enum Problem {
+		
+		/** A flag is stored as being in the world, but isn't there. */
+		MISSING_FLAG("missing flags"),
+		
+		/** A flag is neither in the world nor carried by anyone. */
+		LOST_FLAG("lost flags"),
+		
+		/** A flag is both in the world and carried by a player. */
+		PLACED_AND_HELD("flags placed and held"),
+		
+		/** A flag block was found somewhere other than where the flag is stored as being, during an event. */
+		DUPLICATE_FLAG("duplicate flags"),
+		
+		/** A player is stored as carrying a flag, but is offline or the event is over. */
+		STALE_CARRIER("stale carriers");
+		
+		/** The name of the problem as shown by '/ctf check'. */
+		public final String DESCRIPTION;
+		
+		Problem(String description) {
+			DESCRIPTION = description;
+		}
+	}
+	
+	/** All colours, indexed by ordinal. */
+	private static final Colour[] COLOURS = Colour.values();
+	
+	/** The number of flags checked each tick. */
+	private static final int FLAGS_PER_TICK = 2;
+	
+	/** The number of carriers checked each tick. */
+	private static final int CARRIERS_PER_TICK = 2;
+	
+	/** The number of times each problem (by ordinal) has been found since the server started. */
+	private static final long[] found = new long[Problem.values().length];
+	
+	/** The number of times each problem has been repaired since the server started. */
+	private static final long[] repaired = new long[Problem.values().length];
+	
+	/** The last problem logged about each flag, carrier and flag block, by subject. */
+	private static final Map<String, String> REPORTED = new HashMap<>();
+	
+	/** The subjects of the flag blocks found during the current search, such that those since removed are forgotten. */
+	private static final Set<String> FOUND_BLOCKS = new HashSet<>();
+	
+	/** The number of complete searches of the loaded chunks. */
+	private static long sweeps = 0;
+	
+	/** The colour ordinal of the next flag to check. */
+	private static int nextFlag = 0;
+	
+	/** The carriers being checked, found at the start of each search, and the index of the next one to check. */
+	private static List<String> carriers;
+	private static int nextCarrier = 0;
+	
+	/** The dimensions and chunk keys of the chunks being searched, and the index of the next one to search. */
+	private static int[] chunkDimensions = new int[0];
+	private static long[] chunkKeys = new long[0];
+	private static int chunkCount = 0, nextChunk = 0;
+	
+	/** The index of the next section to search, within the current chunk. */
+	private static int nextSection = 0;
+	
+	/**
+	 * Check a few flags and carriers, and search the loaded chunks until the time budget is used up.
+	 * To be called once per server tick.
+	 */
+	public static void tick() {
+		
+		int budget = LoadShedder.scaleBudget(CTFConfig.consistency.budget);
+		if(budget <= 0) {
+			return;
+		}
+		long deadline = System.nanoTime() + budget * 1000L;
+		
+		for(int i = 0; i < FLAGS_PER_TICK; i++) {
+			checkFlag(COLOURS[nextFlag]);
+			nextFlag = (nextFlag + 1) % COLOURS.length;
+		}
+		
+		for(int i = 0; i < CARRIERS_PER_TICK && carriers != null && nextCarrier < carriers.size(); i++) {
+			checkCarrier(carriers.get(nextCarrier++));
+		}
+		
+		//Search one section at a time, until out of time or every loaded chunk has been searched.
+		boolean restarted = false;
+		while(System.nanoTime() < deadline) {
+			
+			if(nextChunk >= chunkCount) {
+				if(restarted) {
+					break;
+				}
+				startSweep();
+				restarted = true;
+				continue;
+			}
+			searchSection();
+		}
+	}
+	
+	/**
+	 * @param problem a kind of problem.
+	 * @return the number of times the problem has been found since the server started.
+	 */
+	public static long getFound(Problem problem) {
+		return found[problem.ordinal()];
+	}
+	
+	/**
+	 * @param problem a kind of problem.
+	 * @return the number of times the problem has been repaired since the server started.
+	 */
+	public static long getRepaired(Problem problem) {
+		return repaired[problem.ordinal()];
+	}
+	
+	/**
+	 * @return the number of complete searches of the loaded chunks since the server started.
+	 */
+	public static long getSweeps() {
+		return sweeps;
+	}
+	
+	/**
+	 * Forget all progress and counts. Called when the server stops.
+	 */
+	public static void clear() {
+		
+		for(int i = 0; i < found.length; i++) {
+			found[i] = 0;
+			repaired[i] = 0;
+		}
+		sweeps = 0;
+		REPORTED.clear();
+		FOUND_BLOCKS.clear();
+		carriers = null;
+		chunkCount = nextChunk = nextSection = 0;
+	}
+	
+	/**
+	 * Check that a flag is where it is stored as being, or is carried by someone.
+	 * @param colour the colour of the flag.
+	 */
+	private static void checkFlag(Colour colour) {
+		
+		String name = colour.UNLOCALISED_NAME, subject = "flag:" + name;
+		
+		//Flags last placed on other servers sharing the event are checked by those servers, along with their carriers,
+		//since changes made there may not have reached this server yet.
+		if(!getBoolean("ctf:flags_prepared") || Teams.getTeam(colour) == null || !FlagEvent.isLocal(colour)) {
+			REPORTED.remove(subject);
+			return;
+		}
+		
+		//Finding the carrier of a flag is slow, so it is only done when the published state suggests a problem.
+		boolean carried = isCarried(colour);
+		
+		if(getBoolean("ctf:flag_in_world(" + name + ")")) {
+			
+			World world = DimensionManager.getWorld(getInteger("ctf:flag_dimension(" + name + ")"));
+			BlockPos position = getPosition("ctf:flag_position(" + name + ")");
+			
+			if(carried && getHolder(colour) != null && FlagEvent.isLocalCarrier(getHolder(colour))) {
+				
+				//The carrier keeps the flag, and the copy in the world is removed.
+				if(report(Problem.PLACED_AND_HELD, subject, "The " + colour.DISPLAY_NAME
+						+ " flag is both at " + position + " and held by " + getHolder(colour) + ".")) {
+					FlagEvent.takeFromWorld(colour);
+				}
+				return;
+			}
+			
+			//Whether a flag in an unloaded chunk is there can't be known, so whatever was last logged stands.
+			if(world == null || !world.isBlockLoaded(position)) {
+				return;
+			}
+			if(world.getBlockState(position).getBlock() != Flag.get(colour)) {
+				
+				if(report(Problem.MISSING_FLAG, subject, "The " + colour.DISPLAY_NAME
+						+ " flag is missing from " + position + ".")) {
+					FlagEvent.returnFlag(colour);
+				}
+				return;
+			}
+		
+		} else if(!carried && getHolder(colour) == null) {
+			
+			//The flag must be put back somewhere, so it is returned home.
+			if(report(Problem.LOST_FLAG, subject, "The " + colour.DISPLAY_NAME
+					+ " flag is neither placed nor held.")) {
+				setBoolean("ctf:flag_in_world(" + name + ")", true);
+				FlagEvent.returnFlag(colour);
+			}
+			return;
+		}
+		REPORTED.remove(subject);
+	}
+	
+	/**
+	 * Check that a player stored as carrying a flag is online, and that the event is still running.
+	 * @param player the name of the player.
+	 */
+	private static void checkCarrier(String player) {
+		
+		//Carriers on other servers sharing the event aren't online here, and are checked by those servers.
+		String subject = "carrier:" + player;
+		if(!getBoolean("ctf:has_flag(" + player + ")") || !FlagEvent.isLocalCarrier(player)) {
+			REPORTED.remove(subject);
+			return;
+		}
+		
+		boolean prepared = getBoolean("ctf:flags_prepared");
+		if(prepared && ServerContext.get().getServer().getPlayerList().getPlayerByUsername(player) != null) {
+			REPORTED.remove(subject);
+			return;
+		}
+		
+		//Players drop their flag when they log out, so an offline carrier was lost in a crash.
+		if(report(Problem.STALE_CARRIER, subject, player + " is stored as carrying a flag, but "
+				+ (prepared ? "is offline." : "the event is over."))) {
+			FlagEvent.setCarried(player, null);
+		}
+	}
+	
+	/**
+	 * Begin a new search of every loaded chunk.
+	 */
+	private static void startSweep() {
+		
+		if(chunkCount > 0) {
+			sweeps++;
+		}
+		
+		//Forget the flag blocks which weren't found again during the last search, since they have gone.
+		REPORTED.keySet().removeIf(subject -> subject.startsWith("block:") && !FOUND_BLOCKS.contains(subject));
+		FOUND_BLOCKS.clear();
+		chunkCount = nextChunk = nextSection = 0;
+		carriers = FlagEvent.getCarriers();
+		nextCarrier = 0;
+		
+		for(WorldServer world : DimensionManager.getWorlds()) {
+			
+			Collection<Chunk> loaded = world.getChunkProvider().getLoadedChunks();
+			if(chunkCount + loaded.size() > chunkKeys.length) {
+				int capacity = Math.max(chunkKeys.length * 2, chunkCount + loaded.size());
+				chunkKeys = Arrays.copyOf(chunkKeys, capacity);
+				chunkDimensions = Arrays.copyOf(chunkDimensions, capacity);
+			}
+			
+			int dimension = world.provider.getDimension();
+			for(Chunk chunk : loaded) {
+				chunkDimensions[chunkCount] = dimension;
+				chunkKeys[chunkCount++] = ChunkKeys.of(chunk);
+			}
+		}
+	}
+	
+	/**
+	 * Search the next section of the current chunk for flags which shouldn't be there.
+	 * Chunks which have been unloaded since the search began are skipped.
+	 */
+	private static void searchSection() {
+		
+		WorldServer world = DimensionManager.getWorld(chunkDimensions[nextChunk]);
+		long key = chunkKeys[nextChunk];
+		Chunk chunk = world == null ? null : world.getChunkProvider()
+				.getLoadedChunk(ChunkKeys.getX(key), ChunkKeys.getZ(key));
+		ExtendedBlockStorage[] sections = chunk == null ? null : chunk.getBlockStorageArray();
+		
+		if(sections == null || nextSection >= sections.length) {
+			nextChunk++;
+			nextSection = 0;
+			return;
+		}
+		ExtendedBlockStorage section = sections[nextSection++];
+		if(section == Chunk.NULL_BLOCK_STORAGE || section.isEmpty()) {
+			return;
+		}
+		
+		for(int y = 0; y < 16; y++) {
+			for(int z = 0; z < 16; z++) {
+				for(int x = 0; x < 16; x++) {
+					
+					Block block = section.get(x, y, z).getBlock();
+					if(block instanceof Flag) {
+						BlockPos position = new BlockPos(chunk.x << 4 | x,
+								section.getYLocation() + y, chunk.z << 4 | z);
+						checkFlagBlock(world, position, ((Flag) block).COLOUR);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Check that a flag block found in the world is where its flag is stored as being.
+	 * Outside of an event, flag blocks are left alone, since they can only have been placed as decoration.
+	 * @param world the world containing the block.
+	 * @param position the position of the block.
+	 * @param colour the colour of the flag.
+	 */
+	private static void checkFlagBlock(World world, BlockPos position, Colour colour) {
+		
+		String name = colour.UNLOCALISED_NAME;
+		if(!getBoolean("ctf:flags_prepared")) {
+			return;
+		}
+		if(getBoolean("ctf:flag_in_world(" + name + ")") && FlagEvent.isLocal(colour)
+				&& getInteger("ctf:flag_dimension(" + name + ")") == world.provider.getDimension()) {
+			
+			//Allow for the block above or below the stored position, in case the flag is two blocks tall.
+			BlockPos stored = getPosition("ctf:flag_position(" + name + ")");
+			if(stored.getX() == position.getX() && stored.getZ() == position.getZ()
+					&& Math.abs(stored.getY() - position.getY()) <= 1) {
+				return;
+			}
+		}
+		
+		String subject = "block:" + world.provider.getDimension() + ":" + position.toLong();
+		FOUND_BLOCKS.add(subject);
+		if(report(Problem.DUPLICATE_FLAG, subject, "Found a " + colour.DISPLAY_NAME
+				+ " flag at " + position + " where there shouldn't be one.")) {
+			Flag.remove(world, position);
+		}
+	}
+	
+	/**
+	 * @param colour the colour of a flag.
+	 * @return whether the flag was carried by anyone in the most recently published state.
+	 */
+	private static boolean isCarried(Colour colour) {
+		
+		MatchState state = MatchPublisher.get();
+		for(int i = 0; state != null && i < state.getCarrierCount(); i++) {
+			if(state.getCarried(i) == colour) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @param colour the colour of a flag.
+	 * @return the name of a player carrying the flag, or null if there is none.
+	 */
+	private static String getHolder(Colour colour) {
+		
+		for(Map.Entry<String, Colour> carrier : FlagEvent.getCarriedFlags().entrySet()) {
+			if(carrier.getValue() == colour) {
+				return carrier.getKey();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Record and log a problem.
+	 * Without repairs, a problem stays until someone deals with it, so it is only recorded once until it changes.
+	 * @param problem the kind of problem.
+	 * @param subject the flag, carrier or block which has the problem.
+	 * @param message a description of the problem.
+	 * @return whether the problem should be repaired.
+	 */
+	private static boolean report(Problem problem, String subject, String message) {
+		
+		boolean repair = CTFConfig.consistency.repair;
+		if(!repair && message.equals(REPORTED.put(subject, message))) {
+			return false;
+		}
+		
+		found[problem.ordinal()]++;
+		CTF.LOGGER.warn("CTF consistency check: " + message + (repair ? " Repairing." : ""));
+		if(repair) {
+			repaired[problem.ordinal()]++;
+		}
+		return repair;
+	}
+}
@@ -8,17 +8,35 @@ import static ctf.util.Values.*;
 import static java.util.stream.Collectors.toList;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import ctf.CTFConfig;
+import ctf.ServerContext;
 import ctf.blocks.Flag;
+import ctf.blocks.FlagBase;
+import ctf.data.CarrierTelemetry;
+import ctf.data.CarrierTelemetry.Outcome;
+import ctf.data.MatchJournal;
+import ctf.data.MatchJournal.Type;
+import ctf.data.MatchState;
+import ctf.data.PlayerStats;
+import ctf.data.PlayerStats.Stat;
+import ctf.data.ScoreHistory;
+import ctf.data.Snapshots;
+import ctf.metrics.Metrics;
+import ctf.shared.StateBackend;
+import ctf.util.BulkBlockWriter;
+import ctf.util.CaptureMatrix;
 import ctf.util.Colour;
-import ctf.util.Messenger;
+import ctf.util.StructureWriter;
 import ctf.util.Values;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.scoreboard.Team;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
-import net.minecraft.world.WorldServer;
 import net.minecraftforge.common.DimensionManager;
 import net.minecraftforge.event.entity.living.LivingDeathEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
@@ -30,6 +48,22 @@ import net.minecraftforge.fml.common.gameevent.PlayerEvent;
  */
 public class FlagEvent {
 	
+	/** The outcome of a player interacting with a flag. */
+	public enum Result {
+		
+		/** The player clicked too soon after their last interaction, so nothing happened. */
+		IGNORED,
+		
+		/** The player wasn't allowed to do anything, and has been told why. */
+		REJECTED,
+		
+		/** The player picked up an enemy flag. */
+		PICKED_UP,
+		
+		/** The player captured the flag they were carrying. */
+		CAPTURED
+	}
+	
 	/** The maximum number of captures per flag per team per flag event. */
 	private static final int MAX_CAPTURES = 2;
 	
@@ -48,25 +82,51 @@ public class FlagEvent {
 	/** The maximum radius with which flags are distributed around the centre. */
 	private static final int MAX_RADIUS = 500;
 	
+	/** The channel on which another server is asked to place a flag at its home. */
+	private static final String RETURN_CHANNEL = "ctf:return";
+	
+	/** The channel on which another server is asked to remove a flag. */
+	private static final String REMOVE_CHANNEL = "ctf:remove";
+	
+	/** The channel on which the other servers are told that the event has been prepared or stopped. */
+	private static final String STAGE_CHANNEL = "ctf:stage";
+	
+	/** All colours, indexed by ordinal. */
+	private static final Colour[] COLOURS = Colour.values();
+	
+	/** The flag carried by each player carrying one, by name, as held in the values. */
+	private static final Map<String, Colour> CARRIERS = new LinkedHashMap<>();
+	
+	/** Whether the carriers have been read from the values since they were last cleared. */
+	private static boolean carriersLoaded = false;
+	
+	/** The remote change count when the carriers were last read, so that changes by other servers are picked up. */
+	private static int carriersRemoteCount = 0;
+	
 	/**
 	 * Prepare for a new flags event. Spawns the flags and tells each team where their flag is.
 	 * Intended for use under the '/f purge' command.
 	 */
 	public static void prepare() {
 		
+		//Each event is numbered, so that it can be journaled separately.
+		MatchJournal.close();
+		increment("ctf:event_id", 1);
+		MatchJournal.record(Type.PREPARE);
+		ScoreHistory.reset();
+		
+		//Take down any bases left by an earlier event, before building new ones.
+		StructureWriter.restore();
+		
 		//Place the flags in the world.
 		spawnFlags();
 		
-		for(Team team : getTeams()) {
-			
-			//Inform each team of the location of their own flag.
-			Colour teamColour = fromFormatter(team.getColor());
-			BlockPos pos = getPosition("ctf:flag_position(" + teamColour.UNLOCALISED_NAME + ")");
-			tellTeam(team, "Your flag has been deployed at " + posStr(pos) + ".");
-		}
-		//Register and announce the flags as having been prepared.
+		//Register and announce the flags as having been prepared, on every server.
 		setBoolean("ctf:flags_prepared", true);
+		MatchTimers.scheduleStart();
+		tellPositions();
 		announce("Capture the Flag will begin soon.");
+		ServerContext.get().getBackend().publish(STAGE_CHANNEL, "prepare");
 	}
 	
 	/**
@@ -75,6 +135,11 @@ public class FlagEvent {
 	 */
 	public static void start() {
 		
+		//Register and announce the flags event as being active, on every server.
+		setBoolean("ctf:flags_active", true);
+		MatchJournal.record(Type.START);
+		MatchTimers.scheduleStop();
+		
 		for(Team team : getTeams()) {
 			
 			//Inform everyone of the position of each flag.
@@ -83,8 +148,6 @@ public class FlagEvent {
 			announce("The &" + teamColour.DISPLAY_NAME + " Flag& has been discovered at "
 					+ posStr(pos) + ".", teamColour);
 		}
-		//Register and announce the flags event as being active.
-		setBoolean("ctf:flags_active", true);
 		announce("Capture the Flag has begun.");
 	}
 	
@@ -94,25 +157,81 @@ public class FlagEvent {
 	 */
 	public static void stop() {
 		
+		//Keep a snapshot of the final state, in case the event was ended by mistake.
+		Snapshots.save();
+		
+		//Record the final scores, and save the history of the event for later review.
+		ScoreHistory.sample();
+		ScoreHistory.dump();
+		
 		//Remove all flags from the game.
-		removeFlags();
+		BulkBlockWriter writer = new BulkBlockWriter();
+		removeFlags(writer);
+		writer.flush();
 		
-		//Reset the capture counts for the next purge.
-		for(Team team1 : getTeams()) {
-			for(Team team2 : getTeams()) {
-				if(!team1.isSameTeam(team2)) {
-					
-					String colour1 = fromFormatter(team1.getColor()).UNLOCALISED_NAME;
-					String colour2 = fromFormatter(team2.getColor()).UNLOCALISED_NAME;
-					Values.setInteger("ctf:num_captures(" + colour1 + "," + colour2 + ")", 0);
-				}
-			}
-		}
+		//Take down the bases over the next few ticks, putting back whatever they replaced.
+		StructureWriter.restore();
 		
-		//Register and announce the flags event as having ended.
+		//Reset the capture counts and timers for the next purge.
+		CaptureMatrix.reset();
+		
+		//Register and announce the flags event as having ended, on every server.
 		setBoolean("ctf:flags_prepared", false);
 		setBoolean("ctf:flags_active", false);
+		MatchJournal.record(Type.STOP);
+		MatchJournal.close();
+		finish();
 		announce("Capture the Flag has ended.");
+		ServerContext.get().getBackend().publish(STAGE_CHANNEL, "stop");
+	}
+	
+	/**
+	 * Tell each team on this server where their flag is.
+	 */
+	private static void tellPositions() {
+		
+		for(Team team : getTeams()) {
+			
+			//Inform each team of the location of their own flag.
+			Colour teamColour = fromFormatter(team.getColor());
+			BlockPos pos = getPosition("ctf:flag_position(" + teamColour.UNLOCALISED_NAME + ")");
+			tellTeam(team, "Your flag has been deployed at " + posStr(pos) + ".");
+		}
+	}
+	
+	/**
+	 * End everything of the event belonging to this server.
+	 */
+	private static void finish() {
+		
+		MatchTimers.clear();
+		PlayerStats.endCarries();
+		CarrierTelemetry.endAll();
+	}
+	
+	/**
+	 * Follow another server sharing the event which has prepared or stopped the event.
+	 * The values have already been changed by that server, and its announcements arrive on their own,
+	 * so only this server's part remains.
+	 * @param stage the stage which the event has reached.
+	 */
+	private static void onStageChange(String stage) {
+		
+		switch(stage) {
+			case "prepare":
+				tellPositions();
+				break;
+			case "stop":
+				finish();
+				break;
+		}
+	}
+	
+	/**
+	 * @return the number of the current (or most recent) flag event.
+	 */
+	public static int getEventId() {
+		return getInteger("ctf:event_id");
 	}
 	
 	/**
@@ -124,6 +243,7 @@ public class FlagEvent {
 		
 		World world = DimensionManager.getWorld(0);
 		BlockPos spawn = world.getSpawnPoint();
+		BulkBlockWriter writer = new BulkBlockWriter();
 		
 		//Get all the team colours.
 		List<Colour> orderedTeams = getTeams().stream().map(t ->
@@ -150,37 +270,47 @@ public class FlagEvent {
 			int z = (int) (radius * Math.sin(angle)) + zc;
 			
 			//Place the flag in the world.
-			spawnFlag(world, team, x, z);
+			spawnFlag(writer, world, team, x, z);
 			
 			//Increment the angle for spawning the next flag.
 			angle += 2.0F * (float) Math.PI / teams.size();
 		}
+		
+		//Send all the flags to players at once.
+		writer.flush();
+		setInteger("ctf:home_server", CTFConfig.shared.serverId);
 	}
 	
 	/**
 	 * Spawns the given colour flag in the given world at the given x, z position.
+	 * @param writer the writer with which to place the flag.
 	 * @param world the world in which to spawn the flag.
 	 * @param colour the colour of flag to spawn.
 	 * @param x the preferred x position at which to place the flag.
 	 * @param z the preferred z position at which to place the flag.
 	 */
-	private static void spawnFlag(World world, Colour colour, int x, int z) {
+	private static void spawnFlag(BulkBlockWriter writer, World world, Colour colour, int x, int z) {
 		
 		//Place the flag in the world.
-		BlockPos pos = Flag.add(world, new BlockPos(x, 255, z), colour);
+		BlockPos pos = Flag.add(writer, world, new BlockPos(x, 255, z), colour);
+		
+		//Build the base under the flag over the next few ticks.
+		if(CTFConfig.bases.enabled) {
+			FlagBase.build(world, pos, colour);
+		}
 		
 		//Register the flag as having been placed where it is.
 		setPosition("ctf:flag_home(" + colour.UNLOCALISED_NAME + ")", pos);
-		setPosition("ctf:flag_position(" + colour.UNLOCALISED_NAME + ")", pos);
-		setInteger("ctf:flag_dimension(" + colour.UNLOCALISED_NAME + ")", 0);
-		setBoolean("ctf:flag_in_world(" + colour.UNLOCALISED_NAME + ")", true);
+		setLocation(colour, CTFConfig.shared.serverId, 0, pos, true);
+		MatchJournal.record(Type.SPAWN, colour, 0, pos);
 	}
 	
 	/**
 	 * Remove all flags from the world and players.
 	 * For use after a purge has ended.
+	 * @param writer the writer with which to remove the flags.
 	 */
-	private static void removeFlags() {
+	private static void removeFlags(BulkBlockWriter writer) {
 		
 		//Remove all flags from the world.
 		for(Team team : getTeams()) {
@@ -190,47 +320,426 @@ public class FlagEvent {
 			//If this colour flag is placed in the world.
 			if(getBoolean("ctf:flag_in_world(" + colour.UNLOCALISED_NAME + ")")) {
 				
-				//Remove the flag from the world.
-				BlockPos position = getPosition("ctf:flag_position(" + colour.UNLOCALISED_NAME + ")");
-				int dimension = getInteger("ctf:flag_dimension(" + colour.UNLOCALISED_NAME + ")");
-				Flag.remove(DimensionManager.getWorld(dimension), position);
+				//Remove the flag from the world, without loading its chunk.
+				removeFromWorld(writer, colour);
 				setBoolean("ctf:flag_in_world(" + colour.UNLOCALISED_NAME + ")", false);
+				ProximityCaptures.removeFlag(colour);
+				ProtectionZones.invalidate();
 			}
 		}
 		
-		//Remove all flags from players.
-		World world = DimensionManager.getWorld(0);
-		for(EntityPlayer player : world.getPlayers(EntityPlayer.class, p -> true)) {
-			Values.setBoolean("ctf:has_flag(" + player.getName() + ")", false);
+		//Remove all flags from players, including those who are offline.
+		for(String player : getCarriers()) {
+			setCarried(player, null);
 		}
 	}
 	
+	/**
+	 * Returns the number of enemy flags which a team can still capture this event.
+	 * @param colour the colour of the team.
+	 * @return the number of flags not yet captured the maximum number of times.
+	 */
+	public static int getCapturableFlags(Colour colour) {
+		return CaptureMatrix.getRemaining(colour, getColours(), MAX_CAPTURES);
+	}
+	
+	/**
+	 * @return the names of all players who are currently carrying a flag.
+	 */
+	public static List<String> getCarriers() {
+		return new ArrayList<>(getCarriedFlags().keySet());
+	}
+	
+	/**
+	 * The flag carried by each player carrying one. Kept up to date as flags are picked up and let go,
+	 * so that it can be read every tick without scanning the scoreboard.
+	 * @return the colour of each carried flag, by the name of its carrier, in no particular order.
+	 */
+	public static Map<String, Colour> getCarriedFlags() {
+		
+		if(!carriersLoaded || carriersRemoteCount != getRemoteCount()) {
+			loadCarriers();
+		}
+		return Collections.unmodifiableMap(CARRIERS);
+	}
+	
+	/**
+	 * Set the flag carried by a player, both in the values and among the known carriers.
+	 * The player is recorded as carrying it on this server, which is where they must be to pick it up.
+	 * @param player the name of the player.
+	 * @param colour the colour of the flag they now carry, or null if they no longer carry one.
+	 */
+	public static void setCarried(String player, Colour colour) {
+		
+		if(!carriersLoaded || carriersRemoteCount != getRemoteCount()) {
+			loadCarriers();
+		}
+		if(colour != null) {
+			setEnum("ctf:held_flag(" + player + ")", colour);
+			setInteger("ctf:carrier_server(" + player + ")", CTFConfig.shared.serverId);
+			setBoolean("ctf:has_flag(" + player + ")", true);
+			CARRIERS.put(player, colour);
+		} else {
+			setBoolean("ctf:has_flag(" + player + ")", false);
+			CARRIERS.remove(player);
+		}
+	}
+	
+	/**
+	 * Forget the known carriers, so that they're read again from the values. Called when the server stops.
+	 */
+	public static void clear() {
+		CARRIERS.clear();
+		carriersLoaded = false;
+	}
+	
+	/**
+	 * Read the carriers from the values. Only done once, and again whenever another server changes the values.
+	 */
+	private static void loadCarriers() {
+		
+		CARRIERS.clear();
+		for(String name : getNames("ctf:has_flag(")) {
+			if(getBoolean(name)) {
+				String player = name.substring("ctf:has_flag(".length(), name.length() - 1);
+				CARRIERS.put(player, getEnum("ctf:held_flag(" + player + ")", Colour.class));
+			}
+		}
+		carriersLoaded = true;
+		carriersRemoteCount = getRemoteCount();
+	}
+	
+	/**
+	 * @param player a player.
+	 * @return the colour of the flag carried by the player, or null if they aren't carrying one.
+	 */
+	public static Colour getCarried(EntityPlayer player) {
+		return getCarriedFlags().get(player.getName());
+	}
+	
+	/**
+	 * @param colour the colour of a flag.
+	 * @return whether the flag is in a world of this server, rather than another server sharing the event.
+	 */
+	public static boolean isLocal(Colour colour) {
+		return getInteger("ctf:flag_server(" + colour.UNLOCALISED_NAME + ")") == CTFConfig.shared.serverId;
+	}
+	
+	/**
+	 * @param player the name of a player carrying a flag.
+	 * @return whether the player is carrying the flag on this server, rather than another server sharing the event.
+	 */
+	public static boolean isLocalCarrier(String player) {
+		return getInteger("ctf:carrier_server(" + player + ")") == CTFConfig.shared.serverId;
+	}
+	
+	/**
+	 * Listen for requests from other servers sharing the event to place or remove flags on this server.
+	 * @param backend the backend through which the servers share the event.
+	 */
+	public static void subscribe(StateBackend backend) {
+		backend.subscribe(RETURN_CHANNEL, FlagEvent::onReturnRequest);
+		backend.subscribe(REMOVE_CHANNEL, FlagEvent::onRemoveRequest);
+		backend.subscribe(STAGE_CHANNEL, FlagEvent::onStageChange);
+	}
+	
+	/**
+	 * Register a flag as having been placed in the world.
+	 * @param colour the colour of the flag.
+	 * @param server the server on which the flag was placed.
+	 * @param dimension the dimension containing the flag.
+	 * @param position the position of the flag.
+	 * @param home whether the flag is at its home position.
+	 */
+	private static void setLocation(Colour colour, int server, int dimension, BlockPos position, boolean home) {
+		
+		String name = colour.UNLOCALISED_NAME;
+		setPosition("ctf:flag_position(" + name + ")", position);
+		setInteger("ctf:flag_dimension(" + name + ")", dimension);
+		setInteger("ctf:flag_server(" + name + ")", server);
+		setBoolean("ctf:flag_in_world(" + name + ")", true);
+		
+		//Only flags on this server can be walked up to here.
+		if(server == CTFConfig.shared.serverId) {
+			ProximityCaptures.placeFlag(colour, dimension, position, home);
+		} else {
+			ProximityCaptures.removeFlag(colour);
+		}
+		ProtectionZones.invalidate();
+	}
+	
+	/**
+	 * Remove a flag from wherever it is stored as being, without loading its chunk.
+	 * If the flag is on another server, that server is asked to remove it.
+	 * @param writer the writer with which to remove the flag, if it is on this server.
+	 * @param colour the colour of the flag.
+	 */
+	private static void removeFromWorld(BulkBlockWriter writer, Colour colour) {
+		
+		String name = colour.UNLOCALISED_NAME;
+		int dimension = getInteger("ctf:flag_dimension(" + name + ")");
+		BlockPos position = getPosition("ctf:flag_position(" + name + ")");
+		
+		if(isLocal(colour)) {
+			PendingRemovals.remove(writer, dimension, position);
+		} else {
+			ServerContext.get().getBackend().publish(REMOVE_CHANNEL, getInteger("ctf:flag_server(" + name + ")")
+					+ " " + dimension + " " + position.toLong());
+		}
+	}
+	
+	/**
+	 * Place a flag at its home position. If the flag homes are on another server, that server is asked
+	 * to place the flag, which is taken to be exactly at its home position.
+	 * @param writer the writer with which to place the flag, if the homes are on this server.
+	 * @param colour the colour of the flag.
+	 * @return the position at which the flag was placed.
+	 */
+	private static BlockPos placeHome(BulkBlockWriter writer, Colour colour) {
+		
+		BlockPos home = getPosition("ctf:flag_home(" + colour.UNLOCALISED_NAME + ")");
+		int server = getInteger("ctf:home_server");
+		
+		if(server == CTFConfig.shared.serverId) {
+			return Flag.add(writer, DimensionManager.getWorld(0), home, colour);
+		}
+		ServerContext.get().getBackend().publish(RETURN_CHANNEL, server + " " + colour.ordinal());
+		return home;
+	}
+	
+	/**
+	 * Place a flag at its home position, as asked by another server sharing the event.
+	 * The other server has already registered the flag as being at home.
+	 * @param request the server which should place the flag, and the ordinal of its colour.
+	 */
+	private static void onReturnRequest(String request) {
+		
+		String[] parts = request.split(" ");
+		if(Integer.parseInt(parts[0]) != CTFConfig.shared.serverId) {
+			return;
+		}
+		Colour colour = COLOURS[Integer.parseInt(parts[1])];
+		String name = colour.UNLOCALISED_NAME;
+		
+		BulkBlockWriter writer = new BulkBlockWriter();
+		BlockPos position = Flag.add(writer, DimensionManager.getWorld(0),
+				getPosition("ctf:flag_home(" + name + ")"), colour);
+		writer.flush();
+		
+		//The flag may not fit exactly at home, if something has been built there since.
+		if(!position.equals(getPosition("ctf:flag_position(" + name + ")"))) {
+			setPosition("ctf:flag_position(" + name + ")", position);
+		}
+		ProximityCaptures.placeFlag(colour, 0, position, true);
+		ProtectionZones.invalidate();
+	}
+	
+	/**
+	 * Remove a flag from this server, as asked by another server sharing the event.
+	 * @param request the server which should remove the flag, and the dimension and position of the flag.
+	 */
+	private static void onRemoveRequest(String request) {
+		
+		String[] parts = request.split(" ");
+		if(Integer.parseInt(parts[0]) != CTFConfig.shared.serverId) {
+			return;
+		}
+		BulkBlockWriter writer = new BulkBlockWriter();
+		PendingRemovals.remove(writer, Integer.parseInt(parts[1]), BlockPos.fromLong(Long.parseLong(parts[2])));
+		writer.flush();
+	}
+	
+	/**
+	 * Return a flag which has been left lying in the world to its home position.
+	 * Called when a dropped flag hasn't been picked up for too long.
+	 * @param colour the colour of the flag.
+	 */
+	public static void returnFlag(Colour colour) {
+		
+		String name = colour.UNLOCALISED_NAME;
+		if(!getBoolean("ctf:flags_prepared") || !getBoolean("ctf:flag_in_world(" + name + ")")) {
+			return;
+		}
+		
+		//Remove the flag from where it was dropped, without loading its chunk.
+		BulkBlockWriter writer = new BulkBlockWriter();
+		removeFromWorld(writer, colour);
+		
+		//Place the flag back at its home position.
+		BlockPos position = placeHome(writer, colour);
+		writer.flush();
+		setLocation(colour, getInteger("ctf:home_server"), 0, position, true);
+		MatchTimers.cancelReturn(colour);
+		MatchJournal.record(Type.RETURN, colour, 0, position);
+		Metrics.RETURNS.increment();
+		
+		announce("The &" + colour.DISPLAY_NAME + " Flag& has been returned to &"
+				+ posStr(position) + "&.", colour, CYAN);
+	}
+	
+	/**
+	 * Remove a flag from the world without returning it home.
+	 * Used when a flag is found to be both in the world and carried by a player.
+	 * @param colour the colour of the flag.
+	 */
+	public static void takeFromWorld(Colour colour) {
+		
+		BulkBlockWriter writer = new BulkBlockWriter();
+		removeFromWorld(writer, colour);
+		writer.flush();
+		
+		setBoolean("ctf:flag_in_world(" + colour.UNLOCALISED_NAME + ")", false);
+		ProximityCaptures.removeFlag(colour);
+		ProtectionZones.invalidate();
+		MatchTimers.cancelReturn(colour);
+	}
+	
+	/**
+	 * Restore the event to a previously saved state.
+	 * Removes the current flags and places each flag back where it was.
+	 * Intended for use under the '/ctf rollback' command.
+	 * @param state the state to restore.
+	 */
+	public static void restore(MatchState state) {
+		
+		//Remove all current flags from the game, and place the restored ones, all at once.
+		BulkBlockWriter writer = new BulkBlockWriter();
+		removeFlags(writer);
+		MatchTimers.clear();
+		
+		//The current carriers lose their flags, so stop timing and tracking them.
+		PlayerStats.endCarries();
+		CarrierTelemetry.endAll();
+		
+		//Restore the phase of the event. Every flag is restored to this server.
+		MatchJournal.close();
+		setInteger("ctf:home_server", CTFConfig.shared.serverId);
+		setInteger("ctf:event_id", state.getEventId());
+		setBoolean("ctf:flags_prepared", state.isPrepared());
+		setBoolean("ctf:flags_active", state.isActive());
+		MatchJournal.record(Type.RESTORE);
+		if(state.isPrepared()) {
+			MatchJournal.record(Type.PREPARE);
+		}
+		if(state.isActive()) {
+			MatchJournal.record(Type.START);
+		}
+		
+		for(Team team : getTeams()) {
+			
+			Colour colour = fromFormatter(team.getColor());
+			if(!state.hasTeam(colour)) {
+				continue;
+			}
+			String name = colour.UNLOCALISED_NAME;
+			
+			//Restore the score and flag home of the team.
+			setPoints(team, state.getScore(colour));
+			setPosition("ctf:flag_home(" + name + ")", state.getHome(colour));
+			
+			//Place the flag back exactly where it was, without loading its dimension or chunk.
+			if(state.isInWorld(colour)) {
+				
+				int dimension = state.getDimension(colour);
+				BlockPos position = state.getPosition(colour);
+				PendingRemovals.place(writer, dimension, position, colour);
+				
+				//Flags left lying away from home will return by themselves.
+				boolean home = dimension == 0 && position.equals(state.getHome(colour));
+				setLocation(colour, CTFConfig.shared.serverId, dimension, position, home);
+				MatchJournal.record(Type.RETURN, colour, dimension, position);
+				if(!home) {
+					MatchTimers.scheduleReturn(colour);
+				}
+			}
+			
+			//Restore the number of times this team has captured each flag.
+			for(Team other : getTeams()) {
+				
+				Colour otherColour = fromFormatter(other.getColor());
+				if(otherColour != colour && state.hasTeam(otherColour)) {
+					
+					int captures = state.getCaptures(colour, otherColour);
+					CaptureMatrix.set(colour, otherColour, captures);
+					MatchJournal.record(Type.CAPTURE, otherColour, colour, null, 0, null, captures);
+				}
+			}
+		}
+		writer.flush();
+		
+		//Give flags back to the players who were carrying them.
+		for(int i = 0; i < state.getCarrierCount(); i++) {
+			setCarried(state.getCarrier(i), state.getCarried(i));
+		}
+		announce("Capture the Flag has been rolled back.");
+	}
+	
 	/**
 	 * Called by Flag on the server when the flag is left or right clicked.
 	 * @param flagColour the colour of the flag.
 	 * @param player the player who clicked it.
 	 * @param world the world in which the flag exists.
 	 * @param position the position of the flag in the world.
+	 * @return the outcome of the interaction.
 	 */
-	public static void interact(Colour flagColour, EntityPlayer player,
+	public static Result interact(Colour flagColour, EntityPlayer player,
 			World world, BlockPos position) {
+		
+		//Ignore players who are clicking too quickly, before doing any other work.
+		if(!InteractionLimiter.tryInteract(player)) {
+			return Result.IGNORED;
+		}
+		Metrics.INTERACTIONS.increment();
+		long startTime = System.nanoTime();
 	    
 	    //Ensure the player is on a team.
         if(player.getTeam() == null) {
-            tellPlayer(player, "You must join a team to participate.");
+            return reject(player, "You must join a team to participate.");
         }
 		
 		Team flagTeam = getTeam(flagColour);
 		Team playerTeam = player.getTeam();
 		Colour playerColour = fromFormatter(playerTeam.getColor());
+		Result result;
 		    
 		//When a player interacts with an enemy flag.
 		if(flagColour != playerColour) {
-			interactEnemy(flagColour, flagTeam, player, playerColour, playerTeam, world, position);
+			result = interactEnemy(flagColour, flagTeam, player, playerColour, playerTeam, world, position);
 		
 		//When a player interacts with a friendly flag.
 		} else {
-			interactFriendly(flagColour, flagTeam, player, world, position);
+			result = interactFriendly(flagColour, flagTeam, player, world, position);
+		}
+		Metrics.INTERACTION_SECONDS.observe((System.nanoTime() - startTime) / 1.0E9);
+		return result;
+	}
+	
+	/**
+	 * Called by ProximityCaptures when a player comes near a flag of their own team.
+	 * Players carrying an enemy flag capture it, and other players return the flag if it has been dropped.
+	 * @param colour the colour of the player and flag.
+	 * @param player the player near the flag.
+	 * @param world the world in which the flag exists.
+	 * @param position the position of the flag in the world.
+	 * @param home whether the flag is at its home position.
+	 */
+	public static void approach(Colour colour, EntityPlayer player,
+			World world, BlockPos position, boolean home) {
+		
+		//Players standing near a flag are treated as clicking it repeatedly, but only when there is something to do,
+		//so that defenders standing by their flag at home don't use up their interactions.
+		boolean carrying = getBoolean("ctf:has_flag(" + player.getName() + ")");
+		if(!carrying && home || !InteractionLimiter.tryInteract(player)) {
+			return;
+		}
+		
+		//Capture an enemy flag.
+		if(carrying) {
+			interactFriendly(colour, player.getTeam(), player, world, position);
+			
+		//Return a dropped flag home.
+		} else {
+			returnFlag(colour);
 		}
 	}
 	
@@ -243,30 +752,48 @@ public class FlagEvent {
 	 * @param playerTeam the team of the player.
 	 * @param world the world in which the flag exists.
 	 * @param position the position of the flag in the world.
+	 * @return the outcome of the interaction.
 	 */
 	@SuppressWarnings("unused")
-    private static void interactEnemy(Colour flagColour, Team flagTeam, EntityPlayer player,
+    private static Result interactEnemy(Colour flagColour, Team flagTeam, EntityPlayer player,
 			Colour playerColour, Team playerTeam, World world, BlockPos position) {
 		
 		//Flags can't be captured when no flag event is active.
 		if(!getBoolean("ctf:flags_active")) {
-			tellPlayer(player, "You can't pick up any flags before the event starts.");
+			return reject(player, "You can't pick up any flags before the event starts.");
 			
 		//Each player can only carry one flag at a time.
 		} else if(getBoolean("ctf:has_flag(" + player.getName() + ")")) {
-			tellPlayer(player, "You can't carry multiple flags at once.");
+			return reject(player, "You can't carry multiple flags at once.");
 		
 		//Each team can only capture each other flag a limited number of times.
-		} else if(getInteger("ctf:num_captures(" + playerColour.UNLOCALISED_NAME + ","
-				+ flagColour.UNLOCALISED_NAME + ")") >= MAX_CAPTURES) {
+		} else if(CaptureMatrix.get(playerColour, flagColour) >= MAX_CAPTURES) {
 			
-			tellPlayer(player, "Your team can't capture the same flag more than "
+			return reject(player, "Your team can't capture the same flag more than "
 					+ MAX_CAPTURES + (MAX_CAPTURES == 1 ? " time." : " times."));
 		
+		//Only one player can take the flag, even if players on several servers try at once.
+		} else if(!claim("ctf:flag_in_world(" + flagColour.UNLOCALISED_NAME + ")", 1, 0)) {
+			return reject(player, "Someone else has already taken this flag.");
+			
 		//Pick up the enemy flag.
 		} else {
 			pickUp(flagColour, flagTeam, player, playerColour, playerTeam, world, position);
+			return Result.PICKED_UP;
+		}
+	}
+	
+	/**
+	 * Tell a player why their interaction failed, unless they have been told too recently.
+	 * @param player the player whose interaction failed.
+	 * @param message the reason for the failure.
+	 * @return the outcome of the interaction, which is always REJECTED.
+	 */
+	private static Result reject(EntityPlayer player, String message) {
+		if(InteractionLimiter.tryReject(player)) {
+			tellPlayer(player, message);
 		}
+		return Result.REJECTED;
 	}
 	
 	/**
@@ -283,9 +810,16 @@ public class FlagEvent {
 			Colour playerColour, Team playerTeam, World world, BlockPos position) {
 		
 		//Register the flag as having been picked up by the player.
-		setEnum("ctf:held_flag(" + player.getName() + ")", flagColour);
-		setBoolean("ctf:has_flag(" + player.getName() + ")", true);
+		setCarried(player.getName(), flagColour);
 		setBoolean("ctf:flag_in_world(" + flagColour.UNLOCALISED_NAME + ")", false);
+		ProximityCaptures.removeFlag(flagColour);
+		ProtectionZones.invalidate();
+		MatchTimers.cancelReturn(flagColour);
+		PlayerStats.pickUp(player);
+		CarrierTelemetry.start(player, flagColour, playerColour);
+		Metrics.PICKUPS.increment();
+		MatchJournal.record(Type.PICKUP, flagColour, playerColour, player,
+				player.dimension, position, 0);
 		
 		//Remove the flag from the world.
 		Flag.remove(world, position);
@@ -302,17 +836,22 @@ public class FlagEvent {
 	 * @param player the player who interacts with the flag.
 	 * @param world the world in which the flag exists.
 	 * @param position the position of the flag in the world.
+	 * @return the outcome of the interaction.
 	 */
-	private static void interactFriendly(Colour colour, Team team,
+	private static Result interactFriendly(Colour colour, Team team,
 			EntityPlayer player, World world, BlockPos position) {
 		
 		//Players must already be carrying an enemy flag to capture a flag.
 		if(!getBoolean("ctf:has_flag(" + player.getName() + ")")) {
-			tellPlayer(player, "You can't pick up your own flag.");
+			return reject(player, "You can't pick up your own flag.");
 			
 		//Flags can't be captured when no event is active.
 		} else if(!getBoolean("ctf:flags_active")) {
-			tellPlayer(player, "You can't capture any flags after the event has ended.");
+			return reject(player, "You can't capture any flags after the event has ended.");
+			
+		//Each team must wait a short time between captures.
+		} else if(MatchTimers.isOnCooldown(colour)) {
+			return reject(player, "Your team must wait before capturing another flag.");
 			
 		//Capture an enemy flag.
 		} else {
@@ -323,6 +862,7 @@ public class FlagEvent {
 			
 			//Have the player capture the given flag.
 			capture(colour, team, player, capturedColour, capturedTeam, world, position);
+			return Result.CAPTURED;
 		}
 	}
 	
@@ -339,21 +879,25 @@ public class FlagEvent {
 	private static void capture(Colour colour, Team team, EntityPlayer player,
 			Colour capturedColour, Team capturedTeam, World world, BlockPos position) {
 		
-		//Get the home position of the captured flag.
-		BlockPos capturedHome = getPosition("ctf:flag_home(" + capturedColour.UNLOCALISED_NAME + ")");
-		
 		//Return the captured flag to its original position.
-		BlockPos returnPos = Flag.add(world, capturedHome, capturedColour);
+		BulkBlockWriter writer = new BulkBlockWriter();
+		BlockPos returnPos = placeHome(writer, capturedColour);
+		writer.flush();
 		
 		//Register the flag as having been returned to its original position.
-		setBoolean("ctf:has_flag(" + player.getName() + ")", false);
-		setBoolean("ctf:flag_in_world(" + capturedColour.UNLOCALISED_NAME + ")", true);
-		setPosition("ctf:flag_position(" + capturedColour.UNLOCALISED_NAME + ")", returnPos);
-		setInteger("ctf:flag_dimension(" + capturedColour.UNLOCALISED_NAME + ")", 0);
+		setCarried(player.getName(), null);
+		setLocation(capturedColour, getInteger("ctf:home_server"), 0, returnPos, true);
 		
 		//Get the number of times this team has captured this particular flag, increasing it by 1.
-		int captures = increment("ctf:num_captures(" + colour.UNLOCALISED_NAME
-				+ "," + capturedColour.UNLOCALISED_NAME + ")", 1);
+		int captures = CaptureMatrix.increment(colour, capturedColour);
+		MatchTimers.startCooldown(colour);
+		PlayerStats.letGo(player, Stat.CAPTURES);
+		CarrierTelemetry.end(player, Outcome.CAPTURE);
+		Metrics.CAPTURES.increment();
+		
+		MatchJournal.record(Type.CAPTURE, capturedColour, colour, player,
+				player.dimension, position, captures);
+		MatchJournal.record(Type.RETURN, capturedColour, 0, returnPos);
 		
 		//Announce to everyone that the flag has been captured and returned.
 		
@@ -375,6 +919,8 @@ public class FlagEvent {
 	@SubscribeEvent
 	public void onPlayerLogout(PlayerEvent.PlayerLoggedOutEvent event) {
 		dropFlag(event.player);
+		InteractionLimiter.forget(event.player);
+		RemoteInteractions.forget(event.player);
 	}
 	
 	/** Players drop their flags when they die. */
@@ -402,13 +948,17 @@ public class FlagEvent {
 			BlockPos position = Flag.add(player.getEntityWorld(), player.getPosition(), flagColour);
 			
 			//Register the flag as having been dropped.
-			setBoolean("ctf:has_flag(" + player.getName() + ")", false);
-			setBoolean("ctf:flag_in_world(" + flagColour.UNLOCALISED_NAME + ")", true);
-			setPosition("ctf:flag_position(" + flagColour.UNLOCALISED_NAME + ")", position);
-			setInteger("ctf:flag_dimension(" + flagColour.UNLOCALISED_NAME + ")", player.dimension);
+			setCarried(player.getName(), null);
+			setLocation(flagColour, CTFConfig.shared.serverId, player.dimension, position, false);
+			MatchTimers.scheduleReturn(flagColour);
+			PlayerStats.letGo(player, Stat.DROPS);
+			CarrierTelemetry.end(player, Outcome.DROP);
+			Metrics.DROPS.increment();
 			
 			//Get the team colour of the player who dropped the flag.
 			Colour playerColour = fromFormatter(player.getTeam().getColor());
+			MatchJournal.record(Type.DROP, flagColour, playerColour, player,
+					player.dimension, position, 0);
 			
 			//Announce to everyone that the flag has been dropped.
 			announce("&" + player.getName() + "& has dropped the &" + flagColour.DISPLAY_NAME + " Flag& at "
@@ -419,47 +969,6 @@ public class FlagEvent {
 	/** Players will be sent flag locations upon logging in during a purge. */
 	@SubscribeEvent
 	public void onPlayerJoin(PlayerEvent.PlayerLoggedInEvent event) {
-		
-		//Show all flag locations if the purge is active.
-		if(getBoolean("ctf:flags_active")) {
-			
-			for(Team team : getTeams()) {
-				
-				Colour colour = fromFormatter(team.getColor());
-				
-				//Show flags which exist physically in the world.
-				if(getBoolean("ctf:flag_in_world(" + colour.UNLOCALISED_NAME + ")")) {
-					
-					BlockPos position = getPosition("ctf:flag_position(" + colour.UNLOCALISED_NAME + ")");
-					int dimension = getInteger("ctf:flag_dimension(" + colour.UNLOCALISED_NAME + ")");
-					Messenger.tellPlayer(event.player, "The &" + colour.DISPLAY_NAME
-							+ " Flag& is located at " + posStr(position, dimension) + ".", colour);
-				}
-			}
-			
-			//Show flags which are currently held by a player.
-			for(WorldServer world : DimensionManager.getWorlds()) {
-				
-				//For each player holding a flag.
-				for(EntityPlayer player : world.getPlayers(EntityPlayer.class,
-						p -> getBoolean("ctf:has_flag(" + p.getName() + ")"))) {
-					
-					Colour flagColour = getEnum("ctf:held_flag(" + player + ")", Colour.class);
-					Colour playerColour = fromFormatter(player.getTeam().getColor());
-					
-					//Show the player's position and held flag.
-					Messenger.tellPlayer(event.player, "The &" + flagColour.UNLOCALISED_NAME
-							+ " Flag& is held by &" + player + "& at " + posStr(
-							player.getPosition(), player.dimension) + ".", flagColour, playerColour);
-				}
-			}
-			
-		//Show only the location of the player's own flag if the purge is in preparation.
-		} else if(getBoolean("ctf:flags_prepared") && event.player.getTeam() != null) {
-			
-			Colour colour = fromFormatter(event.player.getTeam().getColor());
-			BlockPos position = getPosition("ctf:flag_position(" + colour.UNLOCALISED_NAME + ")");
-			Messenger.tellPlayer(event.player, "Your flag is located at " + posStr(position) + ".");
-		}
+		JoinDigest.send(event.player);
 	}
 }
\ No newline at end of file
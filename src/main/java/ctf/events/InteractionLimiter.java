@@ -0,0 +1,80 @@
+package ctf.events;
+
+import ctf.CTFConfig;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import net.minecraft.entity.player.EntityPlayer;
+
+/**
+ * Limits how often each player may interact with flags, and how often they are told why an
+ * interaction failed. Holding left-click on a flag triggers an interaction every few ticks,
+ * so repeated clicks are ignored before any of the event state is looked up.
+ * Players are identified by entity ID, and the tick of their last interaction is kept in a primitive map.
+ * @author Alec Dorrington
+ */
+public class InteractionLimiter {
+	
+	/** The tick on which each player (by entity ID) last interacted with a flag. */
+	private static final Int2LongOpenHashMap LAST_INTERACTION = new Int2LongOpenHashMap();
+	
+	/** The tick on which each player (by entity ID) was last told why an interaction failed. */
+	private static final Int2LongOpenHashMap LAST_REJECTION = new Int2LongOpenHashMap();
+	
+	static {
+		LAST_INTERACTION.defaultReturnValue(Long.MIN_VALUE);
+		LAST_REJECTION.defaultReturnValue(Long.MIN_VALUE);
+	}
+	
+	/**
+	 * Register an interaction by a player, unless they have interacted too recently.
+	 * @param player the player interacting with a flag.
+	 * @return whether the interaction should go ahead.
+	 */
+	public static boolean tryInteract(EntityPlayer player) {
+		return tryAcquire(LAST_INTERACTION, player, CTFConfig.interaction.debounce);
+	}
+	
+	/**
+	 * Register a rejection message to a player, unless they have been sent one too recently.
+	 * @param player the player whose interaction failed.
+	 * @return whether the player should be told why.
+	 */
+	public static boolean tryReject(EntityPlayer player) {
+		return tryAcquire(LAST_REJECTION, player, CTFConfig.interaction.messageCooldown);
+	}
+	
+	/**
+	 * Forget a player, so that their entity ID may be safely reused.
+	 * @param player the player who has logged out.
+	 */
+	public static void forget(EntityPlayer player) {
+		LAST_INTERACTION.remove(player.getEntityId());
+		LAST_REJECTION.remove(player.getEntityId());
+	}
+	
+	/**
+	 * Forget all players. Called when the server stops.
+	 */
+	public static void clear() {
+		LAST_INTERACTION.clear();
+		LAST_REJECTION.clear();
+	}
+	
+	/**
+	 * @param times the tick of the last success of each player.
+	 * @param player the player.
+	 * @param cooldown the minimum number of ticks between successes.
+	 * @return whether the cooldown has passed, in which case it is restarted.
+	 */
+	private static boolean tryAcquire(Int2LongOpenHashMap times, EntityPlayer player, int cooldown) {
+		
+		long now = player.world.getTotalWorldTime();
+		long last = times.get(player.getEntityId());
+		
+		//Time may go backwards if the world is changed, so only a recent past tick counts.
+		if(last != Long.MIN_VALUE && now >= last && now - last < cooldown) {
+			return false;
+		}
+		times.put(player.getEntityId(), now);
+		return true;
+	}
+}
@@ -0,0 +1,139 @@
+package ctf.events;
+
+import static ctf.util.Messenger.*;
+
+import ctf.ServerContext;
+import ctf.data.MatchPublisher;
+import ctf.data.MatchState;
+import ctf.util.Colour;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.server.management.PlayerList;
+import net.minecraft.util.text.ITextComponent;
+import net.minecraft.util.text.TextComponentString;
+
+/**
+ * The summary of flag locations sent to each player as they join.
+ * Built once from the published match state and shared by every joining player,
+ * so that many players joining at once (such as after a restart) cost little.
+ * @author Alec Dorrington
+ */
+public class JoinDigest {
+	
+	/** The maximum age of the digest in ticks, since the positions of flag carriers change constantly. */
+	private static final int MAX_AGE = 100;
+	
+	/** All colours, indexed by ordinal. */
+	private static final Colour[] COLOURS = Colour.values();
+	
+	/** The state from which the digest was built. */
+	private static MatchState builtFrom;
+	
+	/** The world tick at which the digest was built. */
+	private static long builtTick;
+	
+	/** The locations of all flags, sent while the event is active. Null if there are none. */
+	private static ITextComponent active;
+	
+	/** The location of each team's own flag, sent to the team while the event is in preparation. */
+	private static final ITextComponent[] preparation = new ITextComponent[COLOURS.length];
+	
+	/**
+	 * Forget the digest. Called when the server stops.
+	 */
+	public static void clear() {
+		
+		builtFrom = null;
+		active = null;
+		for(int i = 0; i < preparation.length; i++) {
+			preparation[i] = null;
+		}
+	}
+	
+	/**
+	 * Send the digest to a player who has just joined.
+	 * @param player the player.
+	 */
+	public static void send(EntityPlayer player) {
+		
+		MatchState state = MatchPublisher.get();
+		if(state == null) {
+			state = MatchState.capture();
+		}
+		
+		//Only rebuild the digest if the state has changed, or the carrier positions are out of date.
+		long tick = player.world.getTotalWorldTime();
+		if(state != builtFrom || tick - builtTick >= LoadShedder.scaleInterval(MAX_AGE) || tick < builtTick) {
+			build(state);
+			builtFrom = state;
+			builtTick = tick;
+		}
+		
+		//Show all flag locations if the purge is active.
+		if(state.isActive()) {
+			if(active != null) {
+				player.sendMessage(active);
+			}
+		
+		//Show only the location of the player's own flag if the purge is in preparation.
+		} else if(state.isPrepared() && player.getTeam() != null) {
+			
+			ITextComponent digest = preparation[Colour.fromFormatter(player.getTeam().getColor()).ordinal()];
+			if(digest != null) {
+				player.sendMessage(digest);
+			}
+		}
+	}
+	
+	/**
+	 * Build the digest from a match state.
+	 * @param state the match state.
+	 */
+	private static void build(MatchState state) {
+		
+		active = null;
+		
+		for(Colour colour : COLOURS) {
+			
+			preparation[colour.ordinal()] = null;
+			
+			//Show flags which exist physically in the world.
+			if(state.hasTeam(colour) && state.isInWorld(colour)) {
+				
+				preparation[colour.ordinal()] = format("Your flag is located at "
+						+ posStr(state.getPosition(colour)) + ".");
+				
+				append(format("The &" + colour.DISPLAY_NAME + " Flag& is located at "
+						+ posStr(state.getPosition(colour), state.getDimension(colour)) + ".", colour));
+			}
+		}
+		
+		//Show flags which are currently held by a player.
+		PlayerList players = ServerContext.get().getServer().getPlayerList();
+		for(int i = 0; i < state.getCarrierCount(); i++) {
+			
+			EntityPlayer carrier = players.getPlayerByUsername(state.getCarrier(i));
+			if(carrier != null && carrier.getTeam() != null) {
+				
+				Colour flagColour = state.getCarried(i);
+				Colour playerColour = Colour.fromFormatter(carrier.getTeam().getColor());
+				append(format("The &" + flagColour.DISPLAY_NAME + " Flag& is held by &" + carrier.getName()
+						+ "& at " + posStr(carrier.getPosition(), carrier.dimension) + ".",
+						flagColour, playerColour));
+			}
+		}
+	}
+	
+	/**
+	 * Add a line to the digest shown while the event is active.
+	 * @param line the line to add.
+	 */
+	private static void append(TextComponentString line) {
+		
+		if(active == null) {
+			active = line;
+		} else {
+			active.appendText("\n");
+			active.appendSibling(line);
+		}
+	}
+}
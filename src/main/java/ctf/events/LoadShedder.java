@@ -0,0 +1,190 @@
+package ctf.events;
+
+import ctf.CTFConfig;
+import ctf.util.SampleRing;
+
+/**
+ * Scales back optional work while the server is struggling to keep up, and restores it once the server recovers.
+ * The time taken by each tick is measured, and once the average over recent ticks passes a threshold,
+ * optional work is run less often, given less time, and announcements are combined into fewer messages.
+ * The level rises as soon as a threshold is passed, but only falls once the average has stayed well
+ * below it for a while, so that the level doesn't flicker back and forth.
+ * @author Alec Dorrington
+ */
+public class LoadShedder {
+	
+	/** How much optional work is done. */
+	public enum Level {
+		
+		/** All optional work is done as configured. */
+		NORMAL("normal", 1, 1.0, 0),
+		
+		/** Optional work is done half as often, with a quarter of its time budget. */
+		REDUCED("reduced", 2, 0.25, 20),
+		
+		/** Optional work is done a quarter as often, and work with a time budget is paused. */
+		MINIMAL("minimal", 4, 0.0, 40);
+		
+		/** The name of the level, as shown by '/ctf load'. */
+		public final String NAME;
+		
+		/** The number of ticks between runs of work which would otherwise run every tick. */
+		public final int STRIDE;
+		
+		/** The fraction of its configured time budget given to optional work. */
+		public final double BUDGET;
+		
+		/** The number of ticks over which announcements are combined, or 0 if they are sent straight away. */
+		public final int COALESCE;
+		
+		Level(String name, int stride, double budget, int coalesce) {
+			NAME = name;
+			STRIDE = stride;
+			BUDGET = budget;
+			COALESCE = coalesce;
+		}
+	}
+	
+	/** The number of ticks over which the tick time is averaged. */
+	public static final int WINDOW = 100;
+	
+	/** The number of ticks measured before the level may rise. */
+	private static final int WARMUP = 20;
+	
+	/** The number of ticks the level must be held before it may fall. */
+	private static final int HOLD = 200;
+	
+	/** The durations of recent ticks, in microseconds. */
+	private static final SampleRing SAMPLES = new SampleRing(WINDOW);
+	
+	/** The sum of the samples currently held, in microseconds. */
+	private static long total = 0;
+	
+	/** The time at which the current tick began, in nanoseconds. */
+	private static long tickStart = 0;
+	
+	/** The number of ticks measured since the server started. */
+	private static long ticks = 0;
+	
+	/** The number of ticks since the level last changed. */
+	private static int held = 0;
+	
+	/** The current level. */
+	private static Level level = Level.NORMAL;
+	
+	/** The number of times the level has risen since the server started. */
+	private static int raised = 0;
+	
+	/**
+	 * Begin measuring a tick. To be called at the start of each server tick.
+	 */
+	public static void startTick() {
+		tickStart = System.nanoTime();
+	}
+	
+	/**
+	 * Finish measuring a tick, and adjust the level if necessary.
+	 * To be called at the end of each server tick, after all other work.
+	 */
+	public static void endTick() {
+		
+		if(tickStart == 0) {
+			return;
+		}
+		int duration = (int) Math.min((System.nanoTime() - tickStart) / 1000, Integer.MAX_VALUE);
+		if(SAMPLES.isFull()) {
+			total -= SAMPLES.getOldest();
+		}
+		SAMPLES.add(duration);
+		total += duration;
+		ticks++;
+		held++;
+		
+		Level target = getTarget(getMspt());
+		
+		//Rise straight away, but only fall one level at a time, once the level has been held long enough.
+		if(target.ordinal() > level.ordinal() && SAMPLES.size() >= WARMUP) {
+			level = target;
+			held = 0;
+			raised++;
+		
+		} else if(target.ordinal() < level.ordinal() && held >= HOLD && (getThreshold(level) <= 0
+				|| getMspt() < getThreshold(level) * CTFConfig.load.recovery)) {
+			level = Level.values()[level.ordinal() - 1];
+			held = 0;
+		}
+	}
+	
+	/**
+	 * Forget all measurements and restore the normal level. Called when the server stops.
+	 */
+	public static void clear() {
+		
+		SAMPLES.clear();
+		total = 0;
+		tickStart = 0;
+		ticks = 0;
+		held = 0;
+		level = Level.NORMAL;
+		raised = 0;
+	}
+	
+	/** @return the current level. */
+	public static Level getLevel() { return level; }
+	
+	/** @return the number of times the level has risen since the server started. */
+	public static int getRaised() { return raised; }
+	
+	/** @return the average milliseconds per tick over recent ticks. */
+	public static double getMspt() {
+		return SAMPLES.size() == 0 ? 0 : total / 1000.0 / SAMPLES.size();
+	}
+	
+	/**
+	 * Determine whether work which would otherwise run every tick should run during this tick.
+	 * @return whether the work should run.
+	 */
+	public static boolean isDue() {
+		return ticks % level.STRIDE == 0;
+	}
+	
+	/**
+	 * Scale a configured time budget to the current level.
+	 * @param budget the configured budget.
+	 * @return the budget to use, which is 0 if the work should be paused.
+	 */
+	public static int scaleBudget(int budget) {
+		return (int) (budget * level.BUDGET);
+	}
+	
+	/**
+	 * Scale a configured interval to the current level.
+	 * @param interval the configured interval in ticks, where 0 disables the work.
+	 * @return the interval to use.
+	 */
+	public static int scaleInterval(int interval) {
+		return interval * level.STRIDE;
+	}
+	
+	/**
+	 * @param mspt the average milliseconds per tick.
+	 * @return the level which the average calls for.
+	 */
+	private static Level getTarget(double mspt) {
+		
+		if(CTFConfig.load.minimalMspt > 0 && mspt >= CTFConfig.load.minimalMspt) {
+			return Level.MINIMAL;
+		} else if(CTFConfig.load.reducedMspt > 0 && mspt >= CTFConfig.load.reducedMspt) {
+			return Level.REDUCED;
+		}
+		return Level.NORMAL;
+	}
+	
+	/**
+	 * @param level a level above normal.
+	 * @return the average milliseconds per tick at which the level is entered, or 0 if it is disabled.
+	 */
+	private static double getThreshold(Level level) {
+		return level == Level.MINIMAL ? CTFConfig.load.minimalMspt : CTFConfig.load.reducedMspt;
+	}
+}
@@ -0,0 +1,247 @@
+package ctf.events;
+
+import static ctf.util.Values.*;
+
+import ctf.CTF;
+import ctf.ServerContext;
+import ctf.CTFConfig;
+import ctf.util.Colour;
+import ctf.util.TimingWheel;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.world.storage.WorldSavedData;
+import net.minecraftforge.common.util.Constants.NBT;
+
+/**
+ * Timed events of a flag event: automatic phase changes, returning dropped flags
+ * and capture cooldowns. All timers are driven by a single timing wheel advanced
+ * once per server tick, and are saved with the world so that they survive restarts.
+ * @author Alec Dorrington
+ */
+public class MatchTimers extends WorldSavedData {
+	
+	/** The types of timer. */
+	private enum Type { START, STOP, RETURN, COOLDOWN }
+	
+	/** All timer types, indexed by ordinal. */
+	private static final Type[] TYPES = Type.values();
+	
+	/** All colours, indexed by ordinal. */
+	private static final Colour[] COLOURS = Colour.values();
+	
+	/** The name under which the timers are saved. */
+	private static final String NAME = CTF.MODID + "_timers";
+	
+	/** The number of slots in the timing wheel. Covers several minutes per rotation. */
+	private static final int SLOTS = 4096;
+	
+	/** The number of server ticks per second. */
+	private static final int TICKS_PER_SECOND = 20;
+	
+	/** The wheel holding every pending timer. */
+	private final TimingWheel wheel = new TimingWheel(SLOTS);
+	
+	/** The generation of each flag's return timer. Incremented to cancel the timer. */
+	private final int[] returnGeneration = new int[COLOURS.length];
+	
+	/** Bit mask of the teams (by colour ordinal) which are on capture cooldown. */
+	private int cooldowns = 0;
+	
+	/** Handles each expired timer. */
+	private final TimingWheel.Handler handler = this::expire;
+	
+	/**
+	 * Constructor used by Minecraft when loading the timers from the world file.
+	 * @param name the name of the saved data.
+	 */
+	public MatchTimers(String name) {
+		super(name);
+	}
+	
+	/**
+	 * Advance all timers by one tick. To be called once per server tick.
+	 */
+	public static void tick() {
+		
+		MatchTimers timers = get();
+		if(timers.wheel.size() > 0) {
+			timers.wheel.advance(timers.handler);
+			timers.markDirty();
+		}
+	}
+	
+	/**
+	 * Schedule the event to start automatically after the configured preparation time.
+	 * Called when the event is prepared.
+	 */
+	public static void scheduleStart() {
+		schedule(Type.START, CTFConfig.timers.preparationTime, 0, 0);
+	}
+	
+	/**
+	 * Schedule the event to stop automatically after the configured duration.
+	 * Called when the event starts.
+	 */
+	public static void scheduleStop() {
+		schedule(Type.STOP, CTFConfig.timers.eventDuration, 0, 0);
+	}
+	
+	/**
+	 * Schedule a dropped flag to return home after the configured time.
+	 * Replaces any existing return timer for the flag.
+	 * @param flag the colour of the dropped flag.
+	 */
+	public static void scheduleReturn(Colour flag) {
+		int generation = ++get().returnGeneration[flag.ordinal()];
+		schedule(Type.RETURN, CTFConfig.timers.flagReturnTime, flag.ordinal(), generation);
+	}
+	
+	/**
+	 * Cancel the return timer of a flag, if it has one.
+	 * @param flag the colour of the flag.
+	 */
+	public static void cancelReturn(Colour flag) {
+		MatchTimers timers = get();
+		timers.returnGeneration[flag.ordinal()]++;
+		timers.markDirty();
+	}
+	
+	/**
+	 * Prevent a team from capturing again until the configured cooldown has passed.
+	 * @param team the colour of the team.
+	 */
+	public static void startCooldown(Colour team) {
+		
+		if(CTFConfig.timers.captureCooldown > 0) {
+			get().cooldowns |= 1 << team.ordinal();
+			setBoolean("ctf:capture_cooldown(" + team.UNLOCALISED_NAME + ")", true);
+			schedule(Type.COOLDOWN, CTFConfig.timers.captureCooldown, team.ordinal(), 0);
+		}
+	}
+	
+	/**
+	 * @param team the colour of the team.
+	 * @return whether the team is currently unable to capture, after a capture on this server or any other.
+	 */
+	public static boolean isOnCooldown(Colour team) {
+		return (get().cooldowns & 1 << team.ordinal()) != 0
+				|| getBoolean("ctf:capture_cooldown(" + team.UNLOCALISED_NAME + ")");
+	}
+	
+	/**
+	 * Cancel all timers. Called when the event ends.
+	 */
+	public static void clear() {
+		
+		MatchTimers timers = get();
+		timers.wheel.clear();
+		for(int mask = timers.cooldowns; mask != 0; mask &= mask - 1) {
+			setBoolean("ctf:capture_cooldown(" + COLOURS[Integer.numberOfTrailingZeros(mask)].UNLOCALISED_NAME + ")", false);
+		}
+		timers.cooldowns = 0;
+		for(int i = 0; i < COLOURS.length; i++) {
+			timers.returnGeneration[i]++;
+		}
+		timers.markDirty();
+	}
+	
+	@Override
+	public void readFromNBT(NBTTagCompound nbt) {
+		
+		wheel.clear();
+		cooldowns = nbt.getInteger("cooldowns");
+		
+		int[] generations = nbt.getIntArray("return_generations");
+		System.arraycopy(generations, 0, returnGeneration, 0,
+				Math.min(generations.length, returnGeneration.length));
+		
+		//Timers are saved with their remaining delay, so time doesn't pass while the server is down.
+		NBTTagList list = nbt.getTagList("timers", NBT.TAG_COMPOUND);
+		for(int i = 0; i < list.tagCount(); i++) {
+			NBTTagCompound timer = list.getCompoundTagAt(i);
+			wheel.schedule(timer.getLong("delay"), timer.getInteger("type"),
+					timer.getInteger("argument"), timer.getInteger("generation"));
+		}
+	}
+	
+	@Override
+	public NBTTagCompound writeToNBT(NBTTagCompound nbt) {
+		
+		nbt.setInteger("cooldowns", cooldowns);
+		nbt.setIntArray("return_generations", returnGeneration.clone());
+		
+		NBTTagList list = new NBTTagList();
+		wheel.forEach((delay, type, argument, generation) -> {
+			NBTTagCompound timer = new NBTTagCompound();
+			timer.setLong("delay", delay);
+			timer.setInteger("type", type);
+			timer.setInteger("argument", argument);
+			timer.setInteger("generation", generation);
+			list.appendTag(timer);
+		});
+		nbt.setTag("timers", list);
+		return nbt;
+	}
+	
+	/**
+	 * Schedule a timer, if it is enabled.
+	 * @param type the type of timer.
+	 * @param seconds the configured delay in seconds, where 0 disables the timer.
+	 * @param argument the argument of the timer.
+	 * @param generation the generation of the timer.
+	 */
+	private static void schedule(Type type, int seconds, int argument, int generation) {
+		
+		if(seconds > 0) {
+			MatchTimers timers = get();
+			timers.wheel.schedule(seconds * TICKS_PER_SECOND, type.ordinal(), argument, generation);
+			timers.markDirty();
+		}
+	}
+	
+	/**
+	 * Called when a timer expires.
+	 * @param type the type of the timer.
+	 * @param argument the argument of the timer.
+	 * @param generation the generation of the timer.
+	 */
+	private void expire(int type, int argument, int generation) {
+		
+		switch(TYPES[type]) {
+			
+			//Start the event if it is still in preparation.
+			case START:
+				if(getBoolean("ctf:flags_prepared") && !getBoolean("ctf:flags_active")) {
+					FlagEvent.start();
+				}
+				break;
+			
+			//Stop the event if it is still active.
+			case STOP:
+				if(getBoolean("ctf:flags_active")) {
+					FlagEvent.stop();
+				}
+				break;
+			
+			//Return the flag, unless it has since been picked up or dropped again.
+			case RETURN:
+				if(generation == returnGeneration[argument]) {
+					FlagEvent.returnFlag(COLOURS[argument]);
+				}
+				break;
+			
+			case COOLDOWN:
+				cooldowns &= ~(1 << argument);
+				setBoolean("ctf:capture_cooldown(" + COLOURS[argument].UNLOCALISED_NAME + ")", false);
+				break;
+		}
+	}
+	
+	/**
+	 * Get the timers for the current world, loading or creating them if necessary.
+	 * @return the timers.
+	 */
+	private static MatchTimers get() {
+		return ServerContext.get().getData(NAME, MatchTimers.class, MatchTimers::new);
+	}
+}
@@ -0,0 +1,232 @@
+package ctf.events;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ctf.CTF;
+import ctf.ServerContext;
+import ctf.blocks.Flag;
+import ctf.util.BulkBlockWriter;
+import ctf.util.ChunkKeys;
+import ctf.util.Colour;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.storage.WorldSavedData;
+import net.minecraftforge.common.DimensionManager;
+import net.minecraftforge.common.util.Constants.NBT;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+
+/**
+ * Flags which are due to be removed from or placed in chunks that aren't currently loaded.
+ * Rather than loading a dimension or chunk just to remove or place a flag, the change is
+ * remembered and applied the next time the chunk is loaded. Removals are applied before placements.
+ * Saved with the world, so that changes aren't forgotten across restarts.
+ * @author Alec Dorrington
+ */
+public class PendingRemovals extends WorldSavedData {
+	
+	/** The name under which the pending removals are saved. */
+	private static final String NAME = CTF.MODID + "_pending_removals";
+	
+	/** The positions of flags to remove, by dimension, then by chunk key. */
+	private final Map<Integer, Map<Long, List<BlockPos>>> removals = new HashMap<>();
+	
+	/** The positions and colours of flags to place, by dimension, then by chunk key. */
+	private final Map<Integer, Map<Long, Map<BlockPos, Colour>>> placements = new HashMap<>();
+	
+	/** The total number of pending removals and placements. */
+	private int size = 0;
+	
+	/**
+	 * Constructor used by Minecraft when loading the removals from the world file.
+	 * @param name the name of the saved data.
+	 */
+	public PendingRemovals(String name) {
+		super(name);
+	}
+	
+	/**
+	 * Remove the flag at the given position. If the flag is in a chunk which isn't
+	 * loaded, it is instead removed the next time the chunk is loaded.
+	 * @param writer the writer with which to remove the flag, if it is loaded.
+	 * @param dimension the dimension containing the flag.
+	 * @param position the position of the flag.
+	 */
+	public static void remove(BulkBlockWriter writer, int dimension, BlockPos position) {
+		
+		World world = DimensionManager.getWorld(dimension);
+		
+		//Remove the flag straight away if it is loaded.
+		if(world != null && world.isBlockLoaded(position)) {
+			Flag.remove(writer, world, position);
+		
+		//Otherwise wait until the chunk is next loaded, unless the flag was never placed.
+		} else {
+			PendingRemovals pending = get();
+			Map<Long, Map<BlockPos, Colour>> chunks = pending.placements.get(dimension);
+			Map<BlockPos, Colour> placed = chunks == null ? null : chunks.get(ChunkKeys.of(position));
+			if(placed != null && placed.remove(position) != null) {
+				pending.size--;
+				pending.markDirty();
+				return;
+			}
+			pending.removals.computeIfAbsent(dimension, d -> new HashMap<>())
+				.computeIfAbsent(ChunkKeys.of(position), k -> new ArrayList<>())
+				.add(position);
+			pending.size++;
+			pending.markDirty();
+		}
+	}
+	
+	/**
+	 * Place a flag at exactly the given position. If the position is in a chunk which
+	 * isn't loaded, the flag is instead placed the next time the chunk is loaded.
+	 * @param writer the writer with which to place the flag, if it is loaded.
+	 * @param dimension the dimension in which to place the flag.
+	 * @param position the position of the flag.
+	 * @param colour the colour of the flag.
+	 */
+	public static void place(BulkBlockWriter writer, int dimension, BlockPos position, Colour colour) {
+		
+		World world = DimensionManager.getWorld(dimension);
+		
+		//Place the flag straight away if it is loaded.
+		if(world != null && world.isBlockLoaded(position)) {
+			writer.set(world, position, Flag.get(colour).getDefaultState());
+		
+		//Otherwise wait until the chunk is next loaded.
+		} else {
+			PendingRemovals pending = get();
+			pending.placements.computeIfAbsent(dimension, d -> new HashMap<>())
+				.computeIfAbsent(ChunkKeys.of(position), k -> new HashMap<>())
+				.put(position, colour);
+			pending.size++;
+			pending.markDirty();
+		}
+	}
+	
+	/** Remove and place any flags waiting for a chunk once it is loaded. */
+	@SubscribeEvent
+	public static void onChunkLoad(ChunkEvent.Load event) {
+		
+		World world = event.getWorld();
+		if(world.isRemote) {
+			return;
+		}
+		
+		PendingRemovals pending = get();
+		if(pending.size == 0) {
+			return;
+		}
+		
+		int dimension = world.provider.getDimension();
+		long key = ChunkKeys.of(event.getChunk());
+		
+		Map<Long, List<BlockPos>> chunks = pending.removals.get(dimension);
+		List<BlockPos> positions = chunks == null ? null : chunks.remove(key);
+		
+		if(positions != null) {
+			
+			for(BlockPos position : positions) {
+				Flag.remove(event.getChunk(), position);
+			}
+			pending.size -= positions.size();
+			if(chunks.isEmpty()) {
+				pending.removals.remove(dimension);
+			}
+			pending.markDirty();
+		}
+		
+		Map<Long, Map<BlockPos, Colour>> placementChunks = pending.placements.get(dimension);
+		Map<BlockPos, Colour> placed = placementChunks == null ? null : placementChunks.remove(key);
+		
+		if(placed != null) {
+			
+			for(Map.Entry<BlockPos, Colour> placement : placed.entrySet()) {
+				Flag.add(event.getChunk(), placement.getKey(), placement.getValue());
+			}
+			pending.size -= placed.size();
+			if(placementChunks.isEmpty()) {
+				pending.placements.remove(dimension);
+			}
+			pending.markDirty();
+		}
+	}
+	
+	@Override
+	public void readFromNBT(NBTTagCompound nbt) {
+		
+		removals.clear();
+		placements.clear();
+		size = 0;
+		
+		NBTTagList list = nbt.getTagList("removals", NBT.TAG_COMPOUND);
+		for(int i = 0; i < list.tagCount(); i++) {
+			
+			NBTTagCompound removal = list.getCompoundTagAt(i);
+			BlockPos position = BlockPos.fromLong(removal.getLong("position"));
+			removals.computeIfAbsent(removal.getInteger("dimension"), d -> new HashMap<>())
+				.computeIfAbsent(ChunkKeys.of(position), k -> new ArrayList<>())
+				.add(position);
+			size++;
+		}
+		
+		list = nbt.getTagList("placements", NBT.TAG_COMPOUND);
+		for(int i = 0; i < list.tagCount(); i++) {
+			
+			NBTTagCompound placement = list.getCompoundTagAt(i);
+			BlockPos position = BlockPos.fromLong(placement.getLong("position"));
+			placements.computeIfAbsent(placement.getInteger("dimension"), d -> new HashMap<>())
+				.computeIfAbsent(ChunkKeys.of(position), k -> new HashMap<>())
+				.put(position, Colour.valueOf(placement.getString("colour")));
+			size++;
+		}
+	}
+	
+	@Override
+	public NBTTagCompound writeToNBT(NBTTagCompound nbt) {
+		
+		NBTTagList list = new NBTTagList();
+		for(Map.Entry<Integer, Map<Long, List<BlockPos>>> dimension : removals.entrySet()) {
+			for(List<BlockPos> positions : dimension.getValue().values()) {
+				for(BlockPos position : positions) {
+					
+					NBTTagCompound removal = new NBTTagCompound();
+					removal.setInteger("dimension", dimension.getKey());
+					removal.setLong("position", position.toLong());
+					list.appendTag(removal);
+				}
+			}
+		}
+		nbt.setTag("removals", list);
+		
+		list = new NBTTagList();
+		for(Map.Entry<Integer, Map<Long, Map<BlockPos, Colour>>> dimension : placements.entrySet()) {
+			for(Map<BlockPos, Colour> placed : dimension.getValue().values()) {
+				for(Map.Entry<BlockPos, Colour> position : placed.entrySet()) {
+					
+					NBTTagCompound placement = new NBTTagCompound();
+					placement.setInteger("dimension", dimension.getKey());
+					placement.setLong("position", position.getKey().toLong());
+					placement.setString("colour", position.getValue().name());
+					list.appendTag(placement);
+				}
+			}
+		}
+		nbt.setTag("placements", list);
+		return nbt;
+	}
+	
+	/**
+	 * Get the pending removals for the current world, loading or creating them if necessary.
+	 * @return the pending removals.
+	 */
+	private static PendingRemovals get() {
+		return ServerContext.get().getData(NAME, PendingRemovals.class, PendingRemovals::new);
+	}
+}
@@ -0,0 +1,211 @@
+package ctf.events;
+
+import static ctf.util.Messenger.*;
+import static ctf.util.Values.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ctf.CTFConfig;
+import ctf.util.ChunkKeys;
+import ctf.util.Colour;
+import ctf.util.Teams;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraftforge.event.world.BlockEvent;
+import net.minecraftforge.event.world.ExplosionEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+
+/**
+ * Prevents blocks from being placed, broken or blown up near flags and flag homes,
+ * so that players can't wall in or bury the flags.
+ * Each chunk touched by a zone is mapped to a bit mask of the zones touching it,
+ * so the vast majority of block events, which happen in chunks without any zone, need only a single lookup.
+ * The zones are rebuilt from the stored flag positions whenever a flag moves.
+ * @author Alec Dorrington
+ */
+public class ProtectionZones {
+	
+	/** All colours, indexed by ordinal. */
+	private static final Colour[] COLOURS = Colour.values();
+	
+	/** Each colour has two zones: one around the flag home (2 * ordinal) and one around the flag (2 * ordinal + 1). */
+	private static final int ZONES = COLOURS.length * 2;
+	
+	/** The centre of each zone, or null for zones which don't exist. */
+	private static final BlockPos[] centres = new BlockPos[ZONES];
+	
+	/** For each dimension, the bit mask of the zones touching each chunk. Chunks without any zone are absent. */
+	private static final Map<Integer, Long2IntOpenHashMap> CHUNKS = new HashMap<>();
+	
+	/** Whether a flag has moved since the zones were last built. */
+	private static boolean dirty = true;
+	
+	/** The radius with which the zones were last built. */
+	private static int builtRadius = -1;
+	
+	/** The number of changes by other servers when the zones were last built. */
+	private static int builtRemoteCount = -1;
+	
+	/**
+	 * Register that a flag has been placed, moved or removed, so that the zones are rebuilt.
+	 */
+	public static void invalidate() {
+		dirty = true;
+	}
+	
+	/**
+	 * Forget all zones. Called when the server stops.
+	 */
+	public static void clear() {
+		CHUNKS.clear();
+		dirty = true;
+	}
+	
+	/**
+	 * @param world the world containing the position.
+	 * @param position the position of a block.
+	 * @param radius the distance from a flag or flag home within which the block is protected.
+	 * @return whether the block is within the given distance of a flag or flag home.
+	 */
+	public static boolean isProtected(World world, BlockPos position, int radius) {
+		
+		if(radius <= 0) {
+			return false;
+		}
+		if(dirty || builtRadius != getRadius() || builtRemoteCount != getRemoteCount()) {
+			build();
+		}
+		
+		Long2IntOpenHashMap chunks = CHUNKS.get(world.provider.getDimension());
+		int mask = chunks == null ? 0 : chunks.get(ChunkKeys.of(position));
+		
+		//Check each zone touching the chunk, of which there are almost never more than one or two.
+		while(mask != 0) {
+			
+			BlockPos centre = centres[Integer.numberOfTrailingZeros(mask)];
+			mask &= mask - 1;
+			if(Math.abs(position.getX() - centre.getX()) <= radius
+					&& Math.abs(position.getY() - centre.getY()) <= radius
+					&& Math.abs(position.getZ() - centre.getZ()) <= radius) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/** Prevent blocks from being placed near flags. */
+	@SubscribeEvent
+	public static void onBlockPlace(BlockEvent.PlaceEvent event) {
+		
+		if(!event.getWorld().isRemote && !isExempt(event.getPlayer()) && isProtected(event.getWorld(),
+				event.getPos(), CTFConfig.protection.buildRadius)) {
+			deny(event.getPlayer(), "You can't place blocks this close to a flag.");
+			event.setCanceled(true);
+		}
+	}
+	
+	/** Prevent blocks from being broken near flags. */
+	@SubscribeEvent
+	public static void onBlockBreak(BlockEvent.BreakEvent event) {
+		
+		if(!event.getWorld().isRemote && !isExempt(event.getPlayer()) && isProtected(event.getWorld(),
+				event.getPos(), CTFConfig.protection.breakRadius)) {
+			deny(event.getPlayer(), "You can't break blocks this close to a flag.");
+			event.setCanceled(true);
+		}
+	}
+	
+	/** Prevent blocks near flags from being destroyed by explosions. */
+	@SubscribeEvent
+	public static void onExplosion(ExplosionEvent.Detonate event) {
+		
+		World world = event.getWorld();
+		if(!world.isRemote) {
+			event.getAffectedBlocks().removeIf(position ->
+					isProtected(world, position, CTFConfig.protection.breakRadius));
+		}
+	}
+	
+	/**
+	 * @param player the player changing a block, or null if the change wasn't made by a player.
+	 * @return whether the player may change blocks near flags, which is the case in creative mode.
+	 */
+	private static boolean isExempt(EntityPlayer player) {
+		return player != null && player.isCreative();
+	}
+	
+	/**
+	 * Tell a player why they can't change a block, unless they have been told too recently.
+	 * @param player the player, or null if the change wasn't made by a player.
+	 * @param message the message telling the player why they can't change the block.
+	 */
+	private static void deny(EntityPlayer player, String message) {
+		if(player != null && InteractionLimiter.tryReject(player)) {
+			tellPlayer(player, message);
+		}
+	}
+	
+	/**
+	 * Rebuild the zones from the stored positions of the flags and flag homes.
+	 */
+	private static void build() {
+		
+		CHUNKS.clear();
+		for(int i = 0; i < ZONES; i++) {
+			centres[i] = null;
+		}
+		int radius = builtRadius = getRadius();
+		builtRemoteCount = getRemoteCount();
+		dirty = false;
+		
+		//Zones only exist while the flags are prepared.
+		if(radius == 0 || !getBoolean("ctf:flags_prepared")) {
+			return;
+		}
+		
+		List<Colour> teams = Teams.getColours();
+		for(Colour colour : teams) {
+			
+			//Only flags and homes on this server are protected here.
+			String name = colour.UNLOCALISED_NAME;
+			if(getInteger("ctf:home_server") == CTFConfig.shared.serverId) {
+				addZone(colour.ordinal() * 2, 0, getPosition("ctf:flag_home(" + name + ")"), radius);
+			}
+			if(getBoolean("ctf:flag_in_world(" + name + ")") && FlagEvent.isLocal(colour)) {
+				addZone(colour.ordinal() * 2 + 1, getInteger("ctf:flag_dimension(" + name + ")"),
+						getPosition("ctf:flag_position(" + name + ")"), radius);
+			}
+		}
+	}
+	
+	/**
+	 * Add a zone, marking every chunk it touches.
+	 * @param zone the index of the zone.
+	 * @param dimension the dimension of the zone.
+	 * @param centre the centre of the zone.
+	 * @param radius the radius of the zone.
+	 */
+	private static void addZone(int zone, int dimension, BlockPos centre, int radius) {
+		
+		centres[zone] = centre;
+		Long2IntOpenHashMap chunks = CHUNKS.computeIfAbsent(dimension, d -> new Long2IntOpenHashMap());
+		
+		for(int x = (centre.getX() - radius) >> 4; x <= (centre.getX() + radius) >> 4; x++) {
+			for(int z = (centre.getZ() - radius) >> 4; z <= (centre.getZ() + radius) >> 4; z++) {
+				long key = ChunkKeys.of(x, z);
+				chunks.put(key, chunks.get(key) | 1 << zone);
+			}
+		}
+	}
+	
+	/**
+	 * @return the radius of the largest zone, such that every zone fits within it.
+	 */
+	private static int getRadius() {
+		return Math.max(CTFConfig.protection.buildRadius, CTFConfig.protection.breakRadius);
+	}
+}
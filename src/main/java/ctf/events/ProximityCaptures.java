@@ -0,0 +1,180 @@
+package ctf.events;
+
+import static ctf.util.Values.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ctf.CTFConfig;
+import ctf.util.Colour;
+import ctf.util.SpatialHash;
+import ctf.util.Teams;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraftforge.event.entity.player.PlayerEvent.Clone;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.PlayerEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent.Phase;
+
+/**
+ * Optional mode in which flags are captured and returned by walking up to them, rather than clicking them.
+ * Players are kept in a spatial hash which is only updated when they cross a cell boundary,
+ * so each tick only the players in the cells around each flag need to be checked.
+ * @author Alec Dorrington
+ */
+public class ProximityCaptures {
+	
+	/** All colours, indexed by ordinal. */
+	private static final Colour[] COLOURS = Colour.values();
+	
+	/** Players are grouped into cells 16 blocks wide. */
+	private static final int CELL_BITS = 4;
+	
+	/** The positions of all online players. */
+	private static final SpatialHash<EntityPlayer> PLAYERS = new SpatialHash<>(CELL_BITS);
+	
+	/** Whether each flag (by colour ordinal) is currently placed in the world. */
+	private static final boolean[] inWorld = new boolean[COLOURS.length];
+	
+	/** Whether each flag is currently at its home position. */
+	private static final boolean[] atHome = new boolean[COLOURS.length];
+	
+	/** The dimension containing each flag. */
+	private static final int[] dimensions = new int[COLOURS.length];
+	
+	/** The position of each flag. */
+	private static final BlockPos[] positions = new BlockPos[COLOURS.length];
+	
+	/** Whether the flag positions have been loaded since the server started. */
+	private static boolean loaded = false;
+	
+	/** The number of changes by other servers when the flag positions were loaded. */
+	private static int loadedRemoteCount = -1;
+	
+	/** Players found near a flag this tick. Reused between ticks. */
+	private static final List<EntityPlayer> nearby = new ArrayList<>();
+	
+	/**
+	 * Register a flag as having been placed in the world.
+	 * @param colour the colour of the flag.
+	 * @param dimension the dimension containing the flag.
+	 * @param position the position of the flag.
+	 * @param home whether the flag is at its home position.
+	 */
+	public static void placeFlag(Colour colour, int dimension, BlockPos position, boolean home) {
+		
+		inWorld[colour.ordinal()] = true;
+		atHome[colour.ordinal()] = home;
+		dimensions[colour.ordinal()] = dimension;
+		positions[colour.ordinal()] = position;
+	}
+	
+	/**
+	 * Register a flag as having been removed from the world.
+	 * @param colour the colour of the flag.
+	 */
+	public static void removeFlag(Colour colour) {
+		inWorld[colour.ordinal()] = false;
+	}
+	
+	/**
+	 * Forget all players and flags. Called when the server stops.
+	 */
+	public static void clear() {
+		PLAYERS.clear();
+		loaded = false;
+	}
+	
+	/**
+	 * Capture or return any flags which players are standing near.
+	 * To be called once per server tick.
+	 */
+	public static void tick() {
+		
+		if(!CTFConfig.proximity.enabled || !getBoolean("ctf:flags_active") || !LoadShedder.isDue()) {
+			return;
+		}
+		if(!loaded || loadedRemoteCount != getRemoteCount()) {
+			load();
+		}
+		
+		double radius = CTFConfig.proximity.radius;
+		
+		for(Colour colour : COLOURS) {
+			
+			int i = colour.ordinal();
+			if(!inWorld[i]) {
+				continue;
+			}
+			BlockPos position = positions[i];
+			
+			//Only players in the cells around the flag need to be checked.
+			PLAYERS.query(dimensions[i], position.getX() + 0.5, position.getZ() + 0.5, radius, player -> {
+				
+				//Only players on the same team as the flag may capture with or return it.
+				if(!player.isDead && player.getDistanceSq(position) <= radius * radius
+						&& player.getTeam() != null
+						&& Colour.fromFormatter(player.getTeam().getColor()) == colour) {
+					nearby.add(player);
+				}
+			});
+			
+			//Players are handled after searching, since capturing may move the flags.
+			for(EntityPlayer player : nearby) {
+				if(inWorld[i]) {
+					FlagEvent.approach(colour, player, player.world, positions[i], atHome[i]);
+				}
+			}
+			nearby.clear();
+		}
+	}
+	
+	/** Keep track of which cell each player is in. */
+	@SubscribeEvent
+	public static void onPlayerTick(TickEvent.PlayerTickEvent event) {
+		
+		if(event.phase == Phase.END && !event.player.world.isRemote && CTFConfig.proximity.enabled) {
+			EntityPlayer player = event.player;
+			PLAYERS.update(player, player.dimension, player.posX, player.posZ);
+		}
+	}
+	
+	/** Players are replaced by a new entity when they respawn or return from the end, so forget the old one. */
+	@SubscribeEvent
+	public static void onPlayerClone(Clone event) {
+		PLAYERS.remove(event.getOriginal());
+	}
+	
+	/** Players are forgotten when they log out. */
+	@SubscribeEvent
+	public static void onPlayerLogout(PlayerEvent.PlayerLoggedOutEvent event) {
+		PLAYERS.remove(event.player);
+	}
+	
+	/**
+	 * Load the positions of all flags on this server, after the server has started
+	 * or another server sharing the event has changed them.
+	 */
+	private static void load() {
+		
+		List<Colour> teams = Teams.getColours();
+		for(Colour colour : COLOURS) {
+			
+			String name = colour.UNLOCALISED_NAME;
+			if(teams.contains(colour) && getBoolean("ctf:flag_in_world(" + name + ")")
+					&& FlagEvent.isLocal(colour)) {
+				
+				int dimension = getInteger("ctf:flag_dimension(" + name + ")");
+				BlockPos position = getPosition("ctf:flag_position(" + name + ")");
+				boolean home = dimension == 0 && position.equals(getPosition("ctf:flag_home(" + name + ")"));
+				placeFlag(colour, dimension, position, home);
+			
+			} else {
+				removeFlag(colour);
+			}
+		}
+		loaded = true;
+		loadedRemoteCount = getRemoteCount();
+	}
+}
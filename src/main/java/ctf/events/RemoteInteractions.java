@@ -0,0 +1,119 @@
+package ctf.events;
+
+import ctf.CTF;
+import ctf.ServerContext;
+import ctf.blocks.Flag;
+import ctf.events.FlagEvent.Result;
+import ctf.network.InteractResultPacket;
+import ctf.util.Colour;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import net.minecraft.block.Block;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.play.server.SPacketBlockChange;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+/**
+ * Runs the flag interactions sent by clients. Clients predict the outcome of clicking a flag,
+ * hiding the flag and showing that it is carried straight away, so that players on slow
+ * connections aren't left waiting. Each interaction is answered with whether it succeeded,
+ * so the client can keep or undo its prediction, and players are also told whenever the
+ * flag they carry changes for some other reason, such as a capture by walking into a flag.
+ * @author Alec Dorrington
+ */
+public class RemoteInteractions {
+	
+	/** The greatest squared distance from which a player may interact with a flag. */
+	private static final double REACH_SQ = 6.0 * 6.0;
+	
+	/** The number of ticks between checks for changes to the flag each player carries. */
+	private static final int INTERVAL = 10;
+	
+	/** The flag each player (by entity ID) was last told they carry, as a colour ordinal, or -1 for none. */
+	private static final Int2IntOpenHashMap TOLD = new Int2IntOpenHashMap();
+	
+	static {
+		TOLD.defaultReturnValue(Integer.MIN_VALUE);
+	}
+	
+	/** The number of ticks since the last check. */
+	private static int ticks = 0;
+	
+	/**
+	 * Run an interaction sent by a client, and answer it. To be called on the server thread.
+	 * @param player the player who clicked the flag.
+	 * @param sequence identifies the interaction.
+	 * @param position the position which was clicked.
+	 */
+	public static void handle(EntityPlayerMP player, int sequence, BlockPos position) {
+		
+		World world = player.world;
+		Result result = Result.REJECTED;
+		
+		//Never trust the client as to what it clicked.
+		if(world.isBlockLoaded(position) && player.getDistanceSq(position) <= REACH_SQ) {
+			Block block = world.getBlockState(position).getBlock();
+			if(block instanceof Flag) {
+				result = FlagEvent.interact(((Flag) block).COLOUR, player, world, position);
+			}
+		}
+		boolean accepted = result == Result.PICKED_UP || result == Result.CAPTURED;
+		
+		//Undo a predicted pickup by sending the blocks as they really are. These arrive before the answer.
+		if(!accepted) {
+			for(BlockPos pos : new BlockPos[] {position.down(), position, position.up()}) {
+				player.connection.sendPacket(new SPacketBlockChange(world, pos));
+			}
+		}
+		send(player, sequence, accepted);
+	}
+	
+	/**
+	 * Tell players whose carried flag has changed since they were last told.
+	 * To be called once per server tick.
+	 */
+	public static void tick() {
+		
+		if(++ticks < LoadShedder.scaleInterval(INTERVAL)) {
+			return;
+		}
+		ticks = 0;
+		
+		for(EntityPlayerMP player : ServerContext.get().getServer().getPlayerList().getPlayers()) {
+			Colour carried = FlagEvent.getCarried(player);
+			if(TOLD.get(player.getEntityId()) != (carried == null ? -1 : carried.ordinal())) {
+				send(player, 0, true);
+			}
+		}
+	}
+	
+	/**
+	 * Forget a player, so that their entity ID may be safely reused.
+	 * @param player the player who has logged out.
+	 */
+	public static void forget(EntityPlayer player) {
+		TOLD.remove(player.getEntityId());
+	}
+	
+	/**
+	 * Forget all players. Called when the server stops.
+	 */
+	public static void clear() {
+		TOLD.clear();
+		ticks = 0;
+	}
+	
+	/**
+	 * Tell a player the outcome of an interaction, along with the flag they now carry.
+	 * @param player the player to tell.
+	 * @param sequence identifies the interaction, or 0 if there wasn't one.
+	 * @param accepted whether the interaction succeeded.
+	 */
+	private static void send(EntityPlayerMP player, int sequence, boolean accepted) {
+		
+		Colour carried = FlagEvent.getCarried(player);
+		TOLD.put(player.getEntityId(), carried == null ? -1 : carried.ordinal());
+		CTF.NETWORK.sendTo(new InteractResultPacket(sequence, accepted, carried), player);
+	}
+}
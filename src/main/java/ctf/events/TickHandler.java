@@ -0,0 +1,55 @@
+package ctf.events;
+
+import ctf.ServerContext;
+import ctf.data.CarrierTelemetry;
+import ctf.data.MatchPublisher;
+import ctf.data.PlayerStats;
+import ctf.data.RegionScanner;
+import ctf.data.ScoreHistory;
+import ctf.data.Snapshots;
+import ctf.util.Messenger;
+import ctf.util.StructureWriter;
+import ctf.util.Teams;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent.Phase;
+
+/**
+ * Drives the periodic server side work of the flag event.
+ * @author Alec Dorrington
+ */
+public class TickHandler {
+	
+	@SubscribeEvent
+	public void onServerTick(TickEvent.ServerTickEvent event) {
+		
+		//Measure each tick from start to finish, including the work below.
+		if(event.phase == Phase.START) {
+			LoadShedder.startTick();
+		}
+		
+		//All periodic work happens once the game logic for the tick is complete.
+		if(event.phase == Phase.END) {
+			MatchTimers.tick();
+			ProximityCaptures.tick();
+			RemoteInteractions.tick();
+			Teams.flushPoints();
+			Snapshots.tick();
+			ScoreHistory.tick();
+			PlayerStats.tick();
+			CarrierTelemetry.tick();
+			Beacons.tick();
+			ConsistencyChecker.tick();
+			RegionScanner.tick();
+			StructureWriter.tick();
+			Messenger.tick();
+			
+			//Share this tick's changes with any other servers, and apply theirs, before publishing.
+			ServerContext.get().getBackend().tick();
+			
+			//Publish the state last, so that it includes every change made during the tick.
+			MatchPublisher.tick();
+			LoadShedder.endTick();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package ctf.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms describing the activity of the flag event,
+ * rendered in the Prometheus text format by the metrics server.
+ * Updates are cheap and lock-free, so they may be made freely on the server thread.
+ * @author Alec Dorrington
+ */
+public class Metrics {
+	
+	/** Every registered metric, in the order they are rendered. */
+	private static final List<Metric> METRICS = new ArrayList<>();
+	
+	public static final Counter INTERACTIONS = new Counter("ctf_interactions_total",
+			"Flag interactions which passed the click debounce.");
+	
+	public static final Counter PICKUPS = new Counter("ctf_pickups_total",
+			"Flags picked up by players.");
+	
+	public static final Counter CAPTURES = new Counter("ctf_captures_total",
+			"Flags captured by players.");
+	
+	public static final Counter DROPS = new Counter("ctf_drops_total",
+			"Flags dropped by players.");
+	
+	public static final Counter RETURNS = new Counter("ctf_returns_total",
+			"Dropped flags returned to their home positions.");
+	
+	public static final Histogram INTERACTION_SECONDS = new Histogram("ctf_interaction_seconds",
+			"Time taken to handle each flag interaction.",
+			0.00001, 0.00005, 0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05);
+	
+	public static final Histogram PLACEMENT_PROBES = new Histogram("ctf_placement_probes",
+			"Blocks checked to find a free position each time a flag is placed.",
+			1, 2, 5, 10, 50, 100, 500, 1000);
+	
+	public static final Histogram MESSAGE_RECIPIENTS = new Histogram("ctf_message_recipients",
+			"Players sent each team message or announcement.",
+			0, 1, 5, 10, 25, 50, 100, 250);
+	
+	/** A single named metric. */
+	private static abstract class Metric {
+		
+		/** The name and description of the metric. */
+		final String name, help;
+		
+		Metric(String name, String help) {
+			this.name = name;
+			this.help = help;
+			METRICS.add(this);
+		}
+		
+		/**
+		 * Write the current value of the metric.
+		 * @param out the text to append to.
+		 */
+		abstract void render(StringBuilder out);
+	}
+	
+	/** A count which only ever increases. */
+	public static class Counter extends Metric {
+		
+		/** The current count. */
+		private final LongAdder count = new LongAdder();
+		
+		private Counter(String name, String help) {
+			super(name, help);
+		}
+		
+		/** Increase the count by 1. */
+		public void increment() {
+			count.increment();
+		}
+		
+		@Override
+		void render(StringBuilder out) {
+			header(out, name, help, "counter");
+			out.append(name).append(' ').append(count.sum()).append('\n');
+		}
+	}
+	
+	/** A distribution of observed values, counted into fixed buckets. */
+	public static class Histogram extends Metric {
+		
+		/** The upper bound of each bucket, in increasing order. */
+		private final double[] bounds;
+		
+		/** The number of observations which fell into each bucket, plus one for those above every bound. */
+		private final LongAdder[] buckets;
+		
+		/** The sum of all observations. */
+		private final DoubleAdder sum = new DoubleAdder();
+		
+		private Histogram(String name, String help, double... bounds) {
+			super(name, help);
+			this.bounds = bounds;
+			buckets = new LongAdder[bounds.length + 1];
+			for(int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+		
+		/**
+		 * Record an observation.
+		 * @param value the observed value.
+		 */
+		public void observe(double value) {
+			
+			int i = 0;
+			while(i < bounds.length && value > bounds[i]) {
+				i++;
+			}
+			buckets[i].increment();
+			sum.add(value);
+		}
+		
+		@Override
+		void render(StringBuilder out) {
+			
+			header(out, name, help, "histogram");
+			
+			//Prometheus buckets are cumulative.
+			long count = 0;
+			for(int i = 0; i < buckets.length; i++) {
+				count += buckets[i].sum();
+				String bound = i < bounds.length ? Double.toString(bounds[i]) : "+Inf";
+				out.append(name).append("_bucket{le=\"").append(bound).append("\"} ")
+					.append(count).append('\n');
+			}
+			out.append(name).append("_sum ").append(sum.sum()).append('\n');
+			out.append(name).append("_count ").append(count).append('\n');
+		}
+	}
+	
+	/**
+	 * Write every metric in the Prometheus text format.
+	 * @param out the text to append to.
+	 */
+	public static void render(StringBuilder out) {
+		for(Metric metric : METRICS) {
+			metric.render(out);
+		}
+	}
+	
+	/**
+	 * Write the description and type of a metric.
+	 * @param out the text to append to.
+	 * @param name the name of the metric.
+	 * @param help the description of the metric.
+	 * @param type the Prometheus type of the metric.
+	 */
+	static void header(StringBuilder out, String name, String help, String type) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+}
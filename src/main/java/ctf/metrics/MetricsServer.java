@@ -0,0 +1,147 @@
+package ctf.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import ctf.CTF;
+import ctf.CTFConfig;
+import ctf.data.MatchPublisher;
+import ctf.data.MatchState;
+import ctf.util.Colour;
+
+/**
+ * Serves the CTF metrics over HTTP at '/metrics', in the Prometheus text format.
+ * Only accepts connections from the local machine. Requests are handled on a small
+ * thread pool of their own, and only read the published match state, so scrapes never
+ * wait for or touch the server thread.
+ * @author Alec Dorrington
+ */
+public class MetricsServer {
+	
+	/** The number of threads used to handle requests. */
+	private static final int THREADS = 2;
+	
+	/** The running HTTP server, or null if it isn't running. */
+	private static HttpServer server;
+	
+	/** The threads on which requests are handled. */
+	private static ExecutorService executor;
+	
+	/**
+	 * Start the metrics server, if it is enabled in the config.
+	 * Called when the Minecraft server starts.
+	 */
+	public static void start() {
+		
+		if(!CTFConfig.metrics.enabled || server != null) {
+			return;
+		}
+		
+		try {
+			server = HttpServer.create(new InetSocketAddress(
+					InetAddress.getLoopbackAddress(), CTFConfig.metrics.port), 0);
+		} catch(IOException e) {
+			CTF.LOGGER.error("Unable to start the CTF metrics server on port " + CTFConfig.metrics.port + ".", e);
+			return;
+		}
+		
+		AtomicInteger count = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(THREADS, r -> {
+			Thread thread = new Thread(r, "CTF Metrics " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		server.createContext("/metrics", MetricsServer::handle);
+		server.setExecutor(executor);
+		server.start();
+		CTF.LOGGER.info("Serving CTF metrics at http://localhost:{}/metrics", CTFConfig.metrics.port);
+	}
+	
+	/**
+	 * Stop the metrics server, if it is running.
+	 * Called when the Minecraft server stops.
+	 */
+	public static void stop() {
+		
+		if(server != null) {
+			server.stop(0);
+			executor.shutdown();
+			server = null;
+			executor = null;
+		}
+	}
+	
+	/**
+	 * Respond to a single scrape. Called on a metrics thread.
+	 * @param exchange the HTTP request and response.
+	 */
+	private static void handle(HttpExchange exchange) throws IOException {
+		
+		StringBuilder text = new StringBuilder(4096);
+		Metrics.render(text);
+		renderState(text, MatchPublisher.get());
+		byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+		
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try(OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+	
+	/**
+	 * Write the phase of the event and the score of each team.
+	 * @param out the text to append to.
+	 * @param state the latest published match state, or null if there is none.
+	 */
+	private static void renderState(StringBuilder out, MatchState state) {
+		
+		if(state == null) {
+			return;
+		}
+		
+		Metrics.header(out, "ctf_event_phase", "The current phase of the event.", "gauge");
+		String phase = state.isActive() ? "active" : state.isPrepared() ? "preparation" : "inactive";
+		for(String p : new String[] {"inactive", "preparation", "active"}) {
+			out.append("ctf_event_phase{phase=\"").append(p).append("\"} ")
+				.append(p.equals(phase) ? 1 : 0).append('\n');
+		}
+		
+		Metrics.header(out, "ctf_event_id", "The number of the current event.", "gauge");
+		out.append("ctf_event_id ").append(state.getEventId()).append('\n');
+		
+		Metrics.header(out, "ctf_flag_carriers", "Players currently carrying a flag.", "gauge");
+		out.append("ctf_flag_carriers ").append(state.getCarrierCount()).append('\n');
+		
+		Metrics.header(out, "ctf_team_score", "The score of each team.", "gauge");
+		for(Colour colour : Colour.values()) {
+			if(state.hasTeam(colour)) {
+				out.append("ctf_team_score{team=\"").append(colour.UNLOCALISED_NAME).append("\"} ")
+					.append(state.getScore(colour)).append('\n');
+			}
+		}
+		
+		Metrics.header(out, "ctf_team_captures", "The number of flags captured by each team this event.", "gauge");
+		for(Colour colour : Colour.values()) {
+			if(state.hasTeam(colour)) {
+				
+				int captures = 0;
+				for(Colour flag : Colour.values()) {
+					captures += state.getCaptures(colour, flag);
+				}
+				out.append("ctf_team_captures{team=\"").append(colour.UNLOCALISED_NAME).append("\"} ")
+					.append(captures).append('\n');
+			}
+		}
+	}
+}
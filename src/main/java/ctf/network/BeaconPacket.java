@@ -0,0 +1,142 @@
+package ctf.network;
+
+import ctf.CTF;
+import ctf.util.Colour;
+import io.netty.buffer.ByteBuf;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+/**
+ * Tells a client where to show the particles marking flags and flag carriers.
+ * All particles a player should see over a period are sent together in a single packet,
+ * and the client spawns them itself.
+ * @author Alec Dorrington
+ */
+public class BeaconPacket implements IMessage {
+	
+	/** A column of particles rising from a flag. */
+	public static final int BEACON = 0;
+	
+	/** A few particles around a player carrying a flag. */
+	public static final int TRAIL = 1;
+	
+	/** All colours, indexed by ordinal. */
+	private static final Colour[] COLOURS = Colour.values();
+	
+	/** The number of emitters in the packet. */
+	private int size = 0;
+	
+	/** The kind (BEACON or TRAIL) and colour ordinal of each emitter. */
+	private byte[] kinds, colours;
+	
+	/** The number of particles to spawn at each emitter. */
+	private byte[] particles;
+	
+	/** The position of each emitter. */
+	private float[] x, y, z;
+	
+	/** Used when receiving the packet. */
+	public BeaconPacket() {
+		this(0);
+	}
+	
+	/**
+	 * @param capacity the greatest number of emitters which will be added.
+	 */
+	public BeaconPacket(int capacity) {
+		allocate(capacity);
+	}
+	
+	/**
+	 * Add an emitter to the packet.
+	 * @param kind the kind of emitter, either BEACON or TRAIL.
+	 * @param colour the colour of the particles.
+	 * @param x the x coordinate of the emitter.
+	 * @param y the y coordinate of the emitter.
+	 * @param z the z coordinate of the emitter.
+	 * @param particles the number of particles to spawn, up to 127.
+	 */
+	public void add(int kind, Colour colour, double x, double y, double z, int particles) {
+		
+		kinds[size] = (byte) kind;
+		colours[size] = (byte) colour.ordinal();
+		this.particles[size] = (byte) Math.min(particles, Byte.MAX_VALUE);
+		this.x[size] = (float) x;
+		this.y[size] = (float) y;
+		this.z[size] = (float) z;
+		size++;
+	}
+	
+	@Override
+	public void fromBytes(ByteBuf buf) {
+		
+		allocate(buf.readUnsignedByte());
+		size = kinds.length;
+		for(int i = 0; i < size; i++) {
+			kinds[i] = (byte) buf.readByte();
+			colours[i] = (byte) buf.readByte();
+			particles[i] = (byte) buf.readByte();
+			x[i] = buf.readFloat();
+			y[i] = buf.readFloat();
+			z[i] = buf.readFloat();
+		}
+	}
+	
+	@Override
+	public void toBytes(ByteBuf buf) {
+		
+		buf.writeByte(size);
+		for(int i = 0; i < size; i++) {
+			buf.writeByte(kinds[i]);
+			buf.writeByte(colours[i]);
+			buf.writeByte(particles[i]);
+			buf.writeFloat(x[i]);
+			buf.writeFloat(y[i]);
+			buf.writeFloat(z[i]);
+		}
+	}
+	
+	/** @return the number of emitters in the packet. */
+	public int size() { return size; }
+	
+	/** @return the kind of the i'th emitter, either BEACON or TRAIL. */
+	public int getKind(int i) { return kinds[i]; }
+	
+	/** @return the colour of the i'th emitter. */
+	public Colour getColour(int i) { return COLOURS[colours[i]]; }
+	
+	/** @return the number of particles to spawn at the i'th emitter. */
+	public int getParticles(int i) { return particles[i]; }
+	
+	/** @return the x coordinate of the i'th emitter. */
+	public double getX(int i) { return x[i]; }
+	
+	/** @return the y coordinate of the i'th emitter. */
+	public double getY(int i) { return y[i]; }
+	
+	/** @return the z coordinate of the i'th emitter. */
+	public double getZ(int i) { return z[i]; }
+	
+	/**
+	 * @param capacity the number of emitters to make room for.
+	 */
+	private void allocate(int capacity) {
+		kinds = new byte[capacity];
+		colours = new byte[capacity];
+		particles = new byte[capacity];
+		x = new float[capacity];
+		y = new float[capacity];
+		z = new float[capacity];
+	}
+	
+	/** Spawns the particles on the client. */
+	public static class Handler implements IMessageHandler<BeaconPacket, IMessage> {
+		
+		@Override
+		public IMessage onMessage(BeaconPacket message, MessageContext ctx) {
+			CTF.proxy.showBeacons(message);
+			return null;
+		}
+	}
+}
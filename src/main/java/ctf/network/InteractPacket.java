@@ -0,0 +1,60 @@
+package ctf.network;
+
+import ctf.events.RemoteInteractions;
+import io.netty.buffer.ByteBuf;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.util.math.BlockPos;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+/**
+ * Tells the server that a player clicked a flag. The client has already predicted the outcome,
+ * and the server answers with an InteractResultPacket carrying the same sequence number.
+ * @author Alec Dorrington
+ */
+public class InteractPacket implements IMessage {
+	
+	/** Identifies the interaction, such that the answer can be matched to the prediction. */
+	private int sequence;
+	
+	/** The position of the flag, as packed by BlockPos.toLong(). */
+	private long position;
+	
+	/** Used when receiving the packet. */
+	public InteractPacket() {}
+	
+	/**
+	 * @param sequence identifies the interaction.
+	 * @param position the position of the flag which was clicked.
+	 */
+	public InteractPacket(int sequence, BlockPos position) {
+		this.sequence = sequence;
+		this.position = position.toLong();
+	}
+	
+	@Override
+	public void fromBytes(ByteBuf buf) {
+		sequence = buf.readInt();
+		position = buf.readLong();
+	}
+	
+	@Override
+	public void toBytes(ByteBuf buf) {
+		buf.writeInt(sequence);
+		buf.writeLong(position);
+	}
+	
+	/** Runs the interaction on the server thread. */
+	public static class Handler implements IMessageHandler<InteractPacket, IMessage> {
+		
+		@Override
+		public IMessage onMessage(InteractPacket message, MessageContext ctx) {
+			
+			EntityPlayerMP player = ctx.getServerHandler().player;
+			player.getServerWorld().addScheduledTask(() -> RemoteInteractions.handle(
+					player, message.sequence, BlockPos.fromLong(message.position)));
+			return null;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package ctf.network;
+
+import ctf.CTF;
+import ctf.util.Colour;
+import io.netty.buffer.ByteBuf;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessageHandler;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+/**
+ * Tells a client whether a flag interaction it predicted succeeded, and which flag the player now carries.
+ * Also sent without an interaction, with sequence number 0, whenever the carried flag changes for another reason.
+ * @author Alec Dorrington
+ */
+public class InteractResultPacket implements IMessage {
+	
+	/** All colours, indexed by ordinal. */
+	private static final Colour[] COLOURS = Colour.values();
+	
+	/** The sequence number of the interaction, or 0 if the packet doesn't answer one. */
+	private int sequence;
+	
+	/** Whether the interaction succeeded. */
+	private boolean accepted;
+	
+	/** The colour ordinal of the flag the player carries, or -1 if they don't carry one. */
+	private byte carried;
+	
+	/** Used when receiving the packet. */
+	public InteractResultPacket() {}
+	
+	/**
+	 * @param sequence the sequence number of the interaction, or 0 if the packet doesn't answer one.
+	 * @param accepted whether the interaction succeeded.
+	 * @param carried the flag the player carries, or null if they don't carry one.
+	 */
+	public InteractResultPacket(int sequence, boolean accepted, Colour carried) {
+		this.sequence = sequence;
+		this.accepted = accepted;
+		this.carried = (byte) (carried == null ? -1 : carried.ordinal());
+	}
+	
+	@Override
+	public void fromBytes(ByteBuf buf) {
+		sequence = buf.readInt();
+		accepted = buf.readBoolean();
+		carried = (byte) buf.readByte();
+	}
+	
+	@Override
+	public void toBytes(ByteBuf buf) {
+		buf.writeInt(sequence);
+		buf.writeBoolean(accepted);
+		buf.writeByte(carried);
+	}
+	
+	/** @return the sequence number of the interaction, or 0 if the packet doesn't answer one. */
+	public int getSequence() { return sequence; }
+	
+	/** @return whether the interaction succeeded. */
+	public boolean isAccepted() { return accepted; }
+	
+	/** @return the flag the player carries, or null if they don't carry one. */
+	public Colour getCarried() { return carried < 0 ? null : COLOURS[carried]; }
+	
+	/** Confirms or undoes the prediction on the client. */
+	public static class Handler implements IMessageHandler<InteractResultPacket, IMessage> {
+		
+		@Override
+		public IMessage onMessage(InteractResultPacket message, MessageContext ctx) {
+			CTF.proxy.onInteractResult(message);
+			return null;
+		}
+	}
+}
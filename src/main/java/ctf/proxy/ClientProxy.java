@@ -1,22 +1,85 @@
 package ctf.proxy;
 
 import ctf.CTF;
+import ctf.blocks.FlagTile;
+import ctf.network.BeaconPacket;
+import ctf.network.InteractResultPacket;
+import ctf.util.Colour;
+import net.minecraft.client.Minecraft;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.EnumParticleTypes;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
 import net.minecraftforge.client.model.obj.OBJLoader;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.fml.client.registry.ClientRegistry;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
 
 public class ClientProxy extends CommonProxy {
 	
+	/** The height in blocks of the particle column above each flag. */
+	private static final double BEACON_HEIGHT = 24.0;
+	
 	@Override
 	public void preInit(FMLPreInitializationEvent event) {
 		OBJLoader.INSTANCE.addDomain(CTF.MODID);
+		ClientRegistry.bindTileEntitySpecialRenderer(FlagTile.class, new FlagRenderer());
 	}
 	
 	@Override
-	public void init(FMLInitializationEvent event) {}
+	public void init(FMLInitializationEvent event) {
+		MinecraftForge.EVENT_BUS.register(new Predictions());
+	}
 	
 	@Override
 	public void postInit(FMLPostInitializationEvent event) {}
 	
+	@Override
+	public void showBeacons(BeaconPacket packet) {
+		
+		Minecraft minecraft = Minecraft.getMinecraft();
+		minecraft.addScheduledTask(() -> {
+			
+			World world = minecraft.world;
+			if(world == null) {
+				return;
+			}
+			
+			for(int i = 0; i < packet.size(); i++) {
+				
+				//Redstone particles take their colour from the speed, where a red value of 0 means the default red.
+				int rgb = packet.getColour(i).DYE_COLOUR.getColorValue();
+				double r = Math.max((rgb >> 16 & 0xFF) / 255.0, 0.001);
+				double g = (rgb >> 8 & 0xFF) / 255.0, b = (rgb & 0xFF) / 255.0;
+				
+				for(int j = 0; j < packet.getParticles(i); j++) {
+					
+					double x = packet.getX(i), y = packet.getY(i), z = packet.getZ(i);
+					if(packet.getKind(i) == BeaconPacket.BEACON) {
+						y += 1.0 + world.rand.nextDouble() * BEACON_HEIGHT;
+					} else {
+						x += world.rand.nextDouble() - 0.5;
+						y += world.rand.nextDouble() * 2.0;
+						z += world.rand.nextDouble() - 0.5;
+					}
+					
+					//Beacons are shown from further away than particles normally are.
+					world.spawnParticle(EnumParticleTypes.REDSTONE, true, x, y, z, r, g, b);
+				}
+			}
+		});
+	}
+	
+	@Override
+	public void predictInteraction(Colour colour, EntityPlayer player, World world, BlockPos position) {
+		Predictions.interact(colour, player, world, position);
+	}
+	
+	@Override
+	public void onInteractResult(InteractResultPacket packet) {
+		Minecraft.getMinecraft().addScheduledTask(() -> Predictions.onResult(packet));
+	}
+	
 }
\ No newline at end of file
@@ -1,5 +1,11 @@
 package ctf.proxy;
 
+import ctf.network.BeaconPacket;
+import ctf.network.InteractResultPacket;
+import ctf.util.Colour;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
@@ -12,4 +18,28 @@ public class CommonProxy {
 	
 	public void postInit(FMLPostInitializationEvent event) {}
 	
+	/**
+	 * Spawn the particles marking flags and flag carriers. Does nothing on the server.
+	 * May be called from the network thread.
+	 * @param packet the particles to spawn.
+	 */
+	public void showBeacons(BeaconPacket packet) {}
+	
+	/**
+	 * Predict the outcome of a player clicking a flag, and send the click to the server.
+	 * Does nothing on the server.
+	 * @param colour the colour of the flag.
+	 * @param player the player who clicked the flag.
+	 * @param world the world containing the flag.
+	 * @param position the position of the flag.
+	 */
+	public void predictInteraction(Colour colour, EntityPlayer player, World world, BlockPos position) {}
+	
+	/**
+	 * Confirm or undo a predicted flag interaction. Does nothing on the server.
+	 * May be called from the network thread.
+	 * @param packet the answer from the server.
+	 */
+	public void onInteractResult(InteractResultPacket packet) {}
+	
 }
\ No newline at end of file
@@ -0,0 +1,153 @@
+package ctf.proxy;
+
+import org.lwjgl.opengl.GL11;
+
+import ctf.blocks.Flag;
+import ctf.blocks.FlagTile;
+import net.minecraft.block.Block;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.BufferBuilder;
+import net.minecraft.client.renderer.GLAllocation;
+import net.minecraft.client.renderer.GlStateManager;
+import net.minecraft.client.renderer.Tessellator;
+import net.minecraft.client.renderer.texture.TextureAtlasSprite;
+import net.minecraft.client.renderer.texture.TextureMap;
+import net.minecraft.client.renderer.tileentity.TileEntitySpecialRenderer;
+import net.minecraft.client.renderer.vertex.DefaultVertexFormats;
+
+/**
+ * Draws the waving cloth of each flag, in the colour of its team.
+ * The cloth is a row of segments hinged at their edges, each turned a little from the last,
+ * such that a wave travels along the cloth. The segments are built once into display lists,
+ * and each flag only turns and draws them, so drawing many flags doesn't mean building many meshes.
+ * Flags further away are drawn with fewer segments, and the furthest don't wave at all.
+ * Flags out of view are skipped using the bounds given by FlagTile.
+ * @author Alec Dorrington
+ */
+public class FlagRenderer extends TileEntitySpecialRenderer<FlagTile> {
+	
+	/** The number of segments across the cloth at each level of detail, from nearest to furthest. */
+	private static final int[] SEGMENTS = {12, 4, 1};
+	
+	/** The squared distance from which each level of detail is used. */
+	private static final double[] LEVEL_DISTANCE_SQ = {0.0, 24.0 * 24.0, 48.0 * 48.0};
+	
+	/** The position of the corner of the cloth at the bottom of the pole, within the block. */
+	private static final float X = 8 / 16.0F, Y = 22 / 16.0F, Z = 9 / 16.0F;
+	
+	/** The length of the cloth away from the pole, and its height. */
+	private static final float LENGTH = 13 / 16.0F, HEIGHT = 9 / 16.0F;
+	
+	/** The greatest angle in degrees through which the cloth turns along its length. */
+	private static final float BEND = 60.0F;
+	
+	/** The speed of the wave in radians per tick, and the number of radians it spans along the cloth. */
+	private static final float SPEED = 0.2F, WAVE = 7.5F;
+	
+	/** The texture of the cloth, which is tinted to the colour of each flag. */
+	private static final String TEXTURE = "minecraft:blocks/wool_colored_white";
+	
+	/** The first of the display lists holding the segments, or -1 if they aren't yet built. */
+	private int lists = -1;
+	
+	/** The index of the display list of the first segment of each level of detail, relative to the first list. */
+	private final int[] offsets = new int[SEGMENTS.length];
+	
+	/** The texture from which the segments were built, so that they are rebuilt if the textures are reloaded. */
+	private TextureAtlasSprite sprite = null;
+	
+	{
+		for(int level = 1; level < SEGMENTS.length; level++) {
+			offsets[level] = offsets[level - 1] + SEGMENTS[level - 1];
+		}
+	}
+	
+	@Override
+	public void render(FlagTile tile, double x, double y, double z,
+			float partialTicks, int destroyStage, float alpha) {
+		
+		Block block = tile.getBlockType();
+		if(!(block instanceof Flag)) {
+			return;
+		}
+		build();
+		
+		int level = SEGMENTS.length - 1;
+		double distanceSq = x * x + y * y + z * z;
+		while(level > 0 && distanceSq < LEVEL_DISTANCE_SQ[level]) {
+			level--;
+		}
+		int segments = SEGMENTS[level];
+		
+		//Offset the wave of each flag by its position, so that neighbouring flags don't wave together.
+		float time = (tile.getWorld().getTotalWorldTime() % 1000000L + partialTicks) * SPEED
+				+ (tile.getPos().hashCode() & 0xFF) * 0.1F;
+		float[] colour = ((Flag) block).COLOUR.DYE_COLOUR.getColorComponentValues();
+		
+		bindTexture(TextureMap.LOCATION_BLOCKS_TEXTURE);
+		GlStateManager.pushMatrix();
+		GlStateManager.translate(x + X, y + Y, z + Z);
+		GlStateManager.disableCull();
+		GlStateManager.disableLighting();
+		GlStateManager.color(colour[0], colour[1], colour[2], 1.0F);
+		
+		for(int i = 0; i < segments; i++) {
+			
+			//Turn each segment about the edge it shares with the last.
+			if(segments > 1) {
+				float angle = BEND / segments * (float) Math.sin(time - WAVE * (i + 0.5F) / segments);
+				GlStateManager.rotate(angle, 0.0F, 1.0F, 0.0F);
+			}
+			GlStateManager.callList(lists + offsets[level] + i);
+			GlStateManager.translate(0.0F, 0.0F, LENGTH / segments);
+		}
+		
+		GlStateManager.color(1.0F, 1.0F, 1.0F, 1.0F);
+		GlStateManager.enableLighting();
+		GlStateManager.enableCull();
+		GlStateManager.popMatrix();
+	}
+	
+	/**
+	 * Build the display lists holding the segments of each level of detail, unless they are already built.
+	 * Each segment lies along the z axis from its hinge, with the part of the texture it shows.
+	 */
+	private void build() {
+		
+		TextureAtlasSprite current = Minecraft.getMinecraft().getTextureMapBlocks().getAtlasSprite(TEXTURE);
+		if(lists != -1 && current == sprite) {
+			return;
+		}
+		int count = offsets[SEGMENTS.length - 1] + SEGMENTS[SEGMENTS.length - 1];
+		if(lists != -1) {
+			GLAllocation.deleteDisplayLists(lists, count);
+		}
+		lists = GLAllocation.generateDisplayLists(count);
+		sprite = current;
+		
+		Tessellator tessellator = Tessellator.getInstance();
+		BufferBuilder buffer = tessellator.getBuffer();
+		float minV = sprite.getInterpolatedV(0.0), maxV = sprite.getInterpolatedV(HEIGHT * 16.0);
+		
+		for(int level = 0; level < SEGMENTS.length; level++) {
+			
+			int segments = SEGMENTS[level];
+			float length = LENGTH / segments;
+			
+			for(int i = 0; i < segments; i++) {
+				
+				float minU = sprite.getInterpolatedU(LENGTH * 16.0 * i / segments);
+				float maxU = sprite.getInterpolatedU(LENGTH * 16.0 * (i + 1) / segments);
+				
+				GlStateManager.glNewList(lists + offsets[level] + i, GL11.GL_COMPILE);
+				buffer.begin(GL11.GL_QUADS, DefaultVertexFormats.POSITION_TEX);
+				buffer.pos(0.0, 0.0, 0.0).tex(minU, maxV).endVertex();
+				buffer.pos(0.0, 0.0, length).tex(maxU, maxV).endVertex();
+				buffer.pos(0.0, HEIGHT, length).tex(maxU, minV).endVertex();
+				buffer.pos(0.0, HEIGHT, 0.0).tex(minU, minV).endVertex();
+				tessellator.draw();
+				GlStateManager.glEndList();
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package ctf.proxy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ctf.CTF;
+import ctf.network.InteractPacket;
+import ctf.network.InteractResultPacket;
+import ctf.util.Colour;
+import net.minecraft.block.Block;
+import net.minecraft.client.Minecraft;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.init.Blocks;
+import net.minecraft.scoreboard.Team;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraftforge.client.event.RenderGameOverlayEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.network.FMLNetworkEvent;
+
+/**
+ * Predicts the outcome of clicking a flag on the client, so that players on slow connections
+ * see the flag taken or captured straight away, rather than after a round trip to the server.
+ * A picked up flag is hidden and shown as carried at once, and a capture clears the carried flag.
+ * Each click is sent to the server with a sequence number, and the answer confirms or undoes the prediction.
+ * The server sends the real blocks before rejecting a click, so an undone pickup restores itself.
+ * All methods are called on the client thread.
+ * @author Alec Dorrington
+ */
+public class Predictions {
+	
+	/** The positions of the flags clicked which are yet to be answered, by sequence number. */
+	private static final Map<Integer, BlockPos> PENDING = new HashMap<>();
+	
+	/** The sequence number of the next click, which skips 0 since that marks an update from the server. */
+	private static int nextSequence = 1;
+	
+	/** The flag which the player is shown to carry, or null if they aren't shown to carry one. */
+	private static Colour carried = null;
+	
+	/**
+	 * Predict the outcome of clicking a flag, and send the click to the server.
+	 * @param colour the colour of the flag.
+	 * @param player the player who clicked the flag.
+	 * @param world the world containing the flag.
+	 * @param position the position of the flag.
+	 */
+	public static void interact(Colour colour, EntityPlayer player, World world, BlockPos position) {
+		
+		//Each flag is only clicked once until the server answers, however quickly the player clicks.
+		if(PENDING.containsValue(position)) {
+			return;
+		}
+		int sequence = nextSequence;
+		nextSequence = nextSequence == Integer.MAX_VALUE ? 1 : nextSequence + 1;
+		PENDING.put(sequence, position);
+		CTF.NETWORK.sendToServer(new InteractPacket(sequence, position));
+		
+		//The server decides whether players without a team may interact, so make no prediction.
+		Team team = player.getTeam();
+		if(team == null) {
+			return;
+		}
+		Colour playerColour = Colour.fromFormatter(team.getColor());
+		
+		//Predict picking up an enemy flag.
+		if(colour != playerColour && carried == null) {
+			hide(world, position);
+			carried = colour;
+		
+		//Predict capturing with the carried flag.
+		} else if(colour == playerColour && carried != null) {
+			carried = null;
+		}
+	}
+	
+	/**
+	 * Confirm or undo a prediction once the server has answered.
+	 * @param packet the answer from the server.
+	 */
+	public static void onResult(InteractResultPacket packet) {
+		
+		PENDING.remove(packet.getSequence());
+		
+		//Keep the predicted carried flag while other clicks are still unanswered, unless this one failed.
+		if(!packet.isAccepted() || PENDING.isEmpty()) {
+			carried = packet.getCarried();
+		}
+	}
+	
+	/**
+	 * Forget all predictions. Called when leaving a server.
+	 */
+	public static void clear() {
+		PENDING.clear();
+		carried = null;
+	}
+	
+	/** Shows the carried flag alongside the other text in the corner of the screen. */
+	@SubscribeEvent
+	public void onRenderText(RenderGameOverlayEvent.Text event) {
+		
+		if(carried != null) {
+			event.getLeft().add(carried.FORMATTER + "Carrying the " + carried.DISPLAY_NAME + " flag");
+		}
+	}
+	
+	/** Forgets all predictions when leaving a server. Fired on the network thread. */
+	@SubscribeEvent
+	public void onDisconnect(FMLNetworkEvent.ClientDisconnectionFromServerEvent event) {
+		Minecraft.getMinecraft().addScheduledTask(Predictions::clear);
+	}
+	
+	/**
+	 * Hide a flag on the client only, until the server either removes it or sends it back.
+	 * @param world the world containing the flag.
+	 * @param position the position of the flag.
+	 */
+	private static void hide(World world, BlockPos position) {
+		
+		//Find the bottom of the flag, then hide every flag block of the same colour above it.
+		Block block = world.getBlockState(position).getBlock();
+		BlockPos pos = position;
+		while(world.getBlockState(pos.down()).getBlock() == block) {
+			pos = pos.down();
+		}
+		for(; world.getBlockState(pos).getBlock() == block; pos = pos.up()) {
+			world.setBlockState(pos, Blocks.AIR.getDefaultState());
+		}
+	}
+}
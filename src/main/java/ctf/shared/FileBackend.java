@@ -0,0 +1,605 @@
+package ctf.shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import ctf.CTF;
+import ctf.CTFConfig;
+import ctf.util.Values;
+
+/**
+ * Shares the values of one event between several servers through a file which they can all reach,
+ * such as on a shared drive, or simply on the same machine.
+ * Values are still kept by each server, normally in its scoreboard, which also acts as a cache of the shared values.
+ *
+ * The file is a log of changes and events, appended to by each server in turn while holding a lock on the file.
+ * Every so often each server takes the lock, reads what the other servers have appended since it last looked,
+ * then appends its own changes since then as one batch. Each value carries a version which increases with every
+ * change, so the order of the log decides which change wins, and reading the same change twice does nothing.
+ * Additions are kept apart from the value they were added to until they are written, so that if another server
+ * changed the value in the meantime, they are added to its change instead, and no addition is ever lost.
+ * Claims read and write while holding the lock, so only one server can succeed.
+ * The server thread never waits long for the lock: if another server holds it, the exchange is tried again
+ * on the next tick, and a claim waits only briefly before giving up, as though someone else had claimed the value.
+ * Once the log grows too large, it is rewritten to hold the latest version of each value,
+ * followed by whatever some server has yet to read. The header records how far each server has read,
+ * so that no server misses an event, unless it hasn't read the log for so long that it is assumed to be gone.
+ * A server which is new, restarted or assumed to be gone reads only the values, not the events sent before it joined.
+ * @author Alec Dorrington
+ */
+public class FileBackend implements StateBackend {
+	
+	/** Marks the start of a shared state file. */
+	private static final int MAGIC = 0x43544653;
+	
+	/** The greatest number of servers which can share one file. */
+	private static final int MAX_SERVERS = 16;
+	
+	/** The position in the header of the entries for each server, which follow the magic number and the generation. */
+	private static final int ENTRIES = 12;
+	
+	/** The length of the entry for each server in the header: its ID plus 1, how far it has read, and when. */
+	private static final int READER = 20;
+	
+	/** The length of the header. */
+	private static final int HEADER = ENTRIES + MAX_SERVERS * READER;
+	
+	/** The time in milliseconds after which a server which hasn't read the log is assumed to be gone. */
+	private static final long READER_TIMEOUT = 60000;
+	
+	/** The types of record in the log. */
+	private static final byte SET = 0, EVENT = 1;
+	
+	/** The size in bytes past which the log is rewritten. */
+	private static final long COMPACT_SIZE = 1 << 20;
+	
+	/** The number of milliseconds for which a claim waits for the lock before giving up. */
+	private static final long CLAIM_WAIT = 50;
+	
+	/** The number of milliseconds for which the last exchange waits for the lock when the server stops. */
+	private static final long CLOSE_WAIT = 2000;
+	
+	/** The backend in which this server keeps the values. */
+	private final StateBackend local;
+	
+	/** The file holding the log. */
+	private final File file;
+	
+	/** The ID of this server, which is different for each server sharing the file. */
+	private final int server;
+	
+	/** The open file. */
+	private final FileChannel channel;
+	
+	/** Identifies the records written by this server, which is new each time the server starts. */
+	private final String origin = UUID.randomUUID().toString();
+	
+	/** The number of times the log had been rewritten when it was last read, or -1 if it hasn't been read. */
+	private long generation = -1;
+	
+	/** The position in the log up to which it has been read. */
+	private long offset = HEADER;
+	
+	/** The entry of each server in the header, as read at the start of the last exchange. */
+	private final int[] readerIds = new int[MAX_SERVERS];
+	private final long[] readerOffsets = new long[MAX_SERVERS], readerTimes = new long[MAX_SERVERS];
+	
+	/** The latest version of each value which has been read or written, by name. */
+	private final Map<String, Long> versions = new HashMap<>();
+	
+	/** Values changed by this server which are yet to be written, by name. */
+	private final Map<String, Integer> changes = new LinkedHashMap<>();
+	
+	/** The amounts added to values by this server which are yet to be written, by name. */
+	private final Map<String, Integer> additions = new HashMap<>();
+	
+	/** Events published by this server which are yet to be written, as channel and payload. */
+	private final List<String[]> outgoing = new ArrayList<>();
+	
+	/** Events read from the log which are yet to be delivered, as channel and payload. */
+	private final List<String[]> incoming = new ArrayList<>();
+	
+	/** The listeners to events, by channel. */
+	private final Map<String, List<Consumer<String>>> listeners = new HashMap<>();
+	
+	/** The number of ticks since the last exchange. */
+	private int ticks = 0;
+	
+	/** Whether the last exchange failed, such that repeated failures are only logged once. */
+	private boolean failing = false;
+	
+	/** Whether there was no room for this server in the header, such that it is only logged once. */
+	private boolean unlisted = false;
+	
+	/**
+	 * Open the shared state file, creating it if it doesn't exist.
+	 * The values are first brought up to date on the next exchange.
+	 * @param file the file through which the servers share their state.
+	 * @param server the ID of this server, which must be different for each server sharing the file.
+	 * @param local the backend in which this server keeps the values, whose events go nowhere.
+	 * @throws IOException if the file can't be opened.
+	 */
+	public FileBackend(File file, int server, StateBackend local) throws IOException {
+		this.local = local;
+		this.file = file;
+		this.server = server;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+	}
+	
+	@Override
+	public int get(String name) {
+		return local.get(name);
+	}
+	
+	@Override
+	public void set(String name, int value) {
+		local.set(name, value);
+		changes.put(name, value);
+		additions.remove(name);
+	}
+	
+	@Override
+	public int add(String name, int amount) {
+		
+		int value = local.get(name) + amount;
+		local.set(name, value);
+		changes.put(name, value);
+		additions.merge(name, amount, Integer::sum);
+		return value;
+	}
+	
+	@Override
+	public boolean claim(String name, int expected, int value) {
+		
+		try {
+			return exchange(name, expected, value, CLAIM_WAIT);
+		} catch(IOException e) {
+			fail(e);
+			return false;
+		}
+	}
+	
+	@Override
+	public List<String> getNames(String prefix) {
+		return local.getNames(prefix);
+	}
+	
+	@Override
+	public void publish(String channel, String payload) {
+		outgoing.add(new String[] {channel, payload});
+	}
+	
+	@Override
+	public void subscribe(String channel, Consumer<String> listener) {
+		listeners.computeIfAbsent(channel, c -> new ArrayList<>()).add(listener);
+	}
+	
+	@Override
+	public void tick() {
+		
+		//If another server holds the lock, try again next tick.
+		if((generation == -1 || ++ticks >= CTFConfig.shared.interval) && sync(0)) {
+			ticks = 0;
+		}
+	}
+	
+	@Override
+	public void close() {
+		
+		if(!sync(CLOSE_WAIT)) {
+			CTF.LOGGER.warn("Unable to share the last changes to the CTF state, since " + file + " is busy.");
+		}
+		try {
+			channel.close();
+		} catch(IOException e) {
+			CTF.LOGGER.warn("Unable to close the shared CTF state.", e);
+		}
+	}
+	
+	/**
+	 * Exchange changes and events with the other servers, then deliver the events which were read.
+	 * @param wait the number of milliseconds to wait for the lock, if another server holds it.
+	 * @return whether the changes were exchanged, or were given up on because the file can't be reached.
+	 */
+	private boolean sync(long wait) {
+		
+		boolean exchanged = true;
+		try {
+			exchanged = exchange(null, 0, 0, wait);
+		} catch(IOException e) {
+			fail(e);
+		}
+		
+		//Deliver events once the lock is released, so that other servers aren't kept waiting.
+		//Events read during a claim wait until here too, rather than running in the middle of the claim.
+		for(String[] event : incoming) {
+			for(Consumer<String> listener : listeners.getOrDefault(event[0], Collections.emptyList())) {
+				listener.accept(event[1]);
+			}
+		}
+		incoming.clear();
+		return exchanged;
+	}
+	
+	/**
+	 * Read the changes made by the other servers, then write the changes made by this server,
+	 * all while holding the lock on the file. Optionally claim a value in between.
+	 * @param claim the name of the value to claim, or null to claim nothing.
+	 * @param expected the value which the claimed value must currently hold.
+	 * @param value the new value of the claimed value.
+	 * @param wait the number of milliseconds to wait for the lock, if another server holds it.
+	 * @return whether the lock was taken and, if a value was to be claimed, whether it was claimed.
+	 * @throws IOException if the file can't be read or written.
+	 */
+	private boolean exchange(String claim, int expected, int value, long wait) throws IOException {
+		
+		FileLock lock = lock(wait);
+		if(lock == null) {
+			return false;
+		}
+		
+		boolean claimed = false;
+		try {
+			
+			read();
+			
+			//Every change before this one has been read, and nothing can be written until the lock is released.
+			if(claim != null && local.get(claim) == expected) {
+				set(claim, value);
+				claimed = true;
+			}
+			
+			write();
+			list();
+			if(channel.size() > COMPACT_SIZE) {
+				compact();
+			}
+		
+		} finally {
+			lock.release();
+		}
+		
+		if(failing) {
+			CTF.LOGGER.info("Sharing the CTF state through " + file + " again.");
+			failing = false;
+		}
+		return claim == null || claimed;
+	}
+	
+	/**
+	 * Take the lock on the file, waiting a limited time if another server holds it.
+	 * @param wait the number of milliseconds to wait.
+	 * @return the lock, or null if it wasn't taken in time.
+	 * @throws IOException if the file can't be locked.
+	 */
+	private FileLock lock(long wait) throws IOException {
+		
+		long deadline = System.nanoTime() + wait * 1000000L;
+		while(true) {
+			
+			//Another backend in this process holding the lock counts the same as another server.
+			FileLock lock;
+			try {
+				lock = channel.tryLock();
+			} catch(OverlappingFileLockException e) {
+				lock = null;
+			}
+			if(lock != null || System.nanoTime() >= deadline) {
+				return lock;
+			}
+			try {
+				Thread.sleep(1);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+	}
+	
+	/**
+	 * Read and apply everything appended to the log since it was last read.
+	 * @throws IOException if the log can't be read.
+	 */
+	private void read() throws IOException {
+		
+		long size = channel.size();
+		
+		//Start a new log if there isn't one yet.
+		if(size < HEADER) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			header.putInt(MAGIC).putLong(0).position(HEADER);
+			header.flip();
+			channel.truncate(0);
+			writeFully(header, 0);
+			generation = 0;
+			offset = HEADER;
+			Arrays.fill(readerIds, 0);
+			return;
+		}
+		
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		readFully(header, 0);
+		header.flip();
+		if(header.getInt() != MAGIC) {
+			throw new IOException(file + " isn't a shared CTF state file.");
+		}
+		long current = header.getLong();
+		for(int i = 0; i < MAX_SERVERS; i++) {
+			readerIds[i] = header.getInt();
+			readerOffsets[i] = header.getLong();
+			readerTimes[i] = header.getLong();
+		}
+		
+		//If another server has rewritten the log, carry on from where it says this server was up to.
+		//When first opened, or if this server was assumed to be gone, read the values again from the start,
+		//but not the events, which were meant for the servers present when they were sent.
+		boolean events = true;
+		if(current != generation) {
+			int entry = generation == -1 ? -1 : findEntry();
+			events = entry != -1 && readerOffsets[entry] >= HEADER;
+			offset = events ? readerOffsets[entry] : HEADER;
+			generation = current;
+		}
+		if(size <= offset) {
+			return;
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocate((int) (size - offset));
+		readFully(buffer, offset);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+		
+		boolean changed = false;
+		while(in.available() > 0) {
+			
+			byte type = in.readByte();
+			String from = in.readUTF();
+			
+			if(type == SET) {
+				
+				String name = in.readUTF();
+				long version = in.readLong();
+				int value = in.readInt();
+				
+				if(version > versions.getOrDefault(name, 0L)) {
+					versions.put(name, version);
+					
+					//Additions waiting to be written by this server are added to the change instead.
+					Integer added = additions.get(name);
+					if(added != null) {
+						local.set(name, value + added);
+						changes.put(name, value + added);
+						changed = true;
+					
+					//Any other change waiting to be written by this server will follow this one in the log, so it wins.
+					} else if(!changes.containsKey(name) && local.get(name) != value) {
+						local.set(name, value);
+						changed = true;
+					}
+				}
+			
+			} else if(type == EVENT) {
+				
+				String channel = in.readUTF(), payload = in.readUTF();
+				if(events && !from.equals(origin)) {
+					incoming.add(new String[] {channel, payload});
+				}
+			
+			} else {
+				throw new IOException("Unknown record type " + type + " in " + file + ".");
+			}
+		}
+		offset = size;
+		
+		if(changed) {
+			Values.markRemoteChanged();
+		}
+	}
+	
+	/**
+	 * Append the changes and events of this server to the log, as a single batch.
+	 * @throws IOException if the log can't be written.
+	 */
+	private void write() throws IOException {
+		
+		if(changes.isEmpty() && outgoing.isEmpty()) {
+			return;
+		}
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		for(Map.Entry<String, Integer> change : changes.entrySet()) {
+			long version = versions.getOrDefault(change.getKey(), 0L) + 1;
+			versions.put(change.getKey(), version);
+			writeSet(out, change.getKey(), version, change.getValue());
+		}
+		
+		for(String[] event : outgoing) {
+			out.writeByte(EVENT);
+			out.writeUTF(origin);
+			out.writeUTF(event[0]);
+			out.writeUTF(event[1]);
+		}
+		
+		writeFully(ByteBuffer.wrap(bytes.toByteArray()), offset);
+		offset += bytes.size();
+		changes.clear();
+		additions.clear();
+		outgoing.clear();
+	}
+	
+	/**
+	 * Record in the header that this server has read the whole log, taking an entry if it doesn't have one.
+	 * @throws IOException if the header can't be written.
+	 */
+	private void list() throws IOException {
+		
+		long now = System.currentTimeMillis();
+		int entry = findEntry();
+		
+		//Take the first free entry, or that of a server which is assumed to be gone.
+		for(int i = 0; i < MAX_SERVERS && entry == -1; i++) {
+			if(readerIds[i] == 0 || now - readerTimes[i] > READER_TIMEOUT) {
+				entry = i;
+			}
+		}
+		if(entry == -1) {
+			if(!unlisted) {
+				CTF.LOGGER.warn("More than " + MAX_SERVERS + " servers are sharing " + file
+						+ ". Events may be lost when it is rewritten.");
+				unlisted = true;
+			}
+			return;
+		}
+		
+		readerIds[entry] = server + 1;
+		readerOffsets[entry] = offset;
+		readerTimes[entry] = now;
+		ByteBuffer buffer = ByteBuffer.allocate(READER);
+		buffer.putInt(server + 1).putLong(offset).putLong(now).flip();
+		writeFully(buffer, ENTRIES + entry * READER);
+	}
+	
+	/**
+	 * @return the index of the entry of this server in the header, or -1 if it has none.
+	 */
+	private int findEntry() {
+		
+		for(int i = 0; i < MAX_SERVERS; i++) {
+			if(readerIds[i] == server + 1) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Rewrite the log to hold the latest version of each value, followed by everything
+	 * which any server still present has yet to read. The entry of each server is moved
+	 * to match, so other servers notice the new generation and carry on from where they were.
+	 * Servers which are assumed to be gone lose their entries, and read the log again from the start.
+	 * Nothing is done if too much of the log is still unread, since there would be little to gain.
+	 * @throws IOException if the log can't be written.
+	 */
+	private void compact() throws IOException {
+		
+		long now = System.currentTimeMillis(), size = channel.size(), unread = size;
+		for(int i = 0; i < MAX_SERVERS; i++) {
+			if(readerIds[i] != 0 && now - readerTimes[i] <= READER_TIMEOUT) {
+				unread = Math.min(unread, Math.max(readerOffsets[i], HEADER));
+			}
+		}
+		if(size - unread > COMPACT_SIZE / 2) {
+			return;
+		}
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.write(new byte[HEADER]);
+		for(Map.Entry<String, Long> version : versions.entrySet()) {
+			writeSet(out, version.getKey(), version.getValue(), local.get(version.getKey()));
+		}
+		long start = bytes.size();
+		
+		//Move the entry of each server still present to the same place in what is carried over.
+		ByteBuffer header = ByteBuffer.wrap(bytes.toByteArray(), 0, HEADER);
+		header.putInt(MAGIC).putLong(generation + 1);
+		for(int i = 0; i < MAX_SERVERS; i++) {
+			boolean present = readerIds[i] != 0 && now - readerTimes[i] <= READER_TIMEOUT;
+			if(!present) {
+				readerIds[i] = 0;
+				readerTimes[i] = 0;
+			}
+			readerOffsets[i] = present ? start + Math.max(readerOffsets[i], HEADER) - unread : 0;
+			header.putInt(readerIds[i]).putLong(readerOffsets[i]).putLong(readerTimes[i]);
+		}
+		
+		ByteBuffer carried = ByteBuffer.allocate((int) (size - unread));
+		readFully(carried, unread);
+		carried.flip();
+		
+		channel.truncate(0);
+		writeFully(ByteBuffer.wrap(header.array(), 0, (int) start), 0);
+		writeFully(carried, start);
+		generation++;
+		offset = start + size - unread;
+	}
+	
+	/**
+	 * Write a change to a value.
+	 * @param out the stream to write to.
+	 * @param name the name of the value.
+	 * @param version the version of the value.
+	 * @param value the value.
+	 * @throws IOException if the change can't be written.
+	 */
+	private void writeSet(DataOutputStream out, String name, long version, int value) throws IOException {
+		out.writeByte(SET);
+		out.writeUTF(origin);
+		out.writeUTF(name);
+		out.writeLong(version);
+		out.writeInt(value);
+	}
+	
+	/**
+	 * Fill a buffer from the file.
+	 * @param buffer the buffer to fill.
+	 * @param position the position in the file from which to read.
+	 * @throws IOException if the file ends before the buffer is full.
+	 */
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of " + file + ".");
+			}
+		}
+	}
+	
+	/**
+	 * Write the whole of a buffer to the file.
+	 * @param buffer the buffer to write.
+	 * @param position the position in the file at which to write.
+	 * @throws IOException if the file can't be written.
+	 */
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		
+		while(buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+	
+	/**
+	 * Record that an exchange failed. Changes are kept until they can be written, but events are dropped.
+	 * @param e the cause of the failure.
+	 */
+	private void fail(IOException e) {
+		
+		if(!failing) {
+			CTF.LOGGER.error("Unable to share the CTF state through " + file
+					+ ". Changes will be shared once it is available again.", e);
+			failing = true;
+		}
+		outgoing.clear();
+		incoming.clear();
+	}
+}
@@ -0,0 +1,82 @@
+package ctf.shared;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import ctf.CTF;
+import ctf.ServerContext;
+import net.minecraft.scoreboard.Score;
+
+/**
+ * Keeps the values of a single server in the scoreboard, such that they are saved with the world.
+ * There are no other servers, so claims always succeed when the value matches, and events go nowhere.
+ * @author Alec Dorrington
+ */
+public class LocalBackend implements StateBackend {
+	
+	/** The name of the data objective. Used to store all the values. */
+	private static final String DATA = CTF.MODID + "_data";
+	
+	@Override
+	public int get(String name) {
+		return getScore(name).getScorePoints();
+	}
+	
+	@Override
+	public void set(String name, int value) {
+		getScore(name).setScorePoints(value);
+	}
+	
+	@Override
+	public int add(String name, int amount) {
+		int value = get(name) + amount;
+		set(name, value);
+		return value;
+	}
+	
+	@Override
+	public boolean claim(String name, int expected, int value) {
+		
+		//Everything happens on the server thread, so nothing can change the value in between.
+		if(get(name) != expected) {
+			return false;
+		}
+		set(name, value);
+		return true;
+	}
+	
+	@Override
+	public List<String> getNames(String prefix) {
+		
+		List<String> names = new ArrayList<>();
+		ServerContext context = ServerContext.get();
+		for(Score score : context.getScoreboard().getSortedScores(context.getObjective(DATA))) {
+			if(score.getPlayerName().startsWith(prefix)) {
+				names.add(score.getPlayerName());
+			}
+		}
+		return names;
+	}
+	
+	@Override
+	public void publish(String channel, String payload) {}
+	
+	@Override
+	public void subscribe(String channel, Consumer<String> listener) {}
+	
+	@Override
+	public void tick() {}
+	
+	@Override
+	public void close() {}
+	
+	/**
+	 * @param name the normalised name of a value.
+	 * @return the score holding the value, which is created if it doesn't yet exist.
+	 */
+	private static Score getScore(String name) {
+		ServerContext context = ServerContext.get();
+		return context.getScoreboard().getOrCreateScore(name, context.getObjective(DATA));
+	}
+}
@@ -0,0 +1,77 @@
+package ctf.shared;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Storage for the values of the flag event, and a bus for events shared between servers.
+ * A single server keeps its values in the scoreboard, while servers sharing one event
+ * also exchange their changes and events with each other.
+ * All methods are called on the server thread.
+ * @author Alec Dorrington
+ */
+public interface StateBackend {
+	
+	/**
+	 * @param name the normalised name of a value.
+	 * @return the value, or 0 if it doesn't yet exist.
+	 */
+	int get(String name);
+	
+	/**
+	 * Set a value, which is shared with any other servers shortly after.
+	 * @param name the normalised name of the value.
+	 * @param value the new value.
+	 */
+	void set(String name, int value);
+	
+	/**
+	 * Add to a value, which is shared with any other servers shortly after.
+	 * Unlike setting the value to a sum, additions made by several servers at once are all kept.
+	 * @param name the normalised name of the value.
+	 * @param amount the amount to add.
+	 * @return the new value.
+	 */
+	int add(String name, int amount);
+	
+	/**
+	 * Set a value only if it currently holds the expected value, as one atomic step across every server.
+	 * Used to take ownership of something which only one server may have, such as a flag.
+	 * @param name the normalised name of the value.
+	 * @param expected the value which it must currently hold.
+	 * @param value the new value.
+	 * @return whether the value was set.
+	 */
+	boolean claim(String name, int expected, int value);
+	
+	/**
+	 * @param prefix the start of the normalised names to find.
+	 * @return the names of all existing values which start with the prefix.
+	 */
+	List<String> getNames(String prefix);
+	
+	/**
+	 * Send an event to every other server. The event isn't delivered to this server.
+	 * @param channel the channel on which to send the event.
+	 * @param payload the content of the event.
+	 */
+	void publish(String channel, String payload);
+	
+	/**
+	 * Listen for events sent by other servers. Listeners are called on the server thread.
+	 * @param channel the channel on which to listen.
+	 * @param listener called with the content of each event.
+	 */
+	void subscribe(String channel, Consumer<String> listener);
+	
+	/**
+	 * Exchange changes and events with the other servers, if it is time to.
+	 * To be called once per server tick.
+	 */
+	void tick();
+	
+	/**
+	 * Send any remaining changes and release the backend. Called when the server stops.
+	 */
+	void close();
+}
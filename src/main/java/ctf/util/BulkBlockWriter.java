@@ -0,0 +1,158 @@
+package ctf.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.network.Packet;
+import net.minecraft.network.play.server.SPacketChunkData;
+import net.minecraft.network.play.server.SPacketMultiBlockChange;
+import net.minecraft.server.management.PlayerChunkMapEntry;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+/**
+ * Changes many blocks at once, without the cost of World.setBlockState.
+ * Blocks are written straight into the chunk storage, without neighbour updates or lighting checks.
+ * When flushed, the sky light of each changed chunk is recalculated once, and the light around
+ * each change that could affect it is checked: each block which gives off light or stops giving it off,
+ * and the highest change in opacity in each column, from which sky light spreads sideways.
+ * A single packet is then sent to the players watching each changed chunk.
+ * Only suitable for blocks without behaviour on placement, such as flags.
+ * Tile entities are created and removed along with their blocks, but start out empty.
+ * @author Alec Dorrington
+ */
+public class BulkBlockWriter {
+	
+	/** Beyond this many changes in one chunk, the whole chunk is resent, as vanilla does. */
+	private static final int MAX_MULTI_BLOCK_CHANGES = 64;
+	
+	/** The changes in a single chunk. */
+	private static class ChunkChanges {
+		
+		final World world;
+		final Chunk chunk;
+		
+		/** The changed positions within the chunk, packed as used by SPacketMultiBlockChange, each only once. */
+		final Set<Short> offsets = new LinkedHashSet<>();
+		
+		/**
+		 * The changed positions whose light needs checking. The highest change in opacity in each column
+		 * is keyed by its column (below 256), and each change to a light source by its packed position (above).
+		 */
+		final Map<Integer, BlockPos> relights = new HashMap<>();
+		
+		ChunkChanges(World world, Chunk chunk) {
+			this.world = world;
+			this.chunk = chunk;
+		}
+	}
+	
+	/** The changes in each chunk, by dimension, then by chunk key. */
+	private final Map<Integer, Map<Long, ChunkChanges>> changes = new HashMap<>();
+	
+	/**
+	 * Change a block. The change is seen straight away by World.getBlockState,
+	 * but lighting and clients aren't updated until the writer is flushed.
+	 * @param world the world containing the block.
+	 * @param position the position of the block.
+	 * @param state the new block state.
+	 */
+	public void set(World world, BlockPos position, IBlockState state) {
+		
+		if(position.getY() < 0 || position.getY() >= world.getHeight()) {
+			return;
+		}
+		Chunk chunk = world.getChunkFromBlockCoords(position);
+		ExtendedBlockStorage[] sections = chunk.getBlockStorageArray();
+		int section = position.getY() >> 4;
+		int x = position.getX() & 15, y = position.getY() & 15, z = position.getZ() & 15;
+		
+		//Create the section if it is empty.
+		if(sections[section] == Chunk.NULL_BLOCK_STORAGE) {
+			if(state.getBlock().isAir(state, world, position)) {
+				return;
+			}
+			sections[section] = new ExtendedBlockStorage(section << 4, world.provider.hasSkyLight());
+		}
+		IBlockState previous = sections[section].get(x, y, z);
+		if(previous == state) {
+			return;
+		}
+		sections[section].set(x, y, z, state);
+		chunk.markDirty();
+		
+		//Keep tile entities in step with their blocks, such that clients receive them with the chunk.
+		if(previous.getBlock().hasTileEntity(previous)) {
+			world.removeTileEntity(position);
+		}
+		if(state.getBlock().hasTileEntity(state)) {
+			world.setTileEntity(position, state.getBlock().createTileEntity(world, state));
+		}
+		
+		ChunkChanges changed = changes.computeIfAbsent(world.provider.getDimension(), d -> new HashMap<>())
+			.computeIfAbsent(ChunkKeys.of(chunk), k -> new ChunkChanges(world, chunk));
+		changed.offsets.add((short) (x << 12 | z << 8 | position.getY()));
+		
+		//Light sources are checked wherever they are, but only the highest change in opacity of each column.
+		if(previous.getLightValue(world, position) != state.getLightValue(world, position)) {
+			changed.relights.put(x << 12 | z << 8 | position.getY() | 1 << 16, position);
+		
+		} else if(previous.getLightOpacity(world, position) != state.getLightOpacity(world, position)) {
+			BlockPos highest = changed.relights.get(x << 4 | z);
+			if(highest == null || highest.getY() < position.getY()) {
+				changed.relights.put(x << 4 | z, position);
+			}
+		}
+	}
+	
+	/**
+	 * Recalculate the lighting of every changed chunk, and send the changes to the players watching them.
+	 * Light is only checked where it could have changed, rather than at every changed block.
+	 */
+	public void flush() {
+		
+		for(Map<Long, ChunkChanges> chunks : changes.values()) {
+			for(ChunkChanges changed : chunks.values()) {
+				
+				Chunk chunk = changed.chunk;
+				chunk.generateSkylightMap();
+				for(BlockPos position : changed.relights.values()) {
+					changed.world.checkLight(position);
+				}
+				
+				if(changed.world instanceof WorldServer) {
+					
+					PlayerChunkMapEntry entry = ((WorldServer) changed.world)
+							.getPlayerChunkMap().getEntry(chunk.x, chunk.z);
+					if(entry != null) {
+						entry.sendPacket(createPacket(changed));
+					}
+				}
+			}
+		}
+		changes.clear();
+	}
+	
+	/**
+	 * @param changed the changes in a chunk.
+	 * @return a packet sending the changes to clients.
+	 */
+	private static Packet<?> createPacket(ChunkChanges changed) {
+		
+		if(changed.offsets.size() > MAX_MULTI_BLOCK_CHANGES) {
+			return new SPacketChunkData(changed.chunk, 0xFFFF);
+		}
+		short[] offsets = new short[changed.offsets.size()];
+		int i = 0;
+		for(short offset : changed.offsets) {
+			offsets[i++] = offset;
+		}
+		return new SPacketMultiBlockChange(offsets.length, offsets, changed.chunk);
+	}
+}
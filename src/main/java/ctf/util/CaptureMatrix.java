@@ -0,0 +1,211 @@
+package ctf.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import ctf.CTF;
+import ctf.ServerContext;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.storage.WorldSavedData;
+
+/**
+ * Stores the number of times each team has captured each other team's flag.
+ * Held in memory as a dense matrix indexed by colour ordinal,
+ * and saved to the world file as a single array.
+ * Every change is also made to the values, through which it is shared with any other servers,
+ * and the matrix is read again from the values whenever other servers have changed them.
+ * @author Alec Dorrington
+ */
+public class CaptureMatrix extends WorldSavedData {
+	
+	/** The name under which the matrix is saved. */
+	private static final String NAME = CTF.MODID + "_captures";
+	
+	/** The number of possible team colours. */
+	private static final int SIZE = Colour.values().length;
+	
+	/** All colours, indexed by ordinal. */
+	private static final Colour[] COLOURS = Colour.values();
+	
+	/** The number of times each team (row) has captured each flag (column). */
+	private final int[][] captures = new int[SIZE][SIZE];
+	
+	/** The total number of captures made by each team. */
+	private final int[] totals = new int[SIZE];
+	
+	/** The remote change count when the matrix was last read from the values. */
+	private int loadedRemoteCount = Values.getRemoteCount();
+	
+	/**
+	 * Constructor used by Minecraft when loading the matrix from the world file.
+	 * @param name the name of the saved data.
+	 */
+	public CaptureMatrix(String name) {
+		super(name);
+	}
+	
+	/**
+	 * Returns the number of times a team has captured a flag.
+	 * @param team the colour of the capturing team.
+	 * @param flag the colour of the captured flag.
+	 * @return the number of captures.
+	 */
+	public static int get(Colour team, Colour flag) {
+		return get().captures[team.ordinal()][flag.ordinal()];
+	}
+	
+	/**
+	 * Overwrite the number of times a team has captured a flag.
+	 * @param team the colour of the capturing team.
+	 * @param flag the colour of the captured flag.
+	 * @param captures the new number of captures.
+	 */
+	public static void set(Colour team, Colour flag, int captures) {
+		
+		CaptureMatrix matrix = get();
+		int[] row = matrix.captures[team.ordinal()];
+		matrix.totals[team.ordinal()] += captures - row[flag.ordinal()];
+		row[flag.ordinal()] = captures;
+		matrix.markDirty();
+		Values.setInteger(getName(team, flag), captures);
+		Values.markChanged();
+	}
+	
+	/**
+	 * Increase the number of times a team has captured a flag by 1.
+	 * @param team the colour of the capturing team.
+	 * @param flag the colour of the captured flag.
+	 * @return the new number of captures.
+	 */
+	public static int increment(Colour team, Colour flag) {
+		
+		CaptureMatrix matrix = get();
+		matrix.totals[team.ordinal()]++;
+		matrix.markDirty();
+		Values.increment(getName(team, flag), 1);
+		Values.markChanged();
+		return ++matrix.captures[team.ordinal()][flag.ordinal()];
+	}
+	
+	/**
+	 * Reset all capture counts to 0, ready for the next event.
+	 */
+	public static void reset() {
+		
+		CaptureMatrix matrix = get();
+		for(int i = 0; i < SIZE; i++) {
+			for(int j = 0; j < SIZE; j++) {
+				
+				//Only counts which were ever changed exist in the values.
+				if(matrix.captures[i][j] != 0) {
+					Values.setInteger(getName(COLOURS[i], COLOURS[j]), 0);
+					matrix.captures[i][j] = 0;
+				}
+			}
+		}
+		Arrays.fill(matrix.totals, 0);
+		matrix.markDirty();
+		Values.markChanged();
+	}
+	
+	/**
+	 * Returns the total number of flags a team has captured.
+	 * @param team the colour of the team.
+	 * @return the number of captures.
+	 */
+	public static int getTotal(Colour team) {
+		return get().totals[team.ordinal()];
+	}
+	
+	/**
+	 * Returns the number of enemy flags which a team can still capture.
+	 * @param team the colour of the team.
+	 * @param enemies the colours of the other teams.
+	 * @param maxCaptures the maximum number of times each flag may be captured.
+	 * @return the number of flags which haven't yet been captured the maximum number of times.
+	 */
+	public static int getRemaining(Colour team, Collection<Colour> enemies, int maxCaptures) {
+		
+		int[] row = get().captures[team.ordinal()];
+		int remaining = 0;
+		
+		for(Colour enemy : enemies) {
+			if(enemy != team && row[enemy.ordinal()] < maxCaptures) {
+				remaining++;
+			}
+		}
+		return remaining;
+	}
+	
+	@Override
+	public void readFromNBT(NBTTagCompound nbt) {
+		
+		int[] flat = nbt.getIntArray("captures");
+		Arrays.fill(totals, 0);
+		
+		//The matrix is stored as a flattened array, row by row.
+		for(int i = 0; i < SIZE; i++) {
+			for(int j = 0; j < SIZE; j++) {
+				captures[i][j] = i * SIZE + j < flat.length ? flat[i * SIZE + j] : 0;
+				totals[i] += captures[i][j];
+			}
+		}
+	}
+	
+	@Override
+	public NBTTagCompound writeToNBT(NBTTagCompound nbt) {
+		
+		int[] flat = new int[SIZE * SIZE];
+		for(int i = 0; i < SIZE; i++) {
+			System.arraycopy(captures[i], 0, flat, i * SIZE, SIZE);
+		}
+		nbt.setIntArray("captures", flat);
+		return nbt;
+	}
+	
+	/**
+	 * Read the counts of the current teams from the values, in which other servers have changed them.
+	 */
+	private void load() {
+		
+		List<Colour> colours = Teams.getColours();
+		for(Colour team : colours) {
+			for(Colour flag : colours) {
+				if(team != flag) {
+					captures[team.ordinal()][flag.ordinal()] = Values.getInteger(getName(team, flag));
+				}
+			}
+		}
+		for(int i = 0; i < SIZE; i++) {
+			totals[i] = 0;
+			for(int j = 0; j < SIZE; j++) {
+				totals[i] += captures[i][j];
+			}
+		}
+		loadedRemoteCount = Values.getRemoteCount();
+		markDirty();
+	}
+	
+	/**
+	 * @param team the colour of the capturing team.
+	 * @param flag the colour of the captured flag.
+	 * @return the name of the value through which the count is shared.
+	 */
+	private static String getName(Colour team, Colour flag) {
+		return "ctf:num_captures(" + team.UNLOCALISED_NAME + "," + flag.UNLOCALISED_NAME + ")";
+	}
+	
+	/**
+	 * Get the matrix for the current world, loading or creating it if necessary.
+	 * @return the capture matrix, brought up to date with any changes by other servers.
+	 */
+	private static CaptureMatrix get() {
+		
+		CaptureMatrix matrix = ServerContext.get().getData(NAME, CaptureMatrix.class, CaptureMatrix::new);
+		if(matrix.loadedRemoteCount != Values.getRemoteCount()) {
+			matrix.load();
+		}
+		return matrix;
+	}
+}
@@ -0,0 +1,53 @@
+package ctf.util;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.chunk.Chunk;
+
+/**
+ * Packs chunk coordinates into a single long, for use as a map key.
+ * Keys are only unique within a single dimension.
+ * @author Alec Dorrington
+ */
+public class ChunkKeys {
+	
+	/**
+	 * @param chunkX the x coordinate of the chunk.
+	 * @param chunkZ the z coordinate of the chunk.
+	 * @return the key of the chunk.
+	 */
+	public static long of(int chunkX, int chunkZ) {
+		return (long) chunkX & 0xFFFFFFFFL | ((long) chunkZ & 0xFFFFFFFFL) << 32;
+	}
+	
+	/**
+	 * @param position a block position.
+	 * @return the key of the chunk containing the position.
+	 */
+	public static long of(BlockPos position) {
+		return of(position.getX() >> 4, position.getZ() >> 4);
+	}
+	
+	/**
+	 * @param chunk a chunk.
+	 * @return the key of the chunk.
+	 */
+	public static long of(Chunk chunk) {
+		return of(chunk.x, chunk.z);
+	}
+	
+	/**
+	 * @param key a chunk key.
+	 * @return the x coordinate of the chunk.
+	 */
+	public static int getX(long key) {
+		return (int) key;
+	}
+	
+	/**
+	 * @param key a chunk key.
+	 * @return the z coordinate of the chunk.
+	 */
+	public static int getZ(long key) {
+		return (int) (key >>> 32);
+	}
+}
@@ -28,6 +28,15 @@ public enum Colour {
 	RED("Red", EnumDyeColor.RED, TextFormatting.RED),
 	BLACK("Black", EnumDyeColor.BLACK, TextFormatting.BLACK);
 	
+	/** The colour matching each text formatter, indexed by formatter ordinal. */
+	private static final Colour[] BY_FORMATTER = new Colour[TextFormatting.values().length];
+	
+	static {
+		for(Colour colour : values()) {
+			BY_FORMATTER[colour.FORMATTER.ordinal()] = colour;
+		}
+	}
+	
 	/** The display name of this colour. */
 	public final String DISPLAY_NAME;
 	
@@ -72,12 +81,7 @@ public enum Colour {
 	 * @return the matching colour.
 	 */
 	public static Colour fromFormatter(TextFormatting formatter) {
-		for(Colour colour : values()) {
-			if(colour.FORMATTER == formatter) {
-				return colour;
-			}
-		}
-		return null;
+		return formatter != null ? BY_FORMATTER[formatter.ordinal()] : null;
 	}
 	
 	/**
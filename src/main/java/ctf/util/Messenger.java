@@ -1,8 +1,13 @@
 package ctf.util;
 
+import ctf.ServerContext;
+import ctf.events.LoadShedder;
+import ctf.metrics.Metrics;
+import net.minecraft.command.ICommandSender;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.scoreboard.Team;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.ITextComponent;
 import net.minecraft.util.text.TextComponentString;
 import net.minecraft.util.text.TextFormatting;
 import net.minecraft.world.WorldServer;
@@ -32,6 +37,15 @@ public class Messenger {
 	/** The symbol used to signify a change in text colour. */
 	private static String DELIMITER = "&";
 	
+	/** The channel on which announcements are sent to any other servers sharing the event. */
+	public static final String CHANNEL = "ctf:announce";
+	
+	/** Announcements which have been combined to be sent together, or null if there are none. */
+	private static ITextComponent pending = null;
+	
+	/** The number of ticks since the first combined announcement. */
+	private static int pendingTicks = 0;
+	
 	/**
 	 * Send a chat message to a specific player.
 	 * @param player the player to send a message to.
@@ -42,6 +56,16 @@ public class Messenger {
 		player.sendMessage(format(message, colours));
 	}
 	
+	/**
+	 * Send a chat message to the sender of a command.
+	 * @param sender the command sender to send a message to.
+	 * @param message the message to send.
+	 * @param colours the colour(s) of the message.
+	 */
+	public static void tell(ICommandSender sender, String message, Colour... colours) {
+		sender.sendMessage(format(message, colours));
+	}
+	
 	/**
 	 * Send a chat message to every player in a team.
 	 * @param team the team to send a message to.
@@ -49,23 +73,93 @@ public class Messenger {
 	 * @param colours the colour(s) of the message.
 	 */
 	public static void tellTeam(Team team, String message, Colour... colours) {
+		
+		TextComponentString text = format(message, colours);
+		int recipients = 0;
 		for(WorldServer world : DimensionManager.getWorlds()) {
-			world.getPlayers(EntityPlayer.class,
-					p -> p.isOnScoreboardTeam(team))
-			.forEach(p -> p.sendMessage(format(message, colours)));
+			for(EntityPlayer player : world.getPlayers(EntityPlayer.class,
+					p -> p.isOnScoreboardTeam(team))) {
+				player.sendMessage(text);
+				recipients++;
+			}
 		}
+		Metrics.MESSAGE_RECIPIENTS.observe(recipients);
 	}
 	
 	/**
-	 * Send a chat message to every online player.
+	 * Send a chat message to every online player, including those on any other servers sharing the event.
 	 * @param message the message to send.
 	 * @param colours the colour(s) of the message.
 	 */
 	public static void announce(String message, Colour... colours) {
+		
+		TextComponentString text = format(message, colours);
+		ServerContext.get().getBackend().publish(CHANNEL, ITextComponent.Serializer.componentToJson(text));
+		deliver(text);
+	}
+	
+	/**
+	 * Show an announcement made by another server sharing the event to every player on this server.
+	 * @param json the announcement.
+	 */
+	public static void receive(String json) {
+		deliver(ITextComponent.Serializer.jsonToComponent(json));
+	}
+	
+	/**
+	 * Send an announcement to every online player, or combine it with others while the server is under load.
+	 * @param text the announcement.
+	 */
+	private static void deliver(ITextComponent text) {
+		
+		//While the server is under load, combine announcements into a single message sent every so often.
+		if(LoadShedder.getLevel().COALESCE > 0 || pending != null) {
+			if(pending == null) {
+				pending = text;
+			} else {
+				pending.appendText("\n");
+				pending.appendSibling(text);
+			}
+			return;
+		}
+		send(text);
+	}
+	
+	/**
+	 * Send any combined announcements once enough ticks have passed.
+	 * To be called once per server tick.
+	 */
+	public static void tick() {
+		
+		if(pending != null && ++pendingTicks >= LoadShedder.getLevel().COALESCE) {
+			send(pending);
+			pending = null;
+			pendingTicks = 0;
+		}
+	}
+	
+	/**
+	 * Forget any announcements yet to be sent. Called when the server stops.
+	 */
+	public static void clear() {
+		pending = null;
+		pendingTicks = 0;
+	}
+	
+	/**
+	 * Send a chat message to every online player.
+	 * @param text the message to send.
+	 */
+	private static void send(ITextComponent text) {
+		
+		int recipients = 0;
 		for(WorldServer world : DimensionManager.getWorlds()) {
-			world.getPlayers(EntityPlayer.class, p -> true).forEach(
-					p -> p.sendMessage(format(message, colours)));
+			for(EntityPlayer player : world.getPlayers(EntityPlayer.class, p -> true)) {
+				player.sendMessage(text);
+				recipients++;
+			}
 		}
+		Metrics.MESSAGE_RECIPIENTS.observe(recipients);
 	}
 	
 	/**
@@ -98,11 +192,12 @@ public class Messenger {
 	
 	/**
 	 * Formats a string to include a particular colour scheme.
+	 * Used directly to build messages which are sent many times.
 	 * @param rawText the uncoloured text.
 	 * @param colours the list of colours to use.
 	 * @return the coloured string.
 	 */
-	private static TextComponentString format(String rawText, Colour... colours) {
+	public static TextComponentString format(String rawText, Colour... colours) {
 		
 		String text = "";
 		
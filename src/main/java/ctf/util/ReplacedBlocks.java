@@ -0,0 +1,141 @@
+package ctf.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ctf.CTF;
+import ctf.ServerContext;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.storage.WorldSavedData;
+import net.minecraftforge.common.util.Constants.NBT;
+
+/**
+ * The blocks which structures have replaced, such that they can be put back once the structures are no longer needed.
+ * Only the first block replaced at each position is kept, which is the block that was there before any structure.
+ * Saved with the world, so that structures built before a restart can still be taken down after it.
+ * @author Alec Dorrington
+ */
+public class ReplacedBlocks extends WorldSavedData {
+	
+	/** The name under which the replaced blocks are saved. */
+	private static final String NAME = CTF.MODID + "_replaced_blocks";
+	
+	/** The state IDs of the replaced blocks, by dimension, then by position. */
+	private final Map<Integer, Map<BlockPos, Integer>> blocks = new HashMap<>();
+	
+	/**
+	 * Constructor used by Minecraft when loading the replaced blocks from the world file.
+	 * @param name the name of the saved data.
+	 */
+	public ReplacedBlocks(String name) {
+		super(name);
+	}
+	
+	/**
+	 * Remember the block at a position which is about to be replaced, unless a block there was already replaced.
+	 * @param dimension the dimension containing the block.
+	 * @param position the position of the block.
+	 * @param state the block being replaced.
+	 */
+	public static void record(int dimension, BlockPos position, IBlockState state) {
+		
+		ReplacedBlocks replaced = get();
+		if(replaced.blocks.computeIfAbsent(dimension, d -> new HashMap<>())
+				.putIfAbsent(position, Block.getStateId(state)) == null) {
+			replaced.markDirty();
+		}
+	}
+	
+	/**
+	 * @param dimension the dimension containing the block.
+	 * @param position the position of the block.
+	 * @return the block which was replaced, or null if none was.
+	 */
+	public static IBlockState getReplaced(int dimension, BlockPos position) {
+		
+		Map<BlockPos, Integer> positions = get().blocks.get(dimension);
+		Integer state = positions == null ? null : positions.get(position);
+		return state == null ? null : Block.getStateById(state);
+	}
+	
+	/**
+	 * Forget the block replaced at a position once it has been put back, so that it is only put back once.
+	 * @param dimension the dimension containing the block.
+	 * @param position the position of the block.
+	 */
+	public static void forget(int dimension, BlockPos position) {
+		
+		ReplacedBlocks replaced = get();
+		Map<BlockPos, Integer> positions = replaced.blocks.get(dimension);
+		if(positions == null || positions.remove(position) == null) {
+			return;
+		}
+		if(positions.isEmpty()) {
+			replaced.blocks.remove(dimension);
+		}
+		replaced.markDirty();
+	}
+	
+	/**
+	 * @param dimension a dimension.
+	 * @return the positions in the dimension at which blocks were replaced.
+	 */
+	public static List<BlockPos> getPositions(int dimension) {
+		
+		Map<BlockPos, Integer> positions = get().blocks.get(dimension);
+		return positions == null ? new ArrayList<>() : new ArrayList<>(positions.keySet());
+	}
+	
+	/**
+	 * @return the dimensions in which blocks were replaced.
+	 */
+	public static List<Integer> getDimensions() {
+		return new ArrayList<>(get().blocks.keySet());
+	}
+	
+	@Override
+	public void readFromNBT(NBTTagCompound nbt) {
+		
+		blocks.clear();
+		
+		NBTTagList list = nbt.getTagList("blocks", NBT.TAG_COMPOUND);
+		for(int i = 0; i < list.tagCount(); i++) {
+			
+			NBTTagCompound block = list.getCompoundTagAt(i);
+			blocks.computeIfAbsent(block.getInteger("dimension"), d -> new HashMap<>())
+				.put(BlockPos.fromLong(block.getLong("position")), block.getInteger("state"));
+		}
+	}
+	
+	@Override
+	public NBTTagCompound writeToNBT(NBTTagCompound nbt) {
+		
+		NBTTagList list = new NBTTagList();
+		for(Map.Entry<Integer, Map<BlockPos, Integer>> dimension : blocks.entrySet()) {
+			for(Map.Entry<BlockPos, Integer> position : dimension.getValue().entrySet()) {
+				
+				NBTTagCompound block = new NBTTagCompound();
+				block.setInteger("dimension", dimension.getKey());
+				block.setLong("position", position.getKey().toLong());
+				block.setInteger("state", position.getValue());
+				list.appendTag(block);
+			}
+		}
+		nbt.setTag("blocks", list);
+		return nbt;
+	}
+	
+	/**
+	 * Get the replaced blocks for the current world, loading or creating them if necessary.
+	 * @return the replaced blocks.
+	 */
+	private static ReplacedBlocks get() {
+		return ServerContext.get().getData(NAME, ReplacedBlocks.class, ReplacedBlocks::new);
+	}
+}
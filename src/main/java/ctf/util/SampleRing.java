@@ -0,0 +1,68 @@
+package ctf.util;
+
+/**
+ * A fixed-size ring buffer of int samples.
+ * Once full, each new sample overwrites the oldest.
+ * @author Alec Dorrington
+ */
+public class SampleRing {
+	
+	/** The samples, of which the oldest is at 'start'. */
+	private final int[] samples;
+	
+	/** The index of the oldest sample. */
+	private int start = 0;
+	
+	/** The number of samples currently held. */
+	private int size = 0;
+	
+	/**
+	 * @param capacity the maximum number of samples held.
+	 */
+	public SampleRing(int capacity) {
+		samples = new int[capacity];
+	}
+	
+	/**
+	 * Add a new sample, overwriting the oldest if the ring is full.
+	 * @param sample the new sample.
+	 */
+	public void add(int sample) {
+		
+		if(size < samples.length) {
+			samples[(start + size++) % samples.length] = sample;
+		} else {
+			samples[start] = sample;
+			start = (start + 1) % samples.length;
+		}
+	}
+	
+	/**
+	 * @param i the index of a sample, where 0 is the oldest.
+	 * @return the sample.
+	 */
+	public int get(int i) {
+		return samples[(start + i) % samples.length];
+	}
+	
+	/**
+	 * @return the oldest sample, which will be overwritten next if the ring is full.
+	 */
+	public int getOldest() {
+		return samples[start];
+	}
+	
+	/** @return the number of samples currently held. */
+	public int size() { return size; }
+	
+	/** @return whether the ring is full. */
+	public boolean isFull() { return size == samples.length; }
+	
+	/**
+	 * Remove all samples.
+	 */
+	public void clear() {
+		start = 0;
+		size = 0;
+	}
+}
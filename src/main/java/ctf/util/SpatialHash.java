@@ -0,0 +1,148 @@
+package ctf.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A uniform grid of square cells, for quickly finding the items near a position.
+ * Each item is kept in the cell containing it, and is only moved between cells
+ * when it crosses a cell boundary, so frequent updates are cheap.
+ * @author Alec Dorrington
+ * @param <T> the type of item in the grid.
+ */
+public class SpatialHash<T> {
+	
+	/** A single cell of the grid. */
+	private static class Cell<T> {
+		
+		/** The dimension containing the cell. */
+		final int dimension;
+		
+		/** The chunk key of the cell coordinates. */
+		final long key;
+		
+		/** The items currently in the cell. */
+		final List<T> items = new ArrayList<>();
+		
+		Cell(int dimension, long key) {
+			this.dimension = dimension;
+			this.key = key;
+		}
+	}
+	
+	/** The number of bits in the width of a cell, such that each cell is 2^cellBits blocks wide. */
+	private final int cellBits;
+	
+	/** The occupied cells of each dimension, by chunk key of the cell coordinates. */
+	private final Map<Integer, Map<Long, Cell<T>>> cells = new HashMap<>();
+	
+	/** The cell currently containing each item. */
+	private final Map<T, Cell<T>> locations = new HashMap<>();
+	
+	/**
+	 * @param cellBits the number of bits in the width of a cell, such that each cell is 2^cellBits blocks wide.
+	 */
+	public SpatialHash(int cellBits) {
+		this.cellBits = cellBits;
+	}
+	
+	/**
+	 * Add an item to the grid, or move it if it is already present.
+	 * @param item the item.
+	 * @param dimension the dimension containing the item.
+	 * @param x the x position of the item.
+	 * @param z the z position of the item.
+	 */
+	public void update(T item, int dimension, double x, double z) {
+		
+		long key = ChunkKeys.of((int) Math.floor(x) >> cellBits, (int) Math.floor(z) >> cellBits);
+		Cell<T> current = locations.get(item);
+		
+		//Nothing needs to change unless the item has crossed into a new cell.
+		if(current != null && current.key == key && current.dimension == dimension) {
+			return;
+		}
+		if(current != null) {
+			removeFrom(current, item);
+		}
+		
+		Cell<T> cell = cells.computeIfAbsent(dimension, d -> new HashMap<>())
+			.computeIfAbsent(key, k -> new Cell<>(dimension, key));
+		cell.items.add(item);
+		locations.put(item, cell);
+	}
+	
+	/**
+	 * Remove an item from the grid.
+	 * @param item the item.
+	 */
+	public void remove(T item) {
+		
+		Cell<T> cell = locations.remove(item);
+		if(cell != null) {
+			removeFrom(cell, item);
+		}
+	}
+	
+	/**
+	 * Visit every item in the cells which overlap a square around a position.
+	 * Items slightly further away than the radius may also be visited.
+	 * The visitor must not add, move or remove items.
+	 * @param dimension the dimension to search.
+	 * @param x the x position of the centre.
+	 * @param z the z position of the centre.
+	 * @param radius the distance from the centre to search.
+	 * @param visitor called for each nearby item.
+	 */
+	public void query(int dimension, double x, double z, double radius, Consumer<T> visitor) {
+		
+		Map<Long, Cell<T>> grid = cells.get(dimension);
+		if(grid == null) {
+			return;
+		}
+		
+		int minX = (int) Math.floor(x - radius) >> cellBits, maxX = (int) Math.floor(x + radius) >> cellBits;
+		int minZ = (int) Math.floor(z - radius) >> cellBits, maxZ = (int) Math.floor(z + radius) >> cellBits;
+		
+		for(int cx = minX; cx <= maxX; cx++) {
+			for(int cz = minZ; cz <= maxZ; cz++) {
+				
+				Cell<T> cell = grid.get(ChunkKeys.of(cx, cz));
+				if(cell != null) {
+					for(T item : cell.items) {
+						visitor.accept(item);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Remove all items from the grid.
+	 */
+	public void clear() {
+		cells.clear();
+		locations.clear();
+	}
+	
+	/**
+	 * Remove an item from a cell, discarding the cell if it becomes empty.
+	 * @param cell the cell containing the item.
+	 * @param item the item.
+	 */
+	private void removeFrom(Cell<T> cell, T item) {
+		
+		cell.items.remove(item);
+		if(cell.items.isEmpty()) {
+			
+			Map<Long, Cell<T>> grid = cells.get(cell.dimension);
+			grid.remove(cell.key);
+			if(grid.isEmpty()) {
+				cells.remove(cell.dimension);
+			}
+		}
+	}
+}
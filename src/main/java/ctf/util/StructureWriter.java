@@ -0,0 +1,164 @@
+package ctf.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ctf.CTFConfig;
+import ctf.events.LoadShedder;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraftforge.common.DimensionManager;
+
+/**
+ * Builds structures over several ticks, such that building many at once doesn't stall the server.
+ * Blocks are queued by chunk, and each tick a few whole chunks are written with a BulkBlockWriter,
+ * so each chunk is written straight into its storage, relit once, and sent to clients in one packet,
+ * which for a chunk with many changes is the whole chunk.
+ * Blocks with tile entities, such as chests and flags, are left alone.
+ * Every block replaced is remembered in ReplacedBlocks, so that the structures can later be taken down.
+ * @author Alec Dorrington
+ */
+public class StructureWriter {
+	
+	/** The blocks waiting to be written in a single chunk. */
+	private static class ChunkBlocks {
+		
+		final int dimension;
+		final long key;
+		final List<BlockPos> positions = new ArrayList<>();
+		
+		/** The state to write at each position, or null to put back the block which was replaced there. */
+		final List<IBlockState> states = new ArrayList<>();
+		
+		ChunkBlocks(int dimension, long key) {
+			this.dimension = dimension;
+			this.key = key;
+		}
+	}
+	
+	/** The chunks waiting to be written, in the order they were first queued. */
+	private static final Deque<ChunkBlocks> QUEUE = new ArrayDeque<>();
+	
+	/** The queued chunks, by dimension, then by chunk key. */
+	private static final Map<Integer, Map<Long, ChunkBlocks>> CHUNKS = new HashMap<>();
+	
+	/**
+	 * Queue a block to be written during a later tick.
+	 * @param world the world containing the block.
+	 * @param position the position of the block.
+	 * @param state the new block state.
+	 */
+	public static void set(World world, BlockPos position, IBlockState state) {
+		queue(world.provider.getDimension(), position, state);
+	}
+	
+	/**
+	 * Queue every block replaced by a structure to be put back during a later tick,
+	 * such that all structures are taken down and the land is left as it was.
+	 * Each block is only forgotten once it is put back, so anything not yet put back
+	 * when the server stops is put back the next time this is called.
+	 */
+	public static void restore() {
+		
+		for(int dimension : ReplacedBlocks.getDimensions()) {
+			for(BlockPos position : ReplacedBlocks.getPositions(dimension)) {
+				queue(dimension, position, null);
+			}
+		}
+	}
+	
+	/**
+	 * Queue a block to be written during a later tick.
+	 * @param dimension the dimension containing the block.
+	 * @param position the position of the block.
+	 * @param state the new block state, or null to put back the block which was replaced.
+	 */
+	private static void queue(int dimension, BlockPos position, IBlockState state) {
+		
+		long key = ChunkKeys.of(position);
+		
+		ChunkBlocks chunk = CHUNKS.computeIfAbsent(dimension, d -> new HashMap<>()).get(key);
+		if(chunk == null) {
+			chunk = new ChunkBlocks(dimension, key);
+			CHUNKS.get(dimension).put(key, chunk);
+			QUEUE.add(chunk);
+		}
+		chunk.positions.add(position);
+		chunk.states.add(state);
+	}
+	
+	/**
+	 * Write whole chunks until the configured number of blocks has been written.
+	 * At least one chunk is written each time, so that no chunk is ever split across ticks.
+	 * To be called once per server tick.
+	 */
+	public static void tick() {
+		
+		if(QUEUE.isEmpty() || !LoadShedder.isDue()) {
+			return;
+		}
+		
+		BulkBlockWriter writer = new BulkBlockWriter();
+		int written = 0;
+		
+		//The replaced blocks put back during this tick, by dimension, which are forgotten once written.
+		Map<Integer, List<BlockPos>> restored = new HashMap<>();
+		
+		while(!QUEUE.isEmpty() && (written == 0 || written < CTFConfig.bases.blocksPerTick)) {
+			
+			ChunkBlocks chunk = QUEUE.poll();
+			CHUNKS.get(chunk.dimension).remove(chunk.key);
+			
+			//Drop blocks in dimensions which have since been unloaded.
+			World world = DimensionManager.getWorld(chunk.dimension);
+			if(world == null) {
+				continue;
+			}
+			
+			for(int i = 0; i < chunk.positions.size(); i++) {
+				
+				BlockPos position = chunk.positions.get(i);
+				IBlockState state = chunk.states.get(i);
+				IBlockState current = world.getBlockState(position);
+				
+				//Leave tile entities alone, along with any replaced block beneath them, which is put back later.
+				if(current.getBlock().hasTileEntity(current)) {
+					continue;
+				}
+				
+				//Put back a replaced block, or remember the block about to be replaced.
+				if(state == null) {
+					state = ReplacedBlocks.getReplaced(chunk.dimension, position);
+					if(state == null) {
+						continue;
+					}
+					restored.computeIfAbsent(chunk.dimension, d -> new ArrayList<>()).add(position);
+				} else if(current != state) {
+					ReplacedBlocks.record(chunk.dimension, position, current);
+				}
+				writer.set(world, position, state);
+			}
+			written += chunk.positions.size();
+		}
+		writer.flush();
+		
+		for(Map.Entry<Integer, List<BlockPos>> dimension : restored.entrySet()) {
+			for(BlockPos position : dimension.getValue()) {
+				ReplacedBlocks.forget(dimension.getKey(), position);
+			}
+		}
+	}
+	
+	/**
+	 * Forget all queued blocks. Called when the server stops.
+	 */
+	public static void clear() {
+		QUEUE.clear();
+		CHUNKS.clear();
+	}
+}
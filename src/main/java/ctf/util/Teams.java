@@ -1,15 +1,17 @@
 package ctf.util;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
+import ctf.ServerContext;
 import net.minecraft.entity.player.EntityPlayer;
-import net.minecraft.scoreboard.IScoreCriteria;
+import net.minecraft.scoreboard.Score;
 import net.minecraft.scoreboard.ScoreObjective;
 import net.minecraft.scoreboard.ScorePlayerTeam;
 import net.minecraft.scoreboard.Scoreboard;
 import net.minecraft.scoreboard.Team;
 import net.minecraft.util.text.TextFormatting;
-import net.minecraftforge.common.DimensionManager;
 
 /**
  * Wrapper class for Minecraft teams.
@@ -17,27 +19,92 @@ import net.minecraftforge.common.DimensionManager;
  */
 public class Teams {
 	
-	/** The world scoreboard. */
-	private static final Scoreboard SCOREBOARD =
-			DimensionManager.getWorld(0).getScoreboard();
+	/** All colours, indexed by ordinal. */
+	private static final Colour[] COLOURS = Colour.values();
 	
-	/** The score objective. */
-	private static final ScoreObjective SCORE = getObjective("Score");
+	/** Points awarded to each team (by colour ordinal) which are yet to be applied. */
+	private static final int[] PENDING_POINTS = new int[Colour.values().length];
 	
-	static {
-		//Display the score in the sidebar.
-		SCOREBOARD.setObjectiveInDisplaySlot(1, SCORE);
-	}
+	/** Bit mask of the teams (by colour ordinal) with pending points. */
+	private static int pendingTeams = 0;
+	
+	/** The team name from which each cached score name was built. */
+	private static final String[] TEAM_NAMES = new String[Colour.values().length];
+	
+	/** The cached name under which each team's score is shown. */
+	private static final String[] SCORE_NAMES = new String[Colour.values().length];
+	
+	/** The remote change count when the scores were last shown, so that points given by other servers are shown. */
+	private static int shownRemoteCount = 0;
 	
 	/**
 	 * Give/remove points to/from a specified team.
+	 * Points are applied at the end of the tick, all at once,
+	 * such that each team's score only changes once per tick.
 	 * @param team the team to give points to.
 	 * @param points the number of points to add/take.
 	 */
 	public static void givePoints(Team team, int points) {
-		String name = team.getColor() + team.getName() + TextFormatting.RESET;
-		ScoreObjective score = SCOREBOARD.getObjectiveInDisplaySlot(1);
-		SCOREBOARD.getOrCreateScore(name, score).increaseScore(points);
+		int i = Colour.fromFormatter(team.getColor()).ordinal();
+		PENDING_POINTS[i] += points;
+		pendingTeams |= 1 << i;
+	}
+	
+	/**
+	 * Apply all points given during this tick.
+	 * Sends a single score update for each team whose score changed.
+	 * The points are also added to the values, through which they are shared with any other servers,
+	 * and the scores are brought up to date whenever other servers have changed the values.
+	 * To be called at the end of each server tick.
+	 */
+	public static void flushPoints() {
+		
+		if(shownRemoteCount != Values.getRemoteCount()) {
+			shownRemoteCount = Values.getRemoteCount();
+			for(Team team : getTeams()) {
+				int points = Values.getInteger(getPointsName(team));
+				if(getScore(team).getScorePoints() != points) {
+					getScore(team).setScorePoints(points);
+					Values.markChanged();
+				}
+			}
+		}
+		
+		//For each team with pending points.
+		for(int mask = pendingTeams; mask != 0; mask &= mask - 1) {
+			
+			int i = Integer.numberOfTrailingZeros(mask);
+			Team team = getTeam(COLOURS[i]);
+			
+			if(team != null && PENDING_POINTS[i] != 0) {
+				getScore(team).increaseScore(PENDING_POINTS[i]);
+				Values.increment(getPointsName(team), PENDING_POINTS[i]);
+			}
+			PENDING_POINTS[i] = 0;
+		}
+		pendingTeams = 0;
+	}
+	
+	/**
+	 * Returns the number of points a team currently has, including any yet to be applied.
+	 * @param team the team of which to get the points.
+	 * @return the team's score.
+	 */
+	public static int getPoints(Team team) {
+		int i = Colour.fromFormatter(team.getColor()).ordinal();
+		return getScore(team).getScorePoints() + PENDING_POINTS[i];
+	}
+	
+	/**
+	 * Overwrite the number of points a team has, discarding any yet to be applied.
+	 * @param team the team of which to set the points.
+	 * @param points the new score.
+	 */
+	public static void setPoints(Team team, int points) {
+		PENDING_POINTS[Colour.fromFormatter(team.getColor()).ordinal()] = 0;
+		getScore(team).setScorePoints(points);
+		Values.setInteger(getPointsName(team), points);
+		Values.markChanged();
 	}
 	
 	/**
@@ -54,11 +121,37 @@ public class Teams {
 		return null;
 	}
 	
+	/**
+	 * Forget all pending points and cached names. Called when the server stops.
+	 */
+	public static void clear() {
+		
+		for(int i = 0; i < COLOURS.length; i++) {
+			PENDING_POINTS[i] = 0;
+			TEAM_NAMES[i] = null;
+			SCORE_NAMES[i] = null;
+		}
+		pendingTeams = 0;
+		shownRemoteCount = Values.getRemoteCount();
+	}
+	
 	/**
 	 * @return a list of all the current teams.
 	 */
 	public static Collection<ScorePlayerTeam> getTeams() {
-		return SCOREBOARD.getTeams();
+		return ServerContext.get().getScoreboard().getTeams();
+	}
+	
+	/**
+	 * @return the colours of all the current teams.
+	 */
+	public static List<Colour> getColours() {
+		
+		List<Colour> colours = new ArrayList<>();
+		for(Team team : getTeams()) {
+			colours.add(Colour.fromFormatter(team.getColor()));
+		}
+		return colours;
 	}
 	
 	/**
@@ -72,14 +165,43 @@ public class Teams {
 	}
 	
 	/**
-	 * Get the scoreboard objective of the given name.
-	 * Will create a new objective if it doesn't yet exist.
-	 * @param name the name of the objective to find/create.
-	 * @return the objective instance.
+	 * @param team the team of which to get the score entry.
+	 * @return the team's score in the objective shown in the sidebar.
 	 */
-	private static ScoreObjective getObjective(String name) {
-		ScoreObjective objective = SCOREBOARD.getObjective(name);
-		return objective != null ? objective :
-				SCOREBOARD.addScoreObjective(name, IScoreCriteria.DUMMY);
+	private static Score getScore(Team team) {
+		
+		Scoreboard scoreboard = ServerContext.get().getScoreboard();
+		ScoreObjective score = scoreboard.getObjectiveInDisplaySlot(1);
+		
+		//Display the score in the sidebar if nothing else is.
+		if(score == null) {
+			score = ServerContext.get().getObjective("Score");
+			scoreboard.setObjectiveInDisplaySlot(1, score);
+		}
+		return scoreboard.getOrCreateScore(getScoreName(team), score);
+	}
+	
+	/**
+	 * @param team a team.
+	 * @return the name of the value through which the team's points are shared.
+	 */
+	private static String getPointsName(Team team) {
+		return "ctf:points(" + Colour.fromFormatter(team.getColor()).UNLOCALISED_NAME + ")";
+	}
+	
+	/**
+	 * @param team the team of which to get the score entry.
+	 * @return the name under which the team's score is shown in the sidebar.
+	 */
+	private static String getScoreName(Team team) {
+		
+		int i = Colour.fromFormatter(team.getColor()).ordinal();
+		
+		//Only rebuild the name if the team has been renamed or replaced.
+		if(!team.getName().equals(TEAM_NAMES[i])) {
+			TEAM_NAMES[i] = team.getName();
+			SCORE_NAMES[i] = team.getColor() + team.getName() + TextFormatting.RESET;
+		}
+		return SCORE_NAMES[i];
 	}
 }
\ No newline at end of file
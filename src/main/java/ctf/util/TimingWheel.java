@@ -0,0 +1,194 @@
+package ctf.util;
+
+/**
+ * A hashed timing wheel, for scheduling large numbers of timers cheaply.
+ * Timers are hashed into slots by their deadline, and each tick only the
+ * timers in the current slot are examined, so scheduling is O(1) and
+ * advancing the wheel is O(1) amortised regardless of how many timers are pending.
+ * Timer nodes are pooled, so scheduling doesn't allocate in the steady state.
+ * @author Alec Dorrington
+ */
+public class TimingWheel {
+	
+	/**
+	 * Called for each timer which expires.
+	 */
+	public interface Handler {
+		
+		/**
+		 * @param type the type of the timer.
+		 * @param argument the argument of the timer.
+		 * @param generation the generation of the timer.
+		 */
+		void expire(int type, int argument, int generation);
+	}
+	
+	/**
+	 * Called for each timer which is still pending.
+	 */
+	public interface Visitor {
+		
+		/**
+		 * @param delay the number of ticks remaining until the timer expires.
+		 * @param type the type of the timer.
+		 * @param argument the argument of the timer.
+		 * @param generation the generation of the timer.
+		 */
+		void visit(long delay, int type, int argument, int generation);
+	}
+	
+	/** A single pending timer. */
+	private static class Node {
+		
+		/** The tick on which this timer expires. */
+		long deadline;
+		
+		/** The type, argument and generation of this timer. */
+		int type, argument, generation;
+		
+		/** The next timer in the same slot, or in the pool of free nodes. */
+		Node next;
+	}
+	
+	/** The slots of the wheel, each holding a list of timers. */
+	private final Node[] slots;
+	
+	/** Mask used to map a deadline to its slot. */
+	private final int mask;
+	
+	/** The current tick of the wheel. */
+	private long tick = 0;
+	
+	/** The number of pending timers. */
+	private int size = 0;
+	
+	/** The number of times the wheel has been cleared, so that a clear by a handler can be noticed. */
+	private int clears = 0;
+	
+	/** Unused nodes, kept for reuse. */
+	private Node pool;
+	
+	/**
+	 * @param slots the number of slots in the wheel. Rounded up to a power of 2.
+	 */
+	public TimingWheel(int slots) {
+		int length = Integer.highestOneBit(Math.max(slots - 1, 1)) << 1;
+		this.slots = new Node[length];
+		mask = length - 1;
+	}
+	
+	/**
+	 * Schedule a new timer.
+	 * A timer's generation may be used to ignore timers which have since been superseded.
+	 * @param delay the number of ticks after which the timer expires (at least 1).
+	 * @param type the type of the timer.
+	 * @param argument the argument of the timer.
+	 * @param generation the generation of the timer.
+	 */
+	public void schedule(long delay, int type, int argument, int generation) {
+		
+		Node node = pool;
+		if(node != null) {
+			pool = node.next;
+		} else {
+			node = new Node();
+		}
+		
+		node.deadline = tick + Math.max(delay, 1);
+		node.type = type;
+		node.argument = argument;
+		node.generation = generation;
+		
+		//Insert the timer at the head of its slot.
+		int slot = (int) (node.deadline & mask);
+		node.next = slots[slot];
+		slots[slot] = node;
+		size++;
+	}
+	
+	/**
+	 * Advance the wheel by one tick, expiring any timers which are due.
+	 * @param handler called for each expired timer.
+	 */
+	public void advance(Handler handler) {
+		
+		tick++;
+		int slot = (int) (tick & mask);
+		
+		//Detach the slot, so that the handler is free to schedule new timers into it.
+		Node node = slots[slot];
+		slots[slot] = null;
+		int cleared = clears;
+		
+		while(node != null) {
+			
+			Node next = node.next;
+			
+			//Timers due in a later rotation of the wheel are put back.
+			if(node.deadline > tick) {
+				node.next = slots[slot];
+				slots[slot] = node;
+			
+			//Expired timers are returned to the pool before being run.
+			} else {
+				
+				size--;
+				int type = node.type, argument = node.argument, generation = node.generation;
+				node.next = pool;
+				pool = node;
+				
+				handler.expire(type, argument, generation);
+				
+				//If the handler cleared the wheel, the rest of the detached slot is cancelled too.
+				if(clears != cleared) {
+					release(next);
+					return;
+				}
+			}
+			node = next;
+		}
+	}
+	
+	/**
+	 * Visit every pending timer. Used to save the timers.
+	 * @param visitor called for each pending timer.
+	 */
+	public void forEach(Visitor visitor) {
+		
+		for(Node head : slots) {
+			for(Node node = head; node != null; node = node.next) {
+				visitor.visit(node.deadline - tick, node.type, node.argument, node.generation);
+			}
+		}
+	}
+	
+	/**
+	 * Cancel all pending timers.
+	 */
+	public void clear() {
+		
+		for(int i = 0; i < slots.length; i++) {
+			release(slots[i]);
+			slots[i] = null;
+		}
+		size = 0;
+		clears++;
+	}
+	
+	/** @return the number of pending timers. */
+	public int size() { return size; }
+	
+	/**
+	 * Return a list of nodes to the pool.
+	 * @param node the first node of the list.
+	 */
+	private void release(Node node) {
+		
+		while(node != null) {
+			Node next = node.next;
+			node.next = pool;
+			pool = node;
+			node = next;
+		}
+	}
+}
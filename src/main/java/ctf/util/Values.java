@@ -2,30 +2,26 @@ package ctf.util;
 
 import java.util.EnumSet;
 import java.util.LinkedList;
+import java.util.List;
 
-import ctf.CTF;
-import net.minecraft.scoreboard.IScoreCriteria;
-import net.minecraft.scoreboard.Score;
-import net.minecraft.scoreboard.ScoreObjective;
-import net.minecraft.scoreboard.Scoreboard;
+import ctf.ServerContext;
+import ctf.shared.StateBackend;
 import net.minecraft.util.math.BlockPos;
-import net.minecraftforge.common.DimensionManager;
 
 /**
  * Helper class used to save arbitrary persistent values to the world file.
  * Values will be instantly shared across all devices connected to the world.
- * This is done by use of the Minecraft scoreboard.
+ * This is done by use of the Minecraft scoreboard, and any other servers sharing the event
+ * are sent the changes through the backend of the server context.
  * @author Alec
  */
 public class Values {
 	
-	/** The world scoreboard. */
-	private static final Scoreboard SCOREBOARD =
-			DimensionManager.getWorld(0).getScoreboard();
+	/** The number of times any value has been changed. Used to detect changes cheaply. */
+	private static int modCount = 0;
 	
-	/** The data objective. Used to store all the values. */
-	private static final ScoreObjective DATA =
-			getObjective(CTF.MODID + "_data");
+	/** The number of times values have been changed by other servers. */
+	private static int remoteCount = 0;
 	
 	/**
 	 * Set an integer value. There is no need for the value to already exist.
@@ -34,8 +30,31 @@ public class Values {
 	 */
 	public static void setInteger(String name, int value) {
 		name = name.toLowerCase().replace(" ", "_");
-		Score score = SCOREBOARD.getOrCreateScore(name, DATA);
-		score.setScorePoints(value);
+		StateBackend backend = getBackend();
+		if(backend.get(name) != value) {
+			backend.set(name, value);
+			modCount++;
+		}
+	}
+	
+	/**
+	 * Set an integer value only if it currently holds the expected value.
+	 * When the event is shared between servers, only one server can succeed.
+	 * @param name the name of the value entry.
+	 * @param expected the value which the entry must currently hold.
+	 * @param value the new value.
+	 * @return whether the value was set.
+	 */
+	public static boolean claim(String name, int expected, int value) {
+		
+		name = name.toLowerCase().replace(" ", "_");
+		if(!getBackend().claim(name, expected, value)) {
+			return false;
+		}
+		if(expected != value) {
+			modCount++;
+		}
+		return true;
 	}
 	
 	/**
@@ -77,7 +96,7 @@ public class Values {
 	 */
 	public static int getInteger(String name) {
 		name = name.toLowerCase().replace(" ", "_");
-		return SCOREBOARD.getOrCreateScore(name, DATA).getScorePoints();
+		return getBackend().get(name);
 	}
 	
 	/**
@@ -110,26 +129,67 @@ public class Values {
 		return new LinkedList<>(EnumSet.allOf(e)).get(getInteger(name));
 	}
 	
+	/**
+	 * Returns the names of all existing values which start with the given prefix.
+	 * @param prefix the start of the names to find.
+	 * @return the matching value names.
+	 */
+	public static List<String> getNames(String prefix) {
+		
+		return getBackend().getNames(prefix.toLowerCase().replace(" ", "_"));
+	}
+	
 	/**
 	 * Increments an integer value by the specified amount. Starts at 0 for values yet to exist.
+	 * When the event is shared between servers, increments made by several servers at once are all kept.
 	 * @param name the name of the value entry.
 	 * @param amount the amount by which to increment.
 	 * @return the new value stored under the given name.
 	 */
 	public static int increment(String name, int amount) {
-		setInteger(name, getInteger(name) + amount);
-		return getInteger(name);
+		name = name.toLowerCase().replace(" ", "_");
+		int value = getBackend().add(name, amount);
+		if(amount != 0) {
+			modCount++;
+		}
+		return value;
+	}
+	
+	/**
+	 * Record that some state stored outside of the values has changed,
+	 * such that anything watching for changes is notified.
+	 */
+	public static void markChanged() {
+		modCount++;
+	}
+	
+	/**
+	 * Record that values have been changed by another server,
+	 * such that anything holding on to values read earlier can read them again.
+	 */
+	public static void markRemoteChanged() {
+		modCount++;
+		remoteCount++;
+	}
+	
+	/**
+	 * @return a number which changes whenever any value is changed.
+	 */
+	public static int getModCount() {
+		return modCount;
+	}
+	
+	/**
+	 * @return a number which changes whenever values are changed by another server.
+	 */
+	public static int getRemoteCount() {
+		return remoteCount;
 	}
 	
 	/**
-	 * Get the scoreboard objective of the given name.
-	 * Will create a new objective if it doesn't yet exist.
-	 * @param name the name of the objective to find/create.
-	 * @return the objective instance.
+	 * @return the backend holding the values.
 	 */
-	private static ScoreObjective getObjective(String name) {
-		ScoreObjective objective = SCOREBOARD.getObjective(name);
-		return objective != null ? objective :
-				SCOREBOARD.addScoreObjective(name, IScoreCriteria.DUMMY);
+	private static StateBackend getBackend() {
+		return ServerContext.get().getBackend();
 	}
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package ctf.util;
 
+import ctf.metrics.Metrics;
 import net.minecraft.block.BlockLiquid;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.util.math.BlockPos;
@@ -22,6 +23,27 @@ public class WorldUtils {
 	public static BlockPos placeBlock(World world,
 			BlockPos position, IBlockState block) {
 		
+		BulkBlockWriter writer = new BulkBlockWriter();
+		position = placeBlock(writer, world, position, block);
+		writer.flush();
+		return position;
+	}
+	
+	/**
+	 * Places the given block state as close to the given position as possible, as part of a bulk change.
+	 * The block will always be placed on solid ground.
+	 * @param writer the writer with which to place the block.
+	 * @param world the world in which to place the block.
+	 * @param position the desired position at which to place the block.
+	 * @param block the block state to place.
+	 * @return the actual position at which the block was placed.
+	 */
+	public static BlockPos placeBlock(BulkBlockWriter writer, World world,
+			BlockPos position, IBlockState block) {
+		
+		//Count the number of blocks checked, for the metrics.
+		int probes = 0;
+		
 		//Increase search radius until a free block is found.
 		outer: for(int r = 0;; r++) {
 			
@@ -39,6 +61,7 @@ public class WorldUtils {
 						y *= i == 0 ? -1 : 1;
 						
 						//If this location is free.
+						probes++;
 						if(y >= 0 && y < world.getHeight() &&
 								world.getBlockState(position.add(x, y, z))
 								.getBlock().isReplaceable(world, position)) {
@@ -51,9 +74,11 @@ public class WorldUtils {
 				}
 			}
 		}
+		Metrics.PLACEMENT_PROBES.observe(probes);
+		
 		//Find solid ground at or below this position.
 		position = findSurface(world, position);
-		world.setBlockState(position, block);
+		writer.set(world, position, block);
 		return position;
 	}
 	
@@ -0,0 +1,306 @@
+package ctf.shared;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ctf.CTFConfig;
+
+/**
+ * Two servers sharing one event through the same file, each with its own FileBackend.
+ * @author Alec Dorrington
+ */
+public class FileBackendTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/** The file shared by both servers. */
+	private File file;
+	
+	/** The backends of the two servers. */
+	private FileBackend a, b;
+	
+	/** The exchange interval before the test, which is put back afterwards. */
+	private int interval;
+	
+	@Before
+	public void setUp() throws IOException {
+		
+		//Exchange on every tick, so that each tick is one exchange.
+		interval = CTFConfig.shared.interval;
+		CTFConfig.shared.interval = 1;
+		file = new File(folder.getRoot(), "shared.bin");
+		a = new FileBackend(file, 0, new MapBackend());
+		b = new FileBackend(file, 1, new MapBackend());
+		a.tick();
+		b.tick();
+	}
+	
+	@After
+	public void tearDown() {
+		a.close();
+		b.close();
+		CTFConfig.shared.interval = interval;
+	}
+	
+	@Test
+	public void changesReachTheOtherServer() {
+		
+		a.set("ctf:value", 3);
+		a.tick();
+		b.tick();
+		assertEquals(3, b.get("ctf:value"));
+	}
+	
+	@Test
+	public void laterChangeWins() {
+		
+		a.set("ctf:value", 1);
+		a.tick();
+		b.tick();
+		
+		//Neither has seen the other's change, so the one written last wins on both.
+		a.set("ctf:value", 2);
+		b.set("ctf:value", 3);
+		a.tick();
+		b.tick();
+		a.tick();
+		assertEquals(3, a.get("ctf:value"));
+		assertEquals(3, b.get("ctf:value"));
+		
+		//Reading the same changes again does nothing.
+		b.tick();
+		assertEquals(3, b.get("ctf:value"));
+	}
+	
+	@Test
+	public void additionsOnBothServersAreKept() {
+		
+		a.add("ctf:count", 1);
+		b.add("ctf:count", 1);
+		assertEquals(1, a.get("ctf:count"));
+		assertEquals(1, b.get("ctf:count"));
+		
+		a.tick();
+		b.tick();
+		a.tick();
+		assertEquals(2, a.get("ctf:count"));
+		assertEquals(2, b.get("ctf:count"));
+	}
+	
+	@Test
+	public void onlyOneServerClaims() {
+		
+		a.set("ctf:flag", 1);
+		a.tick();
+		b.tick();
+		
+		assertTrue(a.claim("ctf:flag", 1, 0));
+		assertFalse(b.claim("ctf:flag", 1, 0));
+		assertEquals(0, b.get("ctf:flag"));
+	}
+	
+	@Test
+	public void onlyOneServerClaimsAtOnce() throws Exception {
+		
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			for(int round = 0; round < 50; round++) {
+				
+				a.set("ctf:flag", 1);
+				a.tick();
+				b.tick();
+				
+				//Both servers try to claim at the same moment, each on its own thread.
+				CountDownLatch start = new CountDownLatch(1);
+				Future<Boolean> claimedA = executor.submit(() -> {
+					start.await();
+					return a.claim("ctf:flag", 1, 0);
+				});
+				Future<Boolean> claimedB = executor.submit(() -> {
+					start.await();
+					return b.claim("ctf:flag", 1, 0);
+				});
+				start.countDown();
+				
+				assertFalse("Both servers claimed in round " + round + ".", claimedA.get() && claimedB.get());
+				a.tick();
+				b.tick();
+				assertEquals(a.get("ctf:flag"), b.get("ctf:flag"));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void nothingWaitsWhileTheFileIsLocked() throws IOException {
+		
+		a.set("ctf:flag", 1);
+		a.tick();
+		b.tick();
+		b.set("ctf:value", 5);
+		
+		//Another process holds the lock.
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			
+			FileLock lock = channel.lock();
+			long start = System.nanoTime();
+			assertFalse(b.claim("ctf:flag", 1, 0));
+			b.tick();
+			assertTrue(System.nanoTime() - start < 1000000000L);
+			lock.release();
+		}
+		
+		//The change which couldn't be shared is shared on the next tick.
+		b.tick();
+		a.tick();
+		assertEquals(5, a.get("ctf:value"));
+		assertTrue(b.claim("ctf:flag", 1, 0));
+	}
+	
+	@Test
+	public void eventsReachOnlyTheOtherServer() {
+		
+		List<String> receivedA = new ArrayList<>(), receivedB = new ArrayList<>();
+		a.subscribe("ctf:test", receivedA::add);
+		b.subscribe("ctf:test", receivedB::add);
+		b.subscribe("ctf:other", payload -> fail("Delivered on the wrong channel."));
+		
+		a.publish("ctf:test", "first");
+		a.publish("ctf:test", "second");
+		a.tick();
+		b.tick();
+		b.tick();
+		
+		assertTrue(receivedA.isEmpty());
+		assertEquals(2, receivedB.size());
+		assertEquals("first", receivedB.get(0));
+		assertEquals("second", receivedB.get(1));
+	}
+	
+	@Test
+	public void newServerSkipsEarlierEvents() throws IOException {
+		
+		a.set("ctf:value", 4);
+		a.publish("ctf:test", "before");
+		a.tick();
+		b.tick();
+		
+		FileBackend c = new FileBackend(file, 2, new MapBackend());
+		try {
+			List<String> received = new ArrayList<>();
+			c.subscribe("ctf:test", received::add);
+			c.tick();
+			assertEquals(4, c.get("ctf:value"));
+			assertTrue(received.isEmpty());
+			
+			//Events sent after it joined still arrive.
+			a.publish("ctf:test", "after");
+			a.tick();
+			c.tick();
+			assertEquals(1, received.size());
+			assertEquals("after", received.get(0));
+		} finally {
+			c.close();
+		}
+	}
+	
+	@Test
+	public void restartedServerSkipsEarlierEvents() throws IOException {
+		
+		b.publish("ctf:test", "own");
+		b.tick();
+		a.publish("ctf:test", "other");
+		a.tick();
+		b.close();
+		
+		//The restarted server has the same ID, but neither its own events nor those it missed are replayed.
+		b = new FileBackend(file, 1, new MapBackend());
+		List<String> received = new ArrayList<>();
+		b.subscribe("ctf:test", received::add);
+		b.tick();
+		assertTrue(received.isEmpty());
+		
+		a.publish("ctf:test", "after");
+		a.tick();
+		b.tick();
+		assertEquals(1, received.size());
+		assertEquals("after", received.get(0));
+	}
+	
+	@Test
+	public void compactionKeepsValuesAndUnreadEvents() {
+		
+		List<String> received = new ArrayList<>();
+		b.subscribe("ctf:test", received::add);
+		
+		//Keep writing the same values until the log has been rewritten several times.
+		int rounds = 600, compactions = 0;
+		long length = 0;
+		for(int round = 0; round < rounds; round++) {
+			
+			for(int i = 0; i < 100; i++) {
+				a.set("ctf:value(" + i + ")", round);
+			}
+			a.publish("ctf:test", Integer.toString(round));
+			
+			//The log may be rewritten while the last event is still unread by the other server.
+			a.tick();
+			if(file.length() < length) {
+				compactions++;
+			}
+			length = file.length();
+			b.tick();
+		}
+		
+		assertTrue(compactions > 0);
+		assertTrue(file.length() < 1 << 20);
+		assertEquals(rounds, received.size());
+		for(int round = 0; round < rounds; round++) {
+			assertEquals(Integer.toString(round), received.get(round));
+		}
+		for(int i = 0; i < 100; i++) {
+			assertEquals(rounds - 1, b.get("ctf:value(" + i + ")"));
+		}
+	}
+	
+	@Test
+	public void newServerReadsTheRewrittenLog() throws IOException {
+		
+		//Grow the log until it has been rewritten.
+		for(int round = 0; round < 300; round++) {
+			for(int i = 0; i < 100; i++) {
+				a.set("ctf:value(" + i + ")", round);
+			}
+			a.tick();
+			b.tick();
+		}
+		
+		FileBackend c = new FileBackend(file, 2, new MapBackend());
+		try {
+			c.tick();
+			assertEquals(299, c.get("ctf:value(0)"));
+			assertEquals(299, c.get("ctf:value(99)"));
+		} finally {
+			c.close();
+		}
+	}
+}
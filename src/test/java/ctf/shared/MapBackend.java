@@ -0,0 +1,69 @@
+package ctf.shared;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the values of a single server in a map, in place of the scoreboard,
+ * such that a FileBackend can be tested without a running server.
+ * @author Alec Dorrington
+ */
+class MapBackend implements StateBackend {
+	
+	/** The values, by name. */
+	private final Map<String, Integer> values = new HashMap<>();
+	
+	@Override
+	public int get(String name) {
+		return values.getOrDefault(name, 0);
+	}
+	
+	@Override
+	public void set(String name, int value) {
+		values.put(name, value);
+	}
+	
+	@Override
+	public int add(String name, int amount) {
+		int value = get(name) + amount;
+		set(name, value);
+		return value;
+	}
+	
+	@Override
+	public boolean claim(String name, int expected, int value) {
+		
+		if(get(name) != expected) {
+			return false;
+		}
+		set(name, value);
+		return true;
+	}
+	
+	@Override
+	public List<String> getNames(String prefix) {
+		
+		List<String> names = new ArrayList<>();
+		for(String name : values.keySet()) {
+			if(name.startsWith(prefix)) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+	
+	@Override
+	public void publish(String channel, String payload) {}
+	
+	@Override
+	public void subscribe(String channel, Consumer<String> listener) {}
+	
+	@Override
+	public void tick() {}
+	
+	@Override
+	public void close() {}
+}